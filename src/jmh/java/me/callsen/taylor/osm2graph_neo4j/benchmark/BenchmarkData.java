@@ -0,0 +1,62 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.MappedNodeShapeSource;
+
+// synthetic elements shaped like those of the sf-potrero.osm test extract (same attribute set, typical tags)
+final class BenchmarkData {
+
+  static final long FIRST_NODE_ID = 65000000L;
+
+  private BenchmarkData() { }
+
+  static OsmNode node(long id) {
+    double lat = 37.75 + (id % 1000) * 0.00001;
+    double lon = -122.40 + (id % 997) * 0.00001;
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    attributes.put("id", Long.toString(id));
+    attributes.put("lat", Double.toString(lat));
+    attributes.put("lon", Double.toString(lon));
+    attributes.put("version", "3");
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    if (id % 4 == 0) {
+      tags.put("highway", "crossing");
+      tags.put("crossing", "zebra");
+    }
+    return new OsmNode(id, lat, lon, attributes, tags);
+  }
+
+  static OsmWay way(long id, int nodeCount) {
+    long[] nodeRefs = new long[nodeCount];
+    for (int i = 0; i < nodeCount; ++i) nodeRefs[i] = FIRST_NODE_ID + (id * 7 + i) % 100000;
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    attributes.put("id", Long.toString(id));
+    attributes.put("version", "12");
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    tags.put("highway", "residential");
+    tags.put("name", "Connecticut Street");
+    tags.put("maxspeed", "25 mph");
+    tags.put("surface", "asphalt");
+    tags.put("tiger:cfcc", "A41");
+    tags.put("tiger:county", "San Francisco, CA");
+    tags.put("tiger:name_base", "Connecticut");
+    tags.put("tiger:name_type", "St");
+    return new OsmWay(id, nodeRefs, attributes, tags);
+  }
+
+  // coordinate store holding the nodes referenced by way() - 100k nodes
+  static MappedNodeShapeSource nodeShapeStore() throws Exception {
+    MappedNodeShapeSource nodeShapeStore = new MappedNodeShapeSource();
+    for (long id = FIRST_NODE_ID; id < FIRST_NODE_ID + 100000; ++id) {
+      OsmNode node = node(id);
+      nodeShapeStore.add(id, node.getLon(), node.getLat());
+    }
+    nodeShapeStore.seal();
+    return nodeShapeStore;
+  }
+
+}
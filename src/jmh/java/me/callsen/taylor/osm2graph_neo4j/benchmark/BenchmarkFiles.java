@@ -0,0 +1,20 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class BenchmarkFiles {
+
+  private BenchmarkFiles() { }
+
+  static void deleteRecursively(Path directory) throws IOException {
+    if (!Files.exists(directory)) return;
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.PropertySchema;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.MappedNodeShapeSource;
+
+// intersection and road relationship writes through the shared, adaptively committed transaction of a
+//  GraphDbLoader on a temporary embedded database - includes commit cost amortized over the batch
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphWriteBenchmark {
+
+  // intersections created up front as relationship endpoints
+  private static final int ENDPOINT_NODE_COUNT = 100000;
+
+  // property schema of the written elements - see PropertySchema
+  @Param({ "full", "compact" })
+  public String schema;
+
+  private Path graphDbPath;
+  private GraphDbLoader graphDbLoader;
+
+  // prepared property maps - the benchmarks measure the writes only
+  private OsmNode[] nodes;
+  private Map<String, Object>[] nodeProps;
+  private Map<String, Object>[] wayProps;
+  private long[][] wayEndpoints;
+
+  private long nextNodeId;
+  private int nextNode = 0;
+  private int nextWay = 0;
+
+  @Setup(Level.Trial)
+  @SuppressWarnings("unchecked")
+  public void setup() throws Exception {
+
+    this.graphDbPath = Files.createTempDirectory("osm2graph-benchmark-");
+    this.graphDbLoader = new GraphDbLoader(this.graphDbPath.toString());
+    PropertySchema propertySchema = new PropertySchema(this.schema.equals("compact"), true);
+
+    // node templates - ids are reassigned on every write so each creates a new intersection
+    this.nodes = new OsmNode[1024];
+    this.nodeProps = new Map[this.nodes.length];
+    for (int i = 0; i < this.nodes.length; ++i) {
+      this.nodes[i] = BenchmarkData.node(BenchmarkData.FIRST_NODE_ID + i);
+      this.nodeProps[i] = propertySchema.assembleNodeProps(this.nodes[i]);
+    }
+
+    // way segments between endpoint intersections, with the same properties a regular load writes
+    this.wayProps = new Map[1024];
+    this.wayEndpoints = new long[this.wayProps.length][];
+    try (MappedNodeShapeSource nodeShapeStore = BenchmarkData.nodeShapeStore()) {
+      for (int i = 0; i < this.wayProps.length; ++i) {
+        OsmWay way = BenchmarkData.way(8920510 + i, 2);
+        long[] wayNodeRefs = way.getNodeRefs();
+        Map<String, Object> props = new HashMap<String, Object>(propertySchema.assembleOsmItemProps(way));
+        propertySchema.setWayGeometry(nodeShapeStore, props, wayNodeRefs, 0, 1);
+        this.wayProps[i] = props;
+        this.wayEndpoints[i] = wayNodeRefs;
+      }
+    }
+
+    for (long id = BenchmarkData.FIRST_NODE_ID; id < BenchmarkData.FIRST_NODE_ID + ENDPOINT_NODE_COUNT; ++id) {
+      OsmNode node = BenchmarkData.node(id);
+      this.graphDbLoader.createNode(node, propertySchema.assembleNodeProps(node));
+    }
+    this.graphDbLoader.flush();
+
+    this.nextNodeId = BenchmarkData.FIRST_NODE_ID + ENDPOINT_NODE_COUNT;
+
+  }
+
+  @TearDown(Level.Iteration)
+  public void commitIteration() {
+    // keep uncommitted state from carrying over into the next iteration
+    this.graphDbLoader.flush();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    this.graphDbLoader.shutdown();
+    BenchmarkFiles.deleteRecursively(this.graphDbPath);
+  }
+
+  @Benchmark
+  public void createNode() {
+    int index = this.nextNode++ & (this.nodes.length - 1);
+    OsmNode template = this.nodes[index];
+    OsmNode node = new OsmNode(this.nextNodeId++, template.getLat(), template.getLon(), template.getAttributes(), template.getTags());
+    this.graphDbLoader.createNode(node, this.nodeProps[index]);
+  }
+
+  @Benchmark
+  public void createRelationship() {
+    int index = this.nextWay++ & (this.wayProps.length - 1);
+    long[] endpoints = this.wayEndpoints[index];
+    this.graphDbLoader.createRelationship(this.wayProps[index], endpoints[0], endpoints[1]);
+  }
+
+}
@@ -0,0 +1,85 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.PropertySchema;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.GraphNodeShapeSource;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.MappedNodeShapeSource;
+
+// node coordinate lookups by osm id at random - the off-heap coordinate store used during a full load vs. the
+//  graph queries used when ways are loaded on their own
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeShapeSourceBenchmark {
+
+  private static final int GRAPH_NODE_COUNT = 10000;
+
+  private MappedNodeShapeSource nodeShapeStore;
+  private Path graphDbPath;
+  private GraphDbLoader graphDbLoader;
+  private GraphNodeShapeSource graphNodeShapeSource;
+
+  private final SplittableRandom random = new SplittableRandom(42);
+  private final double[] lonLat = new double[2];
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+
+    this.nodeShapeStore = BenchmarkData.nodeShapeStore();
+
+    this.graphDbPath = Files.createTempDirectory("osm2graph-benchmark-");
+    this.graphDbLoader = new GraphDbLoader(this.graphDbPath.toString());
+    for (long id = BenchmarkData.FIRST_NODE_ID; id < BenchmarkData.FIRST_NODE_ID + GRAPH_NODE_COUNT; ++id) {
+      OsmNode node = BenchmarkData.node(id);
+      this.graphDbLoader.createNode(node, PropertySchema.FULL.assembleNodeProps(node));
+    }
+    this.graphDbLoader.flush();
+    // as in a loadways run - lookups are osm_id index seeks
+    this.graphDbLoader.createNodeIndexes();
+    this.graphNodeShapeSource = new GraphNodeShapeSource(this.graphDbLoader);
+
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    this.nodeShapeStore.close();
+    this.graphDbLoader.shutdown();
+    BenchmarkFiles.deleteRecursively(this.graphDbPath);
+  }
+
+  @Benchmark
+  public double mappedStoreLookup() {
+    this.nodeShapeStore.getNodeLonLat(BenchmarkData.FIRST_NODE_ID + this.random.nextInt(100000), this.lonLat);
+    return this.lonLat[0];
+  }
+
+  @Benchmark
+  public double graphLookup() {
+    this.graphNodeShapeSource.getNodeLonLat(BenchmarkData.FIRST_NODE_ID + this.random.nextInt(GRAPH_NODE_COUNT), this.lonLat);
+    return this.lonLat[0];
+  }
+
+}
@@ -0,0 +1,56 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// property assembly (attribute/tag flattening and value coercion) - the transform stage of the load pipeline
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmItemPropsBenchmark {
+
+  private OsmNode node;
+  private OsmNode taggedNode;
+  private OsmWay way;
+
+  @Setup
+  public void setup() {
+    this.node = BenchmarkData.node(BenchmarkData.FIRST_NODE_ID + 1);
+    this.taggedNode = BenchmarkData.node(BenchmarkData.FIRST_NODE_ID + 4);
+    this.way = BenchmarkData.way(8920510, 12);
+  }
+
+  @Benchmark
+  public Map<String, Object> assembleNodeProps() {
+    return OsmSource.assembleOsmItemProps(this.node);
+  }
+
+  @Benchmark
+  public Map<String, Object> assembleTaggedNodeProps() {
+    return OsmSource.assembleOsmItemProps(this.taggedNode);
+  }
+
+  @Benchmark
+  public Map<String, Object> assembleWayProps() {
+    return OsmSource.assembleOsmItemProps(this.way);
+  }
+
+}
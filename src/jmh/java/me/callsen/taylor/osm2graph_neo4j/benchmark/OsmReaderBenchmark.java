@@ -0,0 +1,85 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.MappedXmlOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.PbfOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.XmlOsmReader;
+
+// parsing of the test extracts into typed nodes and ways (one full read per operation)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmReaderBenchmark {
+
+  private String xmlFilePath;
+  private String pbfFilePath;
+
+  @Setup
+  public void setup() throws Exception {
+    this.xmlFilePath = resourceFilePath("xml/sf-potrero.osm");
+    this.pbfFilePath = resourceFilePath("pbf/sf-potrero.osm.pbf");
+  }
+
+  @Benchmark
+  public void readXml(Blackhole blackhole) throws Exception {
+    new XmlOsmReader(this.xmlFilePath).read(new BlackholeHandler(blackhole));
+  }
+
+  @Benchmark
+  public void readXmlMapped(Blackhole blackhole) throws Exception {
+    new MappedXmlOsmReader(this.xmlFilePath).read(new BlackholeHandler(blackhole));
+  }
+
+  @Benchmark
+  public void readPbf(Blackhole blackhole) throws Exception {
+    new PbfOsmReader(this.pbfFilePath).read(new BlackholeHandler(blackhole));
+  }
+
+  private static String resourceFilePath(String name) throws Exception {
+    URL resource = OsmReaderBenchmark.class.getClassLoader().getResource(name);
+    if (resource == null) throw new IllegalStateException("test resource not found: " + name);
+    return new File(resource.toURI()).getAbsolutePath();
+  }
+
+  private static class BlackholeHandler implements IOsmElementHandler {
+
+    private final Blackhole blackhole;
+
+    BlackholeHandler(Blackhole blackhole) {
+      this.blackhole = blackhole;
+    }
+
+    @Override
+    public void onNode(OsmNode node) {
+      this.blackhole.consume(node);
+    }
+
+    @Override
+    public void onWay(OsmWay way) {
+      this.blackhole.consume(way);
+    }
+
+  }
+
+}
@@ -0,0 +1,64 @@
+package me.callsen.taylor.osm2graph_neo4j.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.callsen.taylor.osm2graph_neo4j.geo.GeomUtil;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.MappedNodeShapeSource;
+
+// segment geometry (coordinate lookups, WKT, refOsmNodes, length) for segments of increasing point count - the
+//  segment length is 2 for a regular load and grows with --simplify
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WayGeometryBenchmark {
+
+  @Param({ "2", "10", "50" })
+  public int segmentPoints;
+
+  private MappedNodeShapeSource nodeShapeStore;
+  private long[] wayNodeRefs;
+
+  @Setup
+  public void setup() throws Exception {
+    this.nodeShapeStore = BenchmarkData.nodeShapeStore();
+    this.wayNodeRefs = BenchmarkData.way(8920510, this.segmentPoints).getNodeRefs();
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    this.nodeShapeStore.close();
+  }
+
+  @Benchmark
+  public Map<String, Object> setWayGeometryForward() {
+    Map<String, Object> wayProps = new HashMap<String, Object>();
+    GeomUtil.setWayGeometry(this.nodeShapeStore, wayProps, this.wayNodeRefs, 0, this.wayNodeRefs.length - 1);
+    return wayProps;
+  }
+
+  @Benchmark
+  public Map<String, Object> setWayGeometryBackward() {
+    Map<String, Object> wayProps = new HashMap<String, Object>();
+    GeomUtil.setWayGeometry(this.nodeShapeStore, wayProps, this.wayNodeRefs, this.wayNodeRefs.length - 1, 0);
+    return wayProps;
+  }
+
+}
@@ -1,10 +1,30 @@
 package me.callsen.taylor.osm2graph_neo4j;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import me.callsen.taylor.osm2graph_neo4j.data.AdaptiveCommitPolicy;
+import me.callsen.taylor.osm2graph_neo4j.data.BoltGraphWriter;
+import me.callsen.taylor.osm2graph_neo4j.data.BulkImportWriter;
+import me.callsen.taylor.osm2graph_neo4j.data.BulkLoadProfile;
 import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.LoadFilter;
 import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.PropertySchema;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadProgressReporter;
+import me.callsen.taylor.osm2graph_neo4j.routing.CsrAdjacencyBuilder;
 
 public class Main {
 
+  // actions that load the source into the embedded database
+  private static final List<String> BULK_PROFILE_ACTIONS = List.of("default", "loadnodes", "loadways", "resume", "bulkimport");
+
   public static void main( String[] args ) throws Exception {
 
     // Parameters
@@ -15,40 +35,177 @@ public class Main {
     }
     String osmFilePath = args[0];
     String graphDbPath = args[1];
-    String action = (args.length > 2) ? args[2] : "default"; // action defaults to "default" per pom file
+    String action = (args.length > 2 && !args[2].startsWith("--")) ? args[2] : "default"; // action defaults to "default" per pom file
+    Map<String, String> options = parseOptions(args);
     System.out.println("OSM To Graph (Neo4j) Initialized with following parameters: ");
     System.out.println("   osmFile: " + osmFilePath);
     System.out.println("   graphDb: " + graphDbPath);
     System.out.println("   action:  " + action);
+    System.out.println("   options: " + options);
+
+    // Metrics of this run - counters are reported periodically, and a JSON summary is written at the end
+    LoadMetrics.get().reset();
+    long progressSeconds = Long.parseLong(options.getOrDefault("progress-seconds", "10"));
+    LoadProgressReporter progressReporter = new LoadProgressReporter(LoadMetrics.get(), progressSeconds);
+
+    // Initialize OSM XML parser - parses XML using StAX streaming style
+    OsmSource osmSource = new OsmSource(osmFilePath);
+    osmSource.setSimplifyTopology(options.containsKey("simplify"));
+    osmSource.setCompactRelationships(options.containsKey("compact"));
+    osmSource.setReferencedNodesOnly(options.containsKey("highway-nodes-only"));
+    if (options.containsKey("transform-threads")) osmSource.setTransformThreads(Integer.parseInt(options.get("transform-threads")));
+
+    // properties written - full (default) or compact schema, metadata attributes optional
+    String schema = options.getOrDefault("schema", "full");
+    if (!schema.equals("full") && !schema.equals("compact")) throw new IllegalArgumentException("unsupported property schema: " + schema);
+    PropertySchema propertySchema = new PropertySchema(schema.equals("compact"), !options.containsKey("no-metadata"));
+    osmSource.setPropertySchema(propertySchema);
+    System.out.println("   schema:  " + propertySchema);
+
+    // optional area and tag filters - applied while reading the source
+    if (options.containsKey("bbox") || options.containsKey("polygon") || options.containsKey("include-tags") || options.containsKey("exclude-tags")) {
+      LoadFilter loadFilter = new LoadFilter();
+      if (options.containsKey("bbox")) loadFilter.setBoundingBox(options.get("bbox"));
+      if (options.containsKey("polygon")) loadFilter.setPolygon(Path.of(options.get("polygon")));
+      if (options.containsKey("include-tags")) loadFilter.setIncludeTags(options.get("include-tags"));
+      if (options.containsKey("exclude-tags")) loadFilter.setExcludeTags(options.get("exclude-tags"));
+      String boundaryPolicy = options.getOrDefault("boundary", "keep");
+      if (!boundaryPolicy.equals("keep") && !boundaryPolicy.equals("clip")) throw new IllegalArgumentException("unsupported boundary policy: " + boundaryPolicy);
+      loadFilter.setClipAtBoundary(boundaryPolicy.equals("clip"));
+      osmSource.setLoadFilter(loadFilter);
+      System.out.println("   filter:  " + loadFilter);
+    }
+
+    // bulk load configuration profile - sized from a counting pass over the source and the machine's memory, single
+    //  settings overridden with --bulk-config (name=value pairs); the database's own configuration is restored after
+    BulkLoadProfile bulkLoadProfile = null;
+    if (options.containsKey("bulk-profile") || options.containsKey("bulk-config")) {
+      if (!BULK_PROFILE_ACTIONS.contains(action) || BoltGraphWriter.isBoltUri(graphDbPath)) {
+        throw new IllegalArgumentException("bulk load profile is only supported by embedded load actions " + BULK_PROFILE_ACTIONS + " - configure a server in its neo4j.conf");
+      }
+      bulkLoadProfile = new BulkLoadProfile(osmSource.scanInputSize());
+      if (options.containsKey("bulk-config")) bulkLoadProfile.override(options.get("bulk-config"));
+      System.out.println("   profile: " + bulkLoadProfile);
+    }
+
+    // bulk import builds the store offline with neo4j-admin import - must happen before the GraphDB is opened
+    if (action.equals("bulkimport")) {
+      BulkImportWriter bulkImportWriter = new BulkImportWriter(graphDbPath);
+      if (bulkLoadProfile != null) bulkImportWriter.setConfigProfile(bulkLoadProfile.getSettings());
+      try {
+        osmSource.loadNodesIntoDb(bulkImportWriter);
+        osmSource.loadWaysIntoGraph(bulkImportWriter);
+      } finally {
+        bulkImportWriter.close();
+      }
+      bulkImportWriter.runImport();
+    }
+
+    // remote load into a running server over Bolt - graphDb is the server's URI (e.g. bolt://localhost:7687); the
+    //  password is taken from the NEO4J_PASSWORD environment variable, so it doesn't show up in logs or metrics
+    if (BoltGraphWriter.isBoltUri(graphDbPath)) {
+      if (!action.equals("default")) throw new IllegalArgumentException("unsupported action for a Bolt server: " + action + " (only default)");
+      BoltGraphWriter boltGraphWriter = new BoltGraphWriter(graphDbPath, options.getOrDefault("bolt-user", "neo4j"), System.getenv("NEO4J_PASSWORD"), options.get("bolt-database"),
+          Integer.parseInt(options.getOrDefault("bolt-batch-rows", String.valueOf(BoltGraphWriter.DEFAULT_BATCH_ROWS))),
+          Integer.parseInt(options.getOrDefault("bolt-in-flight", String.valueOf(BoltGraphWriter.DEFAULT_MAX_IN_FLIGHT_BATCHES))));
+      try {
+        osmSource.loadNodesIntoDb(boltGraphWriter);
+        osmSource.loadWaysIntoGraph(boltGraphWriter);
+      } finally {
+        boltGraphWriter.close();
+        osmSource.closeNodeShapeStore();
+      }
+      writeRunSummary(progressReporter, Path.of(options.getOrDefault("metrics-file", "osm2graph-metrics.json")), runDetails(action, osmFilePath, graphDbPath, options));
+      System.out.println("Task complete");
+      return;
+    }
 
     // Initialize GraphDB wrapper - facilitates loading of data into Neo4j Graph
     GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath);
+    if (options.containsKey("tx-min-bytes") || options.containsKey("tx-max-bytes") || options.containsKey("tx-commit-millis")) {
+      graphDbLoader.setCommitPolicy(new AdaptiveCommitPolicy(
+          Long.parseLong(options.getOrDefault("tx-min-bytes", String.valueOf(AdaptiveCommitPolicy.DEFAULT_MIN_BATCH_BYTES))),
+          Long.parseLong(options.getOrDefault("tx-max-bytes", String.valueOf(AdaptiveCommitPolicy.DEFAULT_MAX_BATCH_BYTES))),
+          Long.parseLong(options.getOrDefault("tx-commit-millis", String.valueOf(AdaptiveCommitPolicy.DEFAULT_TARGET_COMMIT_MILLIS)))));
+    }
+    if (options.containsKey("relationship-writers")) graphDbLoader.setRelationshipWriterThreads(Integer.parseInt(options.get("relationship-writers")));
 
-    // Initialize OSM XML parser - parses XML using SAX event-driven style
-    OsmSource osmSource = new OsmSource(osmFilePath);
+    // dynamic settings of the profile apply to this load (the import above ran with all of them)
+    if (bulkLoadProfile != null && !action.equals("bulkimport")) {
+      Map<String, String> staticSettings = graphDbLoader.applyConfigProfile(bulkLoadProfile.getSettings());
+      if (!staticSettings.isEmpty()) System.out.println("static settings not applied to the embedded database (running with " + staticSettings + ")");
+    }
+
+    // deferred indexes - the load itself needs none (endpoints resolved via the node id cache), so indexes are dropped
+    //  before it and built once it's committed
+    boolean deferredIndexes = options.containsKey("deferred-indexes");
+
+    // loads record checkpoints tied to the source file(s), so an interrupted load can be continued with "resume"
+    StringJoiner osmSourceId = new StringJoiner(",");
+    for (String path : osmFilePath.split(",")) osmSourceId.add(Path.of(path).toAbsolutePath().normalize().toString());
 
     // execute activity based on selected action
     switch(action) { 
       case "default":
-        graphDbLoader.dropNodeIndexes();
-        graphDbLoader.dropRelationshipIndexes();
-        graphDbLoader.createNodeIndexes();
-        graphDbLoader.createRelationshipIndexes();
+        if (deferredIndexes) {
+          graphDbLoader.deferIndexes();
+        } else {
+          graphDbLoader.dropNodeIndexes();
+          graphDbLoader.dropRelationshipIndexes();
+          graphDbLoader.createNodeIndexes();
+          graphDbLoader.createRelationshipIndexes();
+        }
+        graphDbLoader.enableCheckpoints(action, osmSourceId.toString());
+        // optional routing snapshot, collected from the committed writes of this load
+        CsrAdjacencyBuilder csrAdjacencyBuilder = options.containsKey("csr-file") ? new CsrAdjacencyBuilder() : null;
+        graphDbLoader.setCsrAdjacencyBuilder(csrAdjacencyBuilder);
         osmSource.loadNodesIntoDb(graphDbLoader);
         osmSource.loadWaysIntoGraph(graphDbLoader);
+        graphDbLoader.flush();
+        graphDbLoader.clearCheckpoint();
+        if (csrAdjacencyBuilder != null) csrAdjacencyBuilder.write(Path.of(options.get("csr-file")));
+        if (deferredIndexes) createDeferredIndexes(graphDbLoader, progressSeconds);
         break; 
       case "loadnodes": 
+        graphDbLoader.enableCheckpoints(action, osmSourceId.toString());
         osmSource.loadNodesIntoDb(graphDbLoader); 
+        graphDbLoader.flush();
+        graphDbLoader.clearCheckpoint();
         break; 
       case "loadways": 
+        graphDbLoader.rebuildNodeIdCache();
+        graphDbLoader.enableCheckpoints(action, osmSourceId.toString());
         osmSource.loadWaysIntoGraph(graphDbLoader); 
+        graphDbLoader.flush();
+        graphDbLoader.clearCheckpoint();
         break; 
+      case "resume":
+        // continues an interrupted default/loadnodes/loadways run of the same osmFile (and same options)
+        if (deferredIndexes && graphDbLoader.readCheckpoint() != null) graphDbLoader.deferIndexes();
+        if (osmSource.resumeLoadIntoGraph(graphDbLoader, osmSourceId.toString())) {
+          if (deferredIndexes) createDeferredIndexes(graphDbLoader, progressSeconds);
+        } else {
+          System.out.println("No checkpoint found - nothing to resume");
+        }
+        break;
+      case "applychanges":
+        // osmFile is an osmChange (.osc) file, applied to a graph loaded earlier
+        osmSource.applyChangesToGraph(graphDbLoader);
+        break;
+      case "bulkimport":
+        // store was imported above - indexes are created once the database is online
       case "createindexes":
         graphDbLoader.dropNodeIndexes();
         graphDbLoader.dropRelationshipIndexes();
         graphDbLoader.createNodeIndexes();
         graphDbLoader.createRelationshipIndexes();
         break;
+      case "exportcsr":
+        // routing snapshot of an existing graph (osmFile is not read)
+        CsrAdjacencyBuilder csrExportBuilder = new CsrAdjacencyBuilder();
+        graphDbLoader.readCsrAdjacency(csrExportBuilder);
+        csrExportBuilder.write(Path.of(options.getOrDefault("csr-file", Path.of(graphDbPath, "adjacency.csr").toString())));
+        break;
       case "resetgraphdb": 
         graphDbLoader.dropNodeIndexes();
         graphDbLoader.dropRelationshipIndexes();
@@ -59,11 +216,65 @@ public class Main {
         System.out.println("Unsupported action - please try again"); 
     }
 
-    // Shutdown GraphDB
+    // Commit the tail of the load, restore the query-time configuration, release off-heap node coordinate store (if
+    //  populated) and shutdown GraphDB
+    graphDbLoader.flush();
+    graphDbLoader.restoreConfigProfile();
+    osmSource.closeNodeShapeStore();
     graphDbLoader.shutdown();
 
+    // final progress line and metrics summary
+    Map<String, Object> runDetails = runDetails(action, osmFilePath, graphDbPath, options);
+    runDetails.put("sharedTransaction", graphDbLoader.getCommitPolicy().toString());
+    if (bulkLoadProfile != null) runDetails.put("bulkLoadProfile", bulkLoadProfile.getSettings());
+    writeRunSummary(progressReporter, Path.of(options.getOrDefault("metrics-file", Path.of(graphDbPath, "osm2graph-metrics.json").toString())), runDetails);
+
     System.out.println("Task complete");
 
   }
 
+  // a failed index fails the run - the store is shut down cleanly first
+  private static void createDeferredIndexes(GraphDbLoader graphDbLoader, long progressSeconds) {
+    try {
+      graphDbLoader.createDeferredIndexes(progressSeconds);
+    } catch (RuntimeException e) {
+      graphDbLoader.shutdown();
+      throw e;
+    }
+  }
+
+  private static Map<String, Object> runDetails(String action, String osmFilePath, String graphDbPath, Map<String, String> options) {
+    Map<String, Object> runDetails = new LinkedHashMap<String, Object>();
+    runDetails.put("action", action);
+    runDetails.put("osmFile", osmFilePath);
+    runDetails.put("graphDb", graphDbPath);
+    runDetails.put("options", options);
+    return runDetails;
+  }
+
+  private static void writeRunSummary(LoadProgressReporter progressReporter, Path metricsPath, Map<String, Object> runDetails) {
+    progressReporter.report();
+    progressReporter.close();
+    try {
+      LoadMetrics.get().writeSummary(metricsPath, runDetails);
+      System.out.println("load metrics written to " + metricsPath);
+    } catch (IOException e) {
+      System.out.println("Warning - failed to write load metrics to " + metricsPath);
+      e.printStackTrace();
+    }
+  }
+
+  // optional flags after the positional parameters - "--name" or "--name=value"
+  private static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new HashMap<String, String>();
+    for (int i = 2; i < args.length; ++i) {
+      if (!args[i].startsWith("--")) continue;
+      String option = args[i].substring(2);
+      int separatorIndex = option.indexOf('=');
+      if (separatorIndex < 0) options.put(option, "true");
+      else options.put(option.substring(0, separatorIndex), option.substring(separatorIndex + 1));
+    }
+    return options;
+  }
+
 }
\ No newline at end of file
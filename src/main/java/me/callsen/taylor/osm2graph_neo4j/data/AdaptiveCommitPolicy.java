@@ -0,0 +1,112 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+// Decides when GraphDbLoader commits its shared transaction. Work is measured in estimated transaction state bytes
+//  rather than element counts, so a batch of long, tag-heavy ways is committed as early as it needs to be.
+//  The byte budget adapts between minBatchBytes and maxBatchBytes: it halves when a commit takes longer than the
+//  target latency or heap headroom runs low, and grows back gradually while commits are fast and the heap has room.
+public class AdaptiveCommitPolicy {
+
+  public static final long DEFAULT_MIN_BATCH_BYTES = 1L << 20; // 1MB
+  public static final long DEFAULT_MAX_BATCH_BYTES = 64L << 20; // 64MB
+  public static final long DEFAULT_TARGET_COMMIT_MILLIS = 1000;
+
+  // fraction of max heap that should stay free - below it batches shrink and commits happen early
+  private static final double MIN_HEAP_HEADROOM = 0.25;
+
+  private final long minBatchBytes;
+  private final long maxBatchBytes;
+  private final long targetCommitMillis;
+
+  // current byte budget of a batch
+  private long batchBytes;
+
+  // commit stats
+  private long commitCount = 0;
+  private long committedOperations = 0;
+  private long committedBytes = 0;
+  private long totalCommitMillis = 0;
+  private long maxCommitMillis = 0;
+
+  public AdaptiveCommitPolicy() {
+    this(DEFAULT_MIN_BATCH_BYTES, DEFAULT_MAX_BATCH_BYTES, DEFAULT_TARGET_COMMIT_MILLIS);
+  }
+
+  public AdaptiveCommitPolicy(long minBatchBytes, long maxBatchBytes, long targetCommitMillis) {
+
+    if (minBatchBytes <= 0 || maxBatchBytes < minBatchBytes) throw new IllegalArgumentException("invalid batch size limits: " + minBatchBytes + " - " + maxBatchBytes);
+    if (targetCommitMillis <= 0) throw new IllegalArgumentException("invalid target commit latency: " + targetCommitMillis);
+
+    this.minBatchBytes = minBatchBytes;
+    this.maxBatchBytes = maxBatchBytes;
+    this.targetCommitMillis = targetCommitMillis;
+
+    // start at a quarter of the maximum, but no more than an eighth of the heap (transaction state is on-heap)
+    this.batchBytes = clamp(Math.min(maxBatchBytes / 4, Runtime.getRuntime().maxMemory() / 8));
+
+  }
+
+  public boolean shouldCommit(long pendingBytes) {
+    if (pendingBytes >= this.batchBytes) return true;
+    return pendingBytes >= this.minBatchBytes && heapHeadroom() < MIN_HEAP_HEADROOM;
+  }
+
+  // feedback from a completed commit - records stats and tunes the byte budget of the next batch
+  public void onCommit(long operations, long bytes, long commitMillis) {
+
+    ++this.commitCount;
+    this.committedOperations += operations;
+    this.committedBytes += bytes;
+    this.totalCommitMillis += commitMillis;
+    this.maxCommitMillis = Math.max(this.maxCommitMillis, commitMillis);
+
+    if (commitMillis > this.targetCommitMillis || heapHeadroom() < MIN_HEAP_HEADROOM) {
+      this.batchBytes = clamp(this.batchBytes / 2);
+    } else if (commitMillis < this.targetCommitMillis / 2 && bytes >= this.batchBytes) {
+      // only grow when the batch actually used its budget (i.e. was not a flush of a partial batch)
+      this.batchBytes = clamp(this.batchBytes + this.batchBytes / 4);
+    }
+
+  }
+
+  public long getBatchBytes() {
+    return this.batchBytes;
+  }
+
+  public long getCommitCount() {
+    return this.commitCount;
+  }
+
+  public long getCommittedOperations() {
+    return this.committedOperations;
+  }
+
+  public long getCommittedBytes() {
+    return this.committedBytes;
+  }
+
+  public long getTotalCommitMillis() {
+    return this.totalCommitMillis;
+  }
+
+  public long getMaxCommitMillis() {
+    return this.maxCommitMillis;
+  }
+
+  @Override
+  public String toString() {
+    return this.commitCount + " commits, " + this.committedOperations + " operations, ~" + (this.committedBytes >> 20) + "MB"
+        + ", commit time total " + this.totalCommitMillis + "ms / max " + this.maxCommitMillis + "ms"
+        + ", current batch size ~" + (this.batchBytes >> 10) + "KB";
+  }
+
+  private long clamp(long bytes) {
+    return Math.max(this.minBatchBytes, Math.min(this.maxBatchBytes, bytes));
+  }
+
+  private static double heapHeadroom() {
+    Runtime runtime = Runtime.getRuntime();
+    long usedBytes = runtime.totalMemory() - runtime.freeMemory();
+    return (double) (runtime.maxMemory() - usedBytes) / runtime.maxMemory();
+  }
+
+}
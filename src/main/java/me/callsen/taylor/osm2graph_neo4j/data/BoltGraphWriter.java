@@ -0,0 +1,229 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import org.neo4j.driver.AuthToken;
+import org.neo4j.driver.AuthTokens;
+import org.neo4j.driver.Config;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.GraphDatabase;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.SessionConfig;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.async.AsyncSession;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.geo.WayCoordinates;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.NodeLabels;
+import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.RelationshipTypes;
+
+// Remote alternative to GraphDbLoader - loads into a running Neo4j server over Bolt, so a live database (or cluster)
+//  doesn't have to be stopped. Rows are sent as parameters of UNWIND batches, each batch a write transaction on its
+//  own async session; several batches are in flight at once (bounded, so reading blocks while the server catches up).
+//  Produces the same labels, relationship types and properties as the transactional load - except that Bolt carries
+//  all integers as 64-bit and all floating point numbers as doubles.
+public class BoltGraphWriter implements IGraphWriter, AutoCloseable {
+
+  public static final int DEFAULT_BATCH_ROWS = 5000;
+  public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 4;
+
+  private static final int WGS84_SRID = 4326;
+
+  private static final String CREATE_NODES_QUERY = "UNWIND $rows AS row CREATE (n:" + NodeLabels.INTERSECTION.name() + ") SET n = row RETURN count(n) AS created";
+
+  // endpoints missing from the graph (e.g. outside the extract) drop their rows - counted as failed, as in GraphDbLoader
+  private static final String CREATE_RELATIONSHIPS_QUERY = "UNWIND $rows AS row "
+      + "MATCH (a:" + NodeLabels.INTERSECTION.name() + " {osm_id: row.start_osm_id}) "
+      + "MATCH (b:" + NodeLabels.INTERSECTION.name() + " {osm_id: row.end_osm_id}) "
+      + "CREATE (a)-[r:" + RelationshipTypes.CONNECTS.name() + "]->(b) SET r = row RETURN count(r) AS created";
+
+  private final Driver driver;
+  private final SessionConfig sessionConfig;
+  private final int batchRows;
+  private final int maxInFlightBatches;
+
+  // permits for batches in flight - all of them are held while waiting for the server to catch up
+  private final Semaphore inFlightBatches;
+
+  private List<Map<String, Object>> nodeRows = new ArrayList<Map<String, Object>>();
+  private List<Map<String, Object>> relationshipRows = new ArrayList<Map<String, Object>>();
+
+  // relationships are matched to their endpoints on the server - node batches must be committed before the first
+  private boolean nodeBatchesPending = false;
+
+  private final LoadMetrics.Counter batchesWritten = LoadMetrics.get().counter("bolt.batches");
+  private final LoadMetrics.Timer batchTimer = LoadMetrics.get().timer("bolt.batch");
+  private final LoadMetrics.Counter failedNodes = LoadMetrics.get().counter("failures.nodes");
+  private final LoadMetrics.Counter failedRelationships = LoadMetrics.get().counter("failures.relationships");
+
+  // user / password - null password connects without authentication
+  public BoltGraphWriter(String uri, String user, String password, String database) {
+    this(uri, user, password, database, DEFAULT_BATCH_ROWS, DEFAULT_MAX_IN_FLIGHT_BATCHES);
+  }
+
+  public BoltGraphWriter(String uri, String user, String password, String database, int batchRows, int maxInFlightBatches) {
+
+    this.batchRows = Math.max(1, batchRows);
+    this.maxInFlightBatches = Math.max(1, maxInFlightBatches);
+    this.inFlightBatches = new Semaphore(this.maxInFlightBatches);
+
+    AuthToken authToken = password != null ? AuthTokens.basic(user, password) : AuthTokens.none();
+    this.driver = GraphDatabase.driver(uri, authToken, Config.builder()
+        .withMaxConnectionPoolSize(this.maxInFlightBatches + 1)
+        .build());
+    this.sessionConfig = database != null ? SessionConfig.forDatabase(database) : SessionConfig.defaultConfig();
+
+    try {
+      this.driver.verifyConnectivity();
+      System.out.println("connected to Neo4j server at " + uri);
+      this.createIndexes();
+    } catch (RuntimeException e) {
+      this.driver.close();
+      throw e;
+    }
+
+  }
+
+  // graphDb arguments naming a server rather than a store directory
+  public static boolean isBoltUri(String graphDb) {
+    return graphDb.startsWith("bolt://") || graphDb.startsWith("bolt+s://") || graphDb.startsWith("bolt+ssc://")
+        || graphDb.startsWith("neo4j://") || graphDb.startsWith("neo4j+s://") || graphDb.startsWith("neo4j+ssc://");
+  }
+
+  // relationship batches look up their endpoints by osm_id - without an index every row would scan all intersections
+  private void createIndexes() {
+    try ( Session session = this.driver.session(this.sessionConfig) ) {
+      session.run("CREATE INDEX IF NOT EXISTS FOR (n:" + NodeLabels.INTERSECTION.name() + ") ON (n.osm_id)").consume();
+      session.run("CALL db.awaitIndexes(600)").consume();
+    }
+  }
+
+  public void createNode(OsmNode osmNode, Map<String, Object> nodeProps) {
+
+    try {
+
+      Map<String, Object> row = new HashMap<String, Object>();
+      for (Map.Entry<String, Object> prop : nodeProps.entrySet()) {
+        // BigDecimal values (e.g. lat/lon) are stored as floats, as in GraphDbLoader.createNode()
+        Object value = prop.getValue();
+        if (value instanceof BigDecimal) value = ((BigDecimal)value).floatValue();
+        row.put(prop.getKey(), value);
+      }
+
+      row.put("geom", Values.point(WGS84_SRID, osmNode.getLon(), osmNode.getLat()));
+
+      this.nodeRows.add(row);
+      if (this.nodeRows.size() >= this.batchRows) this.submitNodeBatch();
+
+    } catch (Exception e) {
+      System.out.println("FAILED to write intersection for node id " + osmNode.getId());
+      e.printStackTrace();
+      this.failedNodes.increment();
+    }
+
+  }
+
+  public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+
+    if (this.nodeBatchesPending) this.flush();
+
+    try {
+
+      Map<String, Object> row = new HashMap<String, Object>();
+      for (Map.Entry<String, Object> prop : wayProps.entrySet()) {
+        Object value = prop.getValue();
+        if (value instanceof BigDecimal) value = ((BigDecimal)value).doubleValue();
+        // geometry set by GeomUtil.setWayGeometry() - written as list of points (stored as point array)
+        if (value instanceof WayCoordinates) value = toPointList((WayCoordinates) value);
+        row.put(prop.getKey(), value);
+      }
+
+      // explicitly set start and end osm ids (useful for filtering cypher queries by direction) - also the endpoint keys
+      row.put("start_osm_id", wayStartOsmId);
+      row.put("end_osm_id", wayEndOsmId);
+
+      this.relationshipRows.add(row);
+      if (this.relationshipRows.size() >= this.batchRows) this.submitRelationshipBatch();
+
+    } catch (Exception e) {
+      System.out.println("FAILED to write road relationship for node osm_ids " + wayStartOsmId + " and " + wayEndOsmId);
+      e.printStackTrace();
+      this.failedRelationships.increment();
+    }
+
+  }
+
+  private static List<Value> toPointList(WayCoordinates wayCoordinates) {
+    List<Value> points = new ArrayList<Value>(wayCoordinates.getNumPoints());
+    for (int i = 0; i < wayCoordinates.getNumPoints(); ++i) {
+      points.add(Values.point(WGS84_SRID, wayCoordinates.getLon(i), wayCoordinates.getLat(i)));
+    }
+    return points;
+  }
+
+  private void submitNodeBatch() {
+    if (this.nodeRows.isEmpty()) return;
+    this.submitBatch(CREATE_NODES_QUERY, this.nodeRows, "intersections", this.failedNodes);
+    this.nodeRows = new ArrayList<Map<String, Object>>();
+    this.nodeBatchesPending = true;
+  }
+
+  private void submitRelationshipBatch() {
+    if (this.relationshipRows.isEmpty()) return;
+    this.submitBatch(CREATE_RELATIONSHIPS_QUERY, this.relationshipRows, "road relationships", this.failedRelationships);
+    this.relationshipRows = new ArrayList<Map<String, Object>>();
+  }
+
+  // sends the batch as one write transaction on its own session - blocks while the maximum number of batches is in
+  //  flight. Transient failures (e.g. deadlocks between concurrent relationship batches, leader switches) are retried
+  //  by the driver; batches that still fail are reported and counted, like failed commits of the transactional load
+  private void submitBatch(String query, List<Map<String, Object>> rows, String description, LoadMetrics.Counter failedCounter) {
+
+    this.inFlightBatches.acquireUninterruptibly();
+    long batchStart = this.batchTimer.start();
+    Map<String, Object> parameters = Map.of("rows", rows);
+
+    AsyncSession session = this.driver.asyncSession(this.sessionConfig);
+    session.writeTransactionAsync(tx -> tx.runAsync(query, parameters)
+        .thenCompose(cursor -> cursor.singleAsync())
+        .thenApply(record -> record.get("created").asLong()))
+      .whenComplete((created, error) -> {
+        this.batchTimer.stop(batchStart);
+        if (error != null) {
+          System.out.println("Warning - failed to write batch of " + rows.size() + " " + description);
+          error.printStackTrace();
+          failedCounter.add(rows.size());
+        } else {
+          this.batchesWritten.increment();
+          failedCounter.add(rows.size() - created);
+        }
+        session.closeAsync().whenComplete((closed, closeError) -> this.inFlightBatches.release());
+      });
+
+  }
+
+  // sends the pending rows and waits until the server has committed every batch
+  public void flush() {
+    this.submitNodeBatch();
+    this.submitRelationshipBatch();
+    this.inFlightBatches.acquireUninterruptibly(this.maxInFlightBatches);
+    this.inFlightBatches.release(this.maxInFlightBatches);
+    this.nodeBatchesPending = false;
+  }
+
+  public void close() {
+    try {
+      this.flush();
+    } finally {
+      this.driver.close();
+    }
+  }
+
+}
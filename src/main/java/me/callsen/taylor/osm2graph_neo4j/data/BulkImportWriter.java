@@ -0,0 +1,399 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+
+import org.neo4j.cli.AdminTool;
+import org.neo4j.cli.ExecutionContext;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.geo.WayCoordinates;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.NodeLabels;
+import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.RelationshipTypes;
+
+// Offline alternative to GraphDbLoader - writes nodes and relationships as neo4j-admin import CSV files
+//  (a header file plus gzipped data parts per element type) and then runs the importer against the graph
+//  directory. Produces the same labels, relationship types and properties as the transactional load. Rows are
+//  spread round-robin over the parts, each compressed and written on its own thread.
+public class BulkImportWriter implements IGraphWriter, AutoCloseable {
+
+  private static final String IMPORT_DIRECTORY_NAME = "import";
+  private static final String CONF_DIRECTORY_NAME = "conf";
+  private static final String CONF_FILE_NAME = "neo4j.conf";
+  private static final String DATABASE_NAME = "neo4j";
+
+  // rows are handed to part writers in batches of roughly this many characters
+  private static final int BATCH_CHARS = 1 << 16;
+
+  private final Path graphDbPath;
+  private final Path importPath;
+
+  private final CsvFileSet nodeFiles;
+  private final CsvFileSet relationshipFiles;
+  private final ExecutorService[] partExecutors;
+
+  private boolean multilineValues = false;
+
+  // Neo4j settings the importer runs with (see BulkLoadProfile) - optional
+  private Map<String, String> configProfile;
+
+  private final LoadMetrics.Counter failedNodes = LoadMetrics.get().counter("failures.nodes");
+  private final LoadMetrics.Counter failedRelationships = LoadMetrics.get().counter("failures.relationships");
+
+  public BulkImportWriter(String graphDbPath) throws IOException {
+    this(graphDbPath, Runtime.getRuntime().availableProcessors());
+  }
+
+  public BulkImportWriter(String graphDbPath, int partCount) throws IOException {
+
+    this.graphDbPath = Path.of(graphDbPath).toAbsolutePath();
+    this.importPath = this.graphDbPath.resolve(IMPORT_DIRECTORY_NAME);
+    Files.createDirectories(this.importPath);
+
+    // one writer thread per part, shared by node and relationship parts (the passes run one after the other)
+    this.partExecutors = new ExecutorService[Math.max(1, partCount)];
+    for (int i = 0; i < this.partExecutors.length; ++i) {
+      this.partExecutors[i] = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-import-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    // osm_id doubles as the import id of nodes, so relationships can reference their endpoints by osm id
+    this.nodeFiles = new CsvFileSet(this.importPath, "nodes", new String[] { "osm_id:ID" }, this.partExecutors);
+    this.relationshipFiles = new CsvFileSet(this.importPath, "relationships", new String[] { ":START_ID", ":END_ID" }, this.partExecutors);
+
+  }
+
+  public void createNode(OsmNode osmNode, Map<String, Object> nodeProps) {
+
+    try {
+
+      Map<String, Object> rowProps = new LinkedHashMap<String, Object>();
+      for (Map.Entry<String, Object> prop : nodeProps.entrySet()) {
+        if (prop.getKey().equals("osm_id")) continue;
+        // BigDecimal values (e.g. lat/lon) are stored as floats, as in GraphDbLoader.createNode()
+        Object value = prop.getValue();
+        if (value instanceof BigDecimal) value = ((BigDecimal)value).floatValue();
+        rowProps.put(prop.getKey(), value);
+      }
+
+      rowProps.put("geom", new double[] { osmNode.getLon(), osmNode.getLat() });
+
+      this.nodeFiles.addRow(new Object[] { osmNode.getId() }, rowProps);
+
+    } catch (Exception e) {
+      System.out.println("FAILED to write intersection for node id " + osmNode.getId());
+      e.printStackTrace();
+      this.failedNodes.increment();
+    }
+
+  }
+
+  public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+
+    try {
+
+      Map<String, Object> rowProps = new LinkedHashMap<String, Object>();
+      for (Map.Entry<String, Object> prop : wayProps.entrySet()) {
+        Object value = prop.getValue();
+        if (value instanceof BigDecimal) value = ((BigDecimal)value).doubleValue();
+        // geometry set by GeomUtil.setWayGeometry() - written as array of points
+        if (value instanceof WayCoordinates) value = toPointArray((WayCoordinates) value);
+        rowProps.put(prop.getKey(), value);
+      }
+
+      rowProps.put("start_osm_id", wayStartOsmId);
+      rowProps.put("end_osm_id", wayEndOsmId);
+
+      this.relationshipFiles.addRow(new Object[] { wayStartOsmId, wayEndOsmId }, rowProps);
+
+    } catch (Exception e) {
+      System.out.println("FAILED to write road relationship for node osm_ids " + wayStartOsmId + " and " + wayEndOsmId);
+      e.printStackTrace();
+      this.failedRelationships.increment();
+    }
+
+  }
+
+  private static double[][] toPointArray(WayCoordinates wayCoordinates) {
+    double[][] points = new double[wayCoordinates.getNumPoints()][];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = new double[] { wayCoordinates.getLon(i), wayCoordinates.getLat(i) };
+    }
+    return points;
+  }
+
+  // flushes all data parts and writes the header files (column set and types are only known once all rows are seen)
+  public void close() throws Exception {
+    try {
+      this.nodeFiles.close();
+      this.relationshipFiles.close();
+      this.multilineValues = this.nodeFiles.multilineValues || this.relationshipFiles.multilineValues;
+    } finally {
+      for (ExecutorService partExecutor : this.partExecutors) partExecutor.shutdown();
+    }
+  }
+
+  public void setConfigProfile(Map<String, String> configProfile) {
+    this.configProfile = configProfile;
+  }
+
+  public String[] getImportArguments() {
+    List<String> arguments = new ArrayList<String>();
+    arguments.add("import");
+    arguments.add("--database=" + DATABASE_NAME);
+    arguments.add("--id-type=INTEGER");
+    // keep int/float property types as written (matches the transactional load)
+    arguments.add("--normalize-types=false");
+    // ways may reference nodes outside of the extract - those segments are dropped, as in GraphDbLoader
+    arguments.add("--skip-bad-relationships=true");
+    arguments.add("--bad-tolerance=" + Long.MAX_VALUE);
+    arguments.add("--multiline-fields=" + this.multilineValues);
+    arguments.add("--report-file=" + this.importPath.resolve("import.report"));
+    arguments.add("--nodes=" + NodeLabels.INTERSECTION.name() + "=" + this.nodeFiles.getFileList());
+    arguments.add("--relationships=" + RelationshipTypes.CONNECTS.name() + "=" + this.relationshipFiles.getFileList());
+    return arguments.toArray(new String[0]);
+  }
+
+  // runs neo4j-admin import in-process against the graph directory (database must not exist yet)
+  public void runImport() throws Exception {
+
+    System.out.println("importing bulk files into graph - equivalent command (run with NEO4J_HOME=" + this.graphDbPath + "):");
+    System.out.println("   neo4j-admin " + String.join(" ", this.getImportArguments()));
+
+    Path confPath = this.graphDbPath.resolve(CONF_DIRECTORY_NAME);
+    Files.createDirectories(confPath);
+
+    // the importer reads conf/neo4j.conf - the config profile is added to it for the import only, and the file is
+    //  put back as it was afterwards (it's the configuration of a server run from the graph directory)
+    Path confFile = confPath.resolve(CONF_FILE_NAME);
+    byte[] previousConf = Files.exists(confFile) ? Files.readAllBytes(confFile) : null;
+    if (this.configProfile != null) {
+      StringBuilder conf = new StringBuilder();
+      if (previousConf != null) conf.append(new String(previousConf, StandardCharsets.UTF_8)).append('\n');
+      conf.append("# osm2graph bulk load profile - removed once the import is done\n");
+      for (Map.Entry<String, String> setting : this.configProfile.entrySet()) conf.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+      Files.write(confFile, conf.toString().getBytes(StandardCharsets.UTF_8));
+      System.out.println("importing with config profile: " + this.configProfile);
+    }
+
+    int exitCode;
+    try {
+      exitCode = AdminTool.execute(new ExecutionContext(this.graphDbPath, confPath), this.getImportArguments());
+    } finally {
+      if (this.configProfile != null) {
+        if (previousConf != null) Files.write(confFile, previousConf);
+        else Files.delete(confFile);
+      }
+    }
+    if (exitCode != 0) throw new IllegalStateException("neo4j-admin import failed with exit code " + exitCode);
+
+    System.out.println("finished importing bulk files into graph");
+
+  }
+
+  private enum ColumnType {
+
+    BOOLEAN("boolean"), INT("int"), LONG("long"), FLOAT("float"), DOUBLE("double"), STRING("string"),
+    POINT("point{crs:WGS-84}"), POINT_ARRAY("point[]{crs:WGS-84}"), LONG_ARRAY("long[]");
+
+    private final String headerType;
+
+    ColumnType(String headerType) {
+      this.headerType = headerType;
+    }
+
+    static ColumnType of(Object value) {
+      if (value instanceof Boolean) return BOOLEAN;
+      if (value instanceof Integer) return INT;
+      if (value instanceof Long) return LONG;
+      if (value instanceof Float) return FLOAT;
+      if (value instanceof Double) return DOUBLE;
+      if (value instanceof double[]) return POINT;
+      if (value instanceof double[][]) return POINT_ARRAY;
+      if (value instanceof long[]) return LONG_ARRAY;
+      return STRING;
+    }
+
+    // a single column type has to hold every value seen for the property
+    ColumnType widen(ColumnType other) {
+      if (this == other) return this;
+      if (this.isInteger() && other.isInteger()) return LONG;
+      if (this.isNumber() && other.isNumber()) return DOUBLE;
+      return STRING;
+    }
+
+    private boolean isInteger() {
+      return this == INT || this == LONG;
+    }
+
+    private boolean isNumber() {
+      return this == INT || this == LONG || this == FLOAT || this == DOUBLE;
+    }
+
+  }
+
+  private static class CsvFileSet {
+
+    private final Path headerFile;
+    private final String[] fixedHeaders;
+    private final List<Path> partFiles = new ArrayList<Path>();
+    private final List<Writer> partWriters = new ArrayList<Writer>();
+    private final ExecutorService[] partExecutors;
+    private final Future<?>[] lastBatchPerPart;
+
+    // backpressure - bounded number of batches queued across all parts
+    private final Semaphore batchPermits;
+    private volatile Exception writeFailure;
+
+    // property columns in header order - assigned on first sight of a property
+    private final Map<String, Integer> columnIndexes = new LinkedHashMap<String, Integer>();
+    private final List<ColumnType> columnTypes = new ArrayList<ColumnType>();
+
+    private StringBuilder batch = new StringBuilder(BATCH_CHARS + 1024);
+    private int nextPart = 0;
+    private boolean multilineValues = false;
+
+    CsvFileSet(Path importPath, String name, String[] fixedHeaders, ExecutorService[] partExecutors) throws IOException {
+      this.headerFile = importPath.resolve(name + "-header.csv");
+      this.fixedHeaders = fixedHeaders;
+      this.partExecutors = partExecutors;
+      this.lastBatchPerPart = new Future<?>[partExecutors.length];
+      this.batchPermits = new Semaphore(partExecutors.length * 2);
+      for (int i = 0; i < partExecutors.length; ++i) {
+        Path partFile = importPath.resolve(String.format("%s-part-%03d.csv.gz", name, i));
+        this.partFiles.add(partFile);
+        this.partWriters.add(new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(partFile.toFile()), 1 << 16), StandardCharsets.UTF_8), 1 << 16));
+      }
+    }
+
+    void addRow(Object[] fixedValues, Map<String, Object> props) throws Exception {
+
+      // register new columns / widen column types, then lay values out by column index
+      for (Map.Entry<String, Object> prop : props.entrySet()) {
+        ColumnType valueType = ColumnType.of(prop.getValue());
+        Integer columnIndex = this.columnIndexes.get(prop.getKey());
+        if (columnIndex == null) {
+          this.columnIndexes.put(prop.getKey(), this.columnTypes.size());
+          this.columnTypes.add(valueType);
+        } else {
+          this.columnTypes.set(columnIndex, this.columnTypes.get(columnIndex).widen(valueType));
+        }
+      }
+      Object[] columnValues = new Object[this.columnTypes.size()];
+      for (Map.Entry<String, Object> prop : props.entrySet()) {
+        columnValues[this.columnIndexes.get(prop.getKey())] = prop.getValue();
+      }
+
+      // rows only carry the columns known when they were written - trailing columns added later are left empty
+      for (int i = 0; i < fixedValues.length; ++i) {
+        if (i > 0) this.batch.append(',');
+        this.appendValue(fixedValues[i]);
+      }
+      for (Object columnValue : columnValues) {
+        this.batch.append(',');
+        if (columnValue != null) this.appendValue(columnValue);
+      }
+      this.batch.append('\n');
+
+      if (this.batch.length() >= BATCH_CHARS) this.submitBatch();
+
+    }
+
+    private void appendValue(Object value) {
+      if (value instanceof double[]) {
+        double[] point = (double[]) value;
+        this.batch.append("\"{x:").append(point[0]).append(",y:").append(point[1]).append("}\"");
+      } else if (value instanceof double[][]) {
+        this.batch.append('"');
+        double[][] points = (double[][]) value;
+        for (int i = 0; i < points.length; ++i) {
+          if (i > 0) this.batch.append(';');
+          this.batch.append("{x:").append(points[i][0]).append(",y:").append(points[i][1]).append('}');
+        }
+        this.batch.append('"');
+      } else if (value instanceof long[]) {
+        // default array delimiter of neo4j-admin import
+        long[] values = (long[]) value;
+        for (int i = 0; i < values.length; ++i) {
+          if (i > 0) this.batch.append(';');
+          this.batch.append(values[i]);
+        }
+      } else if (value instanceof Number || value instanceof Boolean) {
+        this.batch.append(value);
+      } else {
+        String stringValue = value.toString();
+        if (stringValue.indexOf('\n') >= 0 || stringValue.indexOf('\r') >= 0) this.multilineValues = true;
+        this.batch.append('"').append(stringValue.replace("\"", "\"\"")).append('"');
+      }
+    }
+
+    private void submitBatch() throws Exception {
+
+      if (this.batch.length() == 0) return;
+      if (this.writeFailure != null) throw this.writeFailure;
+
+      this.batchPermits.acquire();
+
+      String rows = this.batch.toString();
+      this.batch.setLength(0);
+
+      // parts are filled round-robin; each part's executor writes (and compresses) its batches in order
+      int part = this.nextPart;
+      this.nextPart = (this.nextPart + 1) % this.partWriters.size();
+      Writer partWriter = this.partWriters.get(part);
+      this.lastBatchPerPart[part] = this.partExecutors[part].submit(() -> {
+        try {
+          partWriter.write(rows);
+        } catch (Exception e) {
+          this.writeFailure = e;
+        } finally {
+          this.batchPermits.release();
+        }
+      });
+
+    }
+
+    void close() throws Exception {
+
+      this.submitBatch();
+      for (Future<?> lastBatch : this.lastBatchPerPart) if (lastBatch != null) lastBatch.get();
+      if (this.writeFailure != null) throw this.writeFailure;
+      for (Writer partWriter : this.partWriters) partWriter.close();
+
+      StringBuilder header = new StringBuilder(String.join(",", this.fixedHeaders));
+      for (Map.Entry<String, Integer> column : this.columnIndexes.entrySet()) {
+        header.append(',').append(column.getKey()).append(':').append(this.columnTypes.get(column.getValue()).headerType);
+      }
+      Files.writeString(this.headerFile, header.append('\n').toString(), StandardCharsets.UTF_8);
+
+    }
+
+    String getFileList() {
+      StringBuilder fileList = new StringBuilder(this.headerFile.toString());
+      for (Path partFile : this.partFiles) fileList.append(',').append(partFile);
+      return fileList.toString();
+    }
+
+  }
+
+}
@@ -0,0 +1,182 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// Neo4j settings for the duration of a load - sized from the input (see InputSize) and the machine's memory. The
+//  store a load produces is estimated from element counts and tag volume; the page cache is sized to hold it (within
+//  a share of the memory left over by the JVM heap and the off-heap node coordinate store), transaction logs are
+//  rotated and pruned early (a load can be repeated from its source, so its logs are of no use for recovery beyond
+//  the latest checkpoint), and checkpoints follow the volume written instead of a fixed interval. Settings can be
+//  overridden individually (override()). Dynamic settings are applied to the running database by GraphDbLoader and
+//  restored afterwards; static ones take effect where the store is started with them (see BulkImportWriter).
+public class BulkLoadProfile {
+
+  public static final String PAGECACHE_SIZE = "dbms.memory.pagecache.size";
+  public static final String TX_LOG_ROTATION_SIZE = "dbms.tx_log.rotation.size";
+  public static final String TX_LOG_RETENTION = "dbms.tx_log.rotation.retention_policy";
+  public static final String CHECKPOINT_INTERVAL_TIME = "dbms.checkpoint.interval.time";
+  public static final String CHECKPOINT_INTERVAL_VOLUME = "dbms.checkpoint.interval.volume";
+  public static final String CHECKPOINT_IOPS_LIMIT = "dbms.checkpoint.iops.limit";
+  public static final String RELATIONSHIP_GROUPING_THRESHOLD = "dbms.relationship_grouping_threshold";
+
+  // rough store bytes - record sizes of the Neo4j 4 record format, plus property records for the fixed properties
+  //  (osm_id, geom / way id, length, geometry ...) and the tags copied onto each entity
+  private static final long NODE_BYTES = 15 + 2 * 41;
+  private static final long RELATIONSHIP_BYTES = 34 + 4 * 41;
+  private static final long COORDINATE_BYTES = 16;
+  private static final double INDEX_AND_GROWTH_FACTOR = 1.25;
+
+  // share of the memory not taken by the heap and node coordinate store the page cache may use - the rest is left to
+  //  the OS (file system cache of the source file) and Neo4j's other off-heap structures
+  private static final double PAGECACHE_MEMORY_SHARE = 0.5;
+  private static final long MIN_PAGECACHE_BYTES = 64L << 20;
+
+  private static final long MIN_TX_LOG_ROTATION_BYTES = 16L << 20;
+  private static final long MAX_TX_LOG_ROTATION_BYTES = 1L << 30;
+
+  // road intersections rarely connect more than a handful of segments - nodes stay sparse (relationship chains are
+  //  cheaper to write than relationship groups) unless they are far above that
+  private static final int RELATIONSHIP_GROUPING_THRESHOLD_VALUE = 100;
+
+  private final InputSize inputSize;
+  private final long estimatedStoreBytes;
+  private final Map<String, String> settings = new LinkedHashMap<String, String>();
+
+  public BulkLoadProfile(InputSize inputSize) {
+    this(inputSize, getPhysicalMemoryBytes(), Runtime.getRuntime().maxMemory());
+  }
+
+  public BulkLoadProfile(InputSize inputSize, long physicalMemoryBytes, long maxHeapBytes) {
+
+    this.inputSize = inputSize;
+
+    // relationships - a forward and a backward copy per way segment (full schema), each carrying the way's tags
+    long segments = Math.max(0, inputSize.wayNodeRefs - inputSize.wayCount);
+    double wayTagBytes = inputSize.wayCount > 0 ? (double) inputSize.wayTagBytes / inputSize.wayCount : 0;
+    double storeBytes = inputSize.nodeCount * NODE_BYTES + inputSize.nodeTagBytes
+        + 2 * segments * (RELATIONSHIP_BYTES + wayTagBytes) + inputSize.wayNodeRefs * COORDINATE_BYTES;
+    this.estimatedStoreBytes = (long) (storeBytes * INDEX_AND_GROWTH_FACTOR);
+
+    // page cache - the whole store if memory allows
+    long nodeShapeStoreBytes = inputSize.nodeCount * COORDINATE_BYTES;
+    long memoryBudget = (long) ((physicalMemoryBytes - maxHeapBytes - nodeShapeStoreBytes) * PAGECACHE_MEMORY_SHARE);
+    long pagecacheBytes = Math.max(MIN_PAGECACHE_BYTES, Math.min(this.estimatedStoreBytes, memoryBudget));
+    this.settings.put(PAGECACHE_SIZE, toMegabytes(pagecacheBytes));
+
+    // transaction logs - about 8 files over the load, only the current one kept; a checkpoint (which prunes the rest)
+    //  every second file, so log disk usage stays bounded, and checkpoints don't wait on the IO limit
+    long rotationBytes = Math.max(MIN_TX_LOG_ROTATION_BYTES, Math.min(MAX_TX_LOG_ROTATION_BYTES, this.estimatedStoreBytes / 8));
+    this.settings.put(TX_LOG_ROTATION_SIZE, toMegabytes(rotationBytes));
+    this.settings.put(TX_LOG_RETENTION, "false");
+    this.settings.put(CHECKPOINT_INTERVAL_TIME, "30m");
+    this.settings.put(CHECKPOINT_INTERVAL_VOLUME, toMegabytes(2 * rotationBytes));
+    this.settings.put(CHECKPOINT_IOPS_LIMIT, "-1");
+
+    this.settings.put(RELATIONSHIP_GROUPING_THRESHOLD, String.valueOf(RELATIONSHIP_GROUPING_THRESHOLD_VALUE));
+
+  }
+
+  private static long getPhysicalMemoryBytes() {
+    OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+    if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) operatingSystem).getTotalPhysicalMemorySize();
+    }
+    // unknown - assume the heap is a quarter of it (the JVM's default)
+    return 4 * Runtime.getRuntime().maxMemory();
+  }
+
+  private static String toMegabytes(long bytes) {
+    return Math.max(1, bytes >> 20) + "m";
+  }
+
+  // settings - comma separated name=value pairs (e.g. dbms.memory.pagecache.size=4g,dbms.checkpoint.interval.time=1h);
+  //  an empty value removes the setting from the profile (the database's own value is used)
+  public void override(String settings) {
+    for (String setting : settings.split(",")) {
+      int separatorIndex = setting.indexOf('=');
+      if (separatorIndex <= 0) throw new IllegalArgumentException("setting must be name=value: " + setting);
+      String name = setting.substring(0, separatorIndex).trim();
+      String value = setting.substring(separatorIndex + 1).trim();
+      if (value.isEmpty()) this.settings.remove(name);
+      else this.settings.put(name, value);
+    }
+  }
+
+  public Map<String, String> getSettings() {
+    return Collections.unmodifiableMap(this.settings);
+  }
+
+  public InputSize getInputSize() {
+    return this.inputSize;
+  }
+
+  public long getEstimatedStoreBytes() {
+    return this.estimatedStoreBytes;
+  }
+
+  public String toString() {
+    return this.settings + " (" + this.inputSize + ", estimated store " + (this.estimatedStoreBytes >> 20) + "MB)";
+  }
+
+  // element counts and tag volume of a source - collected by a counting pass over it (see OsmSource.scanInputSize())
+  public static class InputSize implements IOsmElementHandler {
+
+    long nodeCount = 0;
+    long nodeTagBytes = 0;
+    long wayCount = 0;
+    long wayNodeRefs = 0;
+    long wayTagBytes = 0;
+
+    @Override
+    public void onNode(OsmNode node) {
+      ++this.nodeCount;
+      this.nodeTagBytes += getTagBytes(node);
+    }
+
+    // only highways become relationships
+    @Override
+    public void onWay(OsmWay way) {
+      if (!way.hasTag("highway")) return;
+      ++this.wayCount;
+      this.wayNodeRefs += way.getNodeRefs().length;
+      this.wayTagBytes += getTagBytes(way);
+    }
+
+    private static long getTagBytes(OsmElement element) {
+      long bytes = 0;
+      for (Map.Entry<String, String> tag : element.getTags().entrySet()) bytes += tag.getKey().length() + tag.getValue().length();
+      return bytes;
+    }
+
+    public long getNodeCount() {
+      return this.nodeCount;
+    }
+
+    public long getWayCount() {
+      return this.wayCount;
+    }
+
+    public long getWayNodeRefs() {
+      return this.wayNodeRefs;
+    }
+
+    public long getTagBytes() {
+      return this.nodeTagBytes + this.wayTagBytes;
+    }
+
+    public String toString() {
+      return this.nodeCount + " nodes, " + this.wayCount + " highways, " + (this.getTagBytes() >> 10) + "KB tags";
+    }
+
+  }
+
+}
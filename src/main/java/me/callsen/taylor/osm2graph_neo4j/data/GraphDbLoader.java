@@ -1,158 +1,794 @@
 package me.callsen.taylor.osm2graph_neo4j.data;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import org.json.JSONObject;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.LineString;
+import org.json.JSONArray;
+import org.neo4j.configuration.Config;
+import org.neo4j.configuration.SettingImpl;
+import org.neo4j.graphdb.Entity;
+import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
 import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.graphdb.spatial.Point;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.neo4j.values.storable.CoordinateReferenceSystem;
 import org.neo4j.values.storable.PointValue;
 import org.neo4j.values.storable.Values;
 
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
 import me.callsen.taylor.osm2graph_neo4j.geo.GeomUtil;
+import me.callsen.taylor.osm2graph_neo4j.geo.INodeShapeSource;
+import me.callsen.taylor.osm2graph_neo4j.geo.WayCoordinates;
+import me.callsen.taylor.osm2graph_neo4j.metrics.CommitEvent;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.routing.CsrAdjacencyBuilder;
+import me.callsen.taylor.osm2graph_neo4j.util.LongLongMap;
 import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.NodeLabels;
 import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants.RelationshipTypes;
 import me.callsen.taylor.scenicrouting.javasdk.data.GraphDb;
 
-public class GraphDbLoader extends GraphDb {
+public class GraphDbLoader extends GraphDb implements IGraphWriter {
+
+  private static final String CHANGE_INDEX_NAME_CONNECTS_OSM_ID = "connects_osm_id";
 
   private Transaction sharedTransaction;
   
-  // define number of transactions accepted before commiting (excluding index and truncate function which commit no matter what)
-  private static final int SHARED_TRANSACTION_COMMIT_INTERVAL = 5000;
-  private int sharedTransactionCount = 0;
+  // work pending on the shared transaction - committed once the commit policy's byte budget is reached (excluding
+  //  index and truncate function which commit no matter what)
+  private AdaptiveCommitPolicy commitPolicy = new AdaptiveCommitPolicy();
+  private long pendingOperations = 0;
+  private long pendingBytes = 0;
+
+  // rough on-heap transaction state size of an entity and a property record
+  private static final long ENTITY_STATE_BYTES = 64;
+  private static final long PROPERTY_STATE_BYTES = 32;
+
+  // checkpointing - when enabled, the shared transaction is only committed at element boundaries, and each commit
+  //  records the load position on a checkpoint node in the same transaction (see LoadCheckpoint)
+  private static final Label CHECKPOINT_LABEL = Label.label("OSM2GRAPH_CHECKPOINT");
+  private boolean checkpointsEnabled = false;
+  private boolean commitDue = false;
+  private String checkpointAction;
+  private String checkpointSource;
+  private String checkpointPhase;
+  private long checkpointOrdinal = -1;
+  private long checkpointOsmId = -1;
+
+  // relationships written by several threads, each batch in a transaction of its own - see startRelationshipWriters()
+  private int relationshipWriterThreads = 1;
+  private RelationshipWriterPool relationshipWriterPool;
+
+  // osm_id -> internal Neo4j node id of intersections - lets createRelationship resolve endpoints without index seeks
+  private LongLongMap nodeIdCache = new LongLongMap();
+
+  // deferred indexes - while false, intersections missing from the node id cache are absent (there is no index to
+  //  seek them in, see deferIndexes())
+  private boolean indexSeeksOnCacheMiss = true;
+
+  // routing snapshot of the load - follows the committed intersections and road relationships (optional)
+  private CsrAdjacencyBuilder csrAdjacencyBuilder;
+
+  // configuration profile applied for the load - previous values of the dynamic settings it changed, restored by
+  //  restoreConfigProfile()
+  private static final String CONFIG_PROFILE_SCOPE = "osm2graph";
+  private final Map<Setting<Object>, Object> replacedSettings = new LinkedHashMap<Setting<Object>, Object>();
+
+  // how often index population is polled (see createDeferredIndexes())
+  private static final long INDEX_POLL_MILLIS = 200;
+
+  // run metrics - commit latency, endpoint lookups and failed writes
+  private final LoadMetrics.Timer commitTimer = LoadMetrics.get().timer("graph.commit");
+  private final LoadMetrics.Timer intersectionLookupTimer = LoadMetrics.get().timer("graph.intersection_lookup");
+  private final LoadMetrics.Counter intersectionIndexSeeks = LoadMetrics.get().counter("graph.intersection_index_seeks");
+  private final LoadMetrics.Timer indexPopulationTimer = LoadMetrics.get().timer("graph.index_population");
+  private final LoadMetrics.Counter failedCommits = LoadMetrics.get().counter("failures.commits");
+  private final LoadMetrics.Counter failedNodes = LoadMetrics.get().counter("failures.nodes");
+  private final LoadMetrics.Counter failedRelationships = LoadMetrics.get().counter("failures.relationships");
+  private final LoadMetrics.Counter failedChanges = LoadMetrics.get().counter("failures.changes");
 
   public GraphDbLoader(String graphDbPath) throws Exception {
 
     super(graphDbPath);
 
-    // supply config options to reduce database size
-    Map<String, String> configRaw = new HashMap<String, String>();
-    configRaw.put("dbms.tx_log.rotation.retention_policy", "1 files");
-    configRaw.put("dbms.tx_log.rotation.size", "1M");
-    configRaw.put("dbms.tx_log.rotation.retention_policy","keep_none");
-    
     // initialize shared transaction - bundles multiple transactions into single commit to improve performance
     this.sharedTransaction = this.getTransaction();
 
   }
 
-  // overloaded for convienence
-  private void commitSharedTransaction() {
-    this.commitSharedTransaction(true);
+  public void setCommitPolicy(AdaptiveCommitPolicy commitPolicy) {
+    this.commitPolicy = commitPolicy;
+  }
+
+  public AdaptiveCommitPolicy getCommitPolicy() {
+    return this.commitPolicy;
+  }
+
+  public void setCsrAdjacencyBuilder(CsrAdjacencyBuilder csrAdjacencyBuilder) {
+    this.csrAdjacencyBuilder = csrAdjacencyBuilder;
+  }
+
+  CsrAdjacencyBuilder getCsrAdjacencyBuilder() {
+    return this.csrAdjacencyBuilder;
+  }
+
+  public void setRelationshipWriterThreads(int relationshipWriterThreads) {
+    this.relationshipWriterThreads = relationshipWriterThreads;
+  }
+
+  // switches relationship writes of a way load to concurrent writer threads until the next flush() - no-op with a
+  //  single writer thread. skipWays / skipRanges are the way ordinals already committed by an interrupted load (see
+  //  LoadCheckpoint)
+  public void startRelationshipWriters(long skipWays, long[] skipRanges) {
+
+    if (this.relationshipWriterThreads <= 1 || this.relationshipWriterPool != null) return;
+
+    // intersections must be committed to be visible to the writers' transactions
+    if (this.pendingOperations > 0) this.commitSharedTransaction();
+
+    // writers update the checkpoint node concurrently - it has to exist up front
+    if (this.checkpointsEnabled) {
+      this.checkpointPhase = LoadCheckpoint.PHASE_WAYS;
+      this.checkpointOrdinal = skipWays;
+      this.checkpointOsmId = -1;
+      try ( Transaction tx = this.getTransaction() ) {
+        this.writeCheckpoint(tx).setProperty("committed_ranges", skipRanges);
+        tx.commit();
+      }
+    }
+
+    System.out.println("writing relationships on " + this.relationshipWriterThreads + " threads");
+    this.relationshipWriterPool = new RelationshipWriterPool(this, this.relationshipWriterThreads, skipWays, this.checkpointsEnabled);
+
   }
 
+  // enables checkpoints for a load of the given source - action is recorded so a resume knows what to continue
+  public void enableCheckpoints(String action, String source) {
+    this.checkpointsEnabled = true;
+    this.checkpointAction = action;
+    this.checkpointSource = source;
+  }
+
+  // marks an element (node, or way with all its segments) as completely written - with checkpoints enabled this is
+  //  where a due commit happens, so a commit never splits the relationships of a way
+  public void markElementWritten(String phase, long ordinal, long osmId) {
+    if (this.relationshipWriterPool != null) {
+      this.relationshipWriterPool.markWayWritten(ordinal, osmId);
+      return;
+    }
+    this.checkpointPhase = phase;
+    this.checkpointOrdinal = ordinal;
+    this.checkpointOsmId = osmId;
+    if (this.commitDue) this.commitSharedTransaction();
+  }
+
+  public LoadCheckpoint readCheckpoint() {
+    try ( Transaction tx = this.getTransaction() ) {
+      ResourceIterator<Node> checkpointNodes = tx.findNodes(CHECKPOINT_LABEL);
+      if (!checkpointNodes.hasNext()) return null;
+      Node checkpointNode = checkpointNodes.next();
+      return new LoadCheckpoint(
+          (String) checkpointNode.getProperty("action"),
+          (String) checkpointNode.getProperty("source"),
+          (String) checkpointNode.getProperty("phase"),
+          (Long) checkpointNode.getProperty("ordinal"),
+          (Long) checkpointNode.getProperty("osm_id"),
+          (long[]) checkpointNode.getProperty("committed_ranges", new long[0]));
+    }
+  }
+
+  // removes the checkpoint once a load completed - pending work must be flushed first
+  public void clearCheckpoint() {
+    try ( Transaction tx = this.getTransaction() ) {
+      tx.findNodes(CHECKPOINT_LABEL).forEachRemaining(Node::delete);
+      tx.commit();
+    }
+    this.checkpointPhase = null;
+  }
+
+  private Node writeCheckpoint(Transaction tx) {
+    ResourceIterator<Node> checkpointNodes = tx.findNodes(CHECKPOINT_LABEL);
+    Node checkpointNode = checkpointNodes.hasNext() ? checkpointNodes.next() : tx.createNode(CHECKPOINT_LABEL);
+    checkpointNode.setProperty("action", this.checkpointAction);
+    checkpointNode.setProperty("source", this.checkpointSource);
+    checkpointNode.setProperty("phase", this.checkpointPhase);
+    checkpointNode.setProperty("ordinal", this.checkpointOrdinal);
+    checkpointNode.setProperty("osm_id", this.checkpointOsmId);
+    return checkpointNode;
+  }
+
+  // records a committed batch of concurrently written ways in the batch's transaction - batches commit out of order,
+  //  so ranges beyond the contiguous prefix (the ordinal) are kept as committed_ranges until the gap before them
+  //  closes. The checkpoint node is locked last by every batch, so its updates are serialized.
+  void recordCheckpointRange(Transaction tx, long firstOrdinal, long lastOrdinal, long lastOsmId) {
+
+    Node checkpointNode = tx.findNodes(CHECKPOINT_LABEL).next();
+    tx.acquireWriteLock(checkpointNode);
+
+    long ordinal = (Long) checkpointNode.getProperty("ordinal");
+    long[] committedRanges = (long[]) checkpointNode.getProperty("committed_ranges", new long[0]);
 
-  private void commitSharedTransaction(boolean openNewTransaction) {
+    // ranges as sorted (first, last) pairs - add this batch, then fold every range the prefix reaches into it
+    List<long[]> ranges = new ArrayList<long[]>();
+    for (int i = 0; i + 1 < committedRanges.length; i += 2) ranges.add(new long[] { committedRanges[i], committedRanges[i + 1] });
+    ranges.add(new long[] { firstOrdinal, lastOrdinal });
+    ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+
+    List<Long> remainingRanges = new ArrayList<Long>();
+    for (long[] range : ranges) {
+      if (range[0] <= ordinal + 1) ordinal = Math.max(ordinal, range[1]);
+      else if (range[1] > ordinal) { remainingRanges.add(range[0]); remainingRanges.add(range[1]); }
+    }
+
+    checkpointNode.setProperty("ordinal", ordinal);
+    if (ordinal == lastOrdinal) checkpointNode.setProperty("osm_id", lastOsmId);
+    checkpointNode.setProperty("committed_ranges", remainingRanges.stream().mapToLong(Long::longValue).toArray());
+
+  }
+
+  // commits any work pending on the shared transaction - must be called once loading is finished (e.g. before
+  //  shutdown), otherwise the tail of the load since the last commit is discarded
+  public void flush() {
+    if (this.relationshipWriterPool != null) {
+      RelationshipWriterPool relationshipWriterPool = this.relationshipWriterPool;
+      this.relationshipWriterPool = null;
+      relationshipWriterPool.close();
+    }
+    if (this.pendingOperations > 0) this.commitSharedTransaction();
+    System.out.println("shared transaction stats: " + this.commitPolicy);
+  }
+
+  // a failed commit loses the work since the previous one - a checkpointed load stops there (see below), otherwise the
+  //  load carries on without it
+  private void commitSharedTransaction() {
     
+    Exception commitFailure = null;
+    CommitEvent commitEvent = new CommitEvent();
+    commitEvent.begin();
+    long commitStart = this.commitTimer.start();
     try {
+      // record load position along with the data
+      if (this.checkpointsEnabled && this.checkpointPhase != null) this.writeCheckpoint(this.sharedTransaction);
       // commit pending transaction
       this.sharedTransaction.commit();
       this.sharedTransaction.close();
-      // reset transaction count to 0
-      this.sharedTransactionCount = 0;
+      commitEvent.succeeded = true;
+      if (this.csrAdjacencyBuilder != null) this.csrAdjacencyBuilder.commit();
     } catch (Exception e) { 
       System.out.println("Warning - failed to commit shared transaction (not necessarily an issue)"); 
       e.printStackTrace();
+      this.failedCommits.increment();
+      if (this.csrAdjacencyBuilder != null) this.csrAdjacencyBuilder.rollback();
+      commitFailure = e;
     } finally {
-      // open a new transaction, or unassign (used at app shutdown)
-      if (openNewTransaction) this.sharedTransaction = this.getTransaction();
-      else this.sharedTransaction = null;
+      long commitNanos = this.commitTimer.stop(commitStart);
+      commitEvent.end();
+      if (commitEvent.shouldCommit()) {
+        commitEvent.operations = this.pendingOperations;
+        commitEvent.bytes = this.pendingBytes;
+        commitEvent.commit();
+      }
+      // report to commit policy (tunes next batch size) and reset pending work
+      this.commitPolicy.onCommit(this.pendingOperations, this.pendingBytes, TimeUnit.NANOSECONDS.toMillis(commitNanos));
+      this.pendingOperations = 0;
+      this.pendingBytes = 0;
+      this.commitDue = false;
+      // open a new transaction
+      this.sharedTransaction = this.getTransaction();
+    }
+
+    // the checkpoint written with the failed commit is lost as well - continuing would record positions past the
+    //  lost elements, so the stored checkpoint (last successful commit) is where a resume has to pick up
+    if (commitFailure != null && this.checkpointsEnabled) {
+      throw new IllegalStateException("failed to commit shared transaction - load stopped at its last checkpoint, resume to continue", commitFailure);
     }
 
   }
 
-  public void createNode(JSONObject nodeJsonObject) {
+  // tracks activity on the shared transaction - commits to DB if the policy's batch budget is reached
+  private void trackSharedTransactionOperation() {
+    this.pendingOperations += 1;
+    if (!this.commitPolicy.shouldCommit(this.pendingBytes)) return;
+    // with checkpoints, defer to the end of the current element (see markElementWritten)
+    if (this.checkpointsEnabled) this.commitDue = true;
+    else this.commitSharedTransaction();
+  }
+
+  private void setProperty(Entity entity, String key, Object value) {
+    entity.setProperty(key, value);
+    this.pendingBytes += estimatePropertyBytes(key, value);
+  }
+
+  private static long estimatePropertyBytes(String key, Object value) {
+    long bytes = PROPERTY_STATE_BYTES + key.length();
+    if (value instanceof String) bytes += 2L * ((String) value).length();
+    else if (value instanceof PointValue[]) bytes += 48L * ((PointValue[]) value).length;
+    else if (value instanceof WayCoordinates) bytes += 48L * ((WayCoordinates) value).getNumPoints();
+    else if (value instanceof PointValue) bytes += 48;
+    else if (value instanceof long[]) bytes += 8L * ((long[]) value).length;
+    else bytes += 8;
+    return bytes;
+  }
+
+  public void createNode(OsmNode osmNode, Map<String, Object> nodeProps) {
 
     try {
     
       // use shared transaction if instantiated; otherwise create one	
       Node newIntersectionNode = this.sharedTransaction.createNode(NodeLabels.INTERSECTION);
+      this.pendingBytes += ENTITY_STATE_BYTES;
+      this.nodeIdCache.put(osmNode.getId(), newIntersectionNode.getId());
+      this.setNodeProperties(newIntersectionNode, osmNode, nodeProps);
+      if (this.csrAdjacencyBuilder != null) this.csrAdjacencyBuilder.addNode(osmNode.getId(), newIntersectionNode.getId(), osmNode.getLon(), osmNode.getLat());
+
+      // System.out.println("created intersection for node id " + osmNode.getId());
+    } catch (Exception e) { 
+      System.out.println("FAILED to create intersection for node id " + osmNode.getId());
+      e.printStackTrace();
+      this.failedNodes.increment();
+    } finally {
+      this.trackSharedTransactionOperation();
+    }
+    
+  }
+
+  // nodeProps are assembled by PropertySchema.assembleNodeProps() - they already include geom_wkt when the schema has it
+  private void setNodeProperties(Node intersectionNode, OsmNode osmNode, Map<String, Object> nodeProps) {
+
+    // apply properties to Node object
+    for (Map.Entry<String, Object> prop : nodeProps.entrySet()) {
       
-      // apply properties to Node object
-      for (String key : nodeJsonObject.keySet()) {
-        
-        Object value = nodeJsonObject.get(key);
-
-        // special fix for BigDecimal types, used fot lat/long e.g. -89.3837613
-        if (value instanceof BigDecimal) {
-          value = ((BigDecimal)value).floatValue();
-        }
+      Object value = prop.getValue();
 
-        newIntersectionNode.setProperty(key, value);
+      // special fix for BigDecimal types, used fot lat/long e.g. -89.3837613
+      if (value instanceof BigDecimal) {
+        value = ((BigDecimal)value).floatValue();
       }
 
-      // add geom as WKT
-      newIntersectionNode.setProperty("geom_wkt", "POINT(" + nodeJsonObject.getDouble("lon") + " " + nodeJsonObject.getDouble("lat") + ")");
+      this.setProperty(intersectionNode, prop.getKey(), value);
+    }
 
-      // add geom as Neo4j Point - https://neo4j.com/docs/graphql-manual/current/type-definitions/types/#type-definitions-types-point
-      PointValue pointValue = Values.pointValue(CoordinateReferenceSystem.get(4326), nodeJsonObject.getDouble("lon"), nodeJsonObject.getDouble("lat"));
-      newIntersectionNode.setProperty("geom", pointValue);
+    // add geom as Neo4j Point - https://neo4j.com/docs/graphql-manual/current/type-definitions/types/#type-definitions-types-point
+    PointValue pointValue = Values.pointValue(CoordinateReferenceSystem.get(4326), osmNode.getLon(), osmNode.getLat());
+    this.setProperty(intersectionNode, "geom", pointValue);
 
-      // System.out.println("created intersection for node id " + nodeJsonObject.getLong("osm_id"));
-    } catch (Exception e) { 
-      System.out.println("FAILED to create intersection for node id " + nodeJsonObject.getInt("osm_id"));
-      e.printStackTrace();
+  }
+
+  // resolves an intersection by osm_id - via the node id cache, falling back to an index seek on cache misses
+  private Node findIntersectionNode(long osmId) {
+    return this.findIntersectionNode(this.sharedTransaction, osmId, true);
+  }
+
+  // cacheResult - adds index seek results to the node id cache (only the loader's own thread may write the cache;
+  //  other threads, e.g. relationship writers or way transform workers, pass false)
+  public Node findIntersectionNode(Transaction tx, long osmId, boolean cacheResult) {
+    long lookupStart = this.intersectionLookupTimer.start();
+    try {
+      long nodeId = this.nodeIdCache.get(osmId, -1);
+      if (nodeId >= 0) {
+        try {
+          return tx.getNodeById(nodeId);
+        } catch (NotFoundException e) {
+          // stale entry (e.g. node creation was rolled back with a failed commit) - resolve via index instead
+        }
+      }
+      if (!this.indexSeeksOnCacheMiss) return null;
+      this.intersectionIndexSeeks.increment();
+      Node node = tx.findNode( NodeLabels.INTERSECTION , "osm_id", osmId );
+      if (node != null && cacheResult) this.nodeIdCache.put(osmId, node.getId());
+      return node;
     } finally {
-      // track amount of activity on shared transaction - commit to DB if interval reached
-      this.sharedTransactionCount += 1;
-      if (this.sharedTransactionCount > SHARED_TRANSACTION_COMMIT_INTERVAL) this.commitSharedTransaction();
+      this.intersectionLookupTimer.stop(lookupStart);
     }
-    
   }
 
-  public void createRelationship(JSONObject wayJsonObject, long wayStartOsmId, long wayEndOsmId) {
+  // repopulates the node id cache from intersections already in the graph (e.g. when loadways runs on its own). The
+  //  graph is read in a transaction of its own - pending nodes (e.g. the last batch of a resumed node pass) are
+  //  committed first, or they would drop out of the cache
+  public void rebuildNodeIdCache() throws Exception {
+
+    System.out.println("rebuilding intersection node id cache..");
+
+    if (this.pendingOperations > 0) this.commitSharedTransaction();
+    this.nodeIdCache.clear();
+    try ( Transaction tx = this.getTransaction() ) {
+      ResourceIterator<Node> intersectionNodes = tx.findNodes(NodeLabels.INTERSECTION);
+      while (intersectionNodes.hasNext()) {
+        Node intersectionNode = intersectionNodes.next();
+        Object osmId = intersectionNode.getProperty("osm_id", null);
+        if (osmId instanceof Number) this.nodeIdCache.put(((Number) osmId).longValue(), intersectionNode.getId());
+      }
+    }
+
+    System.out.println("finished rebuilding intersection node id cache - " + this.nodeIdCache.size() + " nodes");
+
+  }
+
+  public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+
+    // handed to a writer thread - written and accounted there
+    if (this.relationshipWriterPool != null) {
+      this.relationshipWriterPool.addRelationship(wayProps, wayStartOsmId, wayEndOsmId);
+      return;
+    }
   
     try {
       
       //retrieve start and stop nodes by osm_id (osm_Id within graph); create relationship between nodes that will correspond to road / way
-      Node startNode = this.sharedTransaction.findNode( NodeLabels.INTERSECTION , "osm_id", wayStartOsmId );
-      Node endNode = this.sharedTransaction.findNode( NodeLabels.INTERSECTION , "osm_id", wayEndOsmId );
-      Relationship newRelationship = startNode.createRelationshipTo( endNode , RelationshipTypes.CONNECTS );
-      
-      //apply properties to newly created Relationship (representing a road / way)
-      for (String key : wayJsonObject.keySet()) {
-        
-        Object value = wayJsonObject.get(key);
-
-        // special fix for BigDecimal types, used fot lat/long e.g. -89.3837613
-        if (value instanceof BigDecimal) {
-          value = ((BigDecimal)value).doubleValue();
+      Node startNode = this.findIntersectionNode(wayStartOsmId);
+      Node endNode = this.findIntersectionNode(wayEndOsmId);
+      this.pendingBytes += createRelationship(startNode, endNode, wayProps, wayStartOsmId, wayEndOsmId);
+      if (this.csrAdjacencyBuilder != null) this.csrAdjacencyBuilder.addRelationship(wayStartOsmId, wayEndOsmId, wayProps);
+
+      // System.out.println("creating road relationship in Graph for node osm_ids " + wayStartOsmId + " and "+ wayEndOsmId + "; road relationship graph id " + newRelationship.getId() );
+    } catch (Exception e) {
+      System.out.println("FAILED to create road relationship in Graph for node osm_ids " + wayStartOsmId + " and "+ wayEndOsmId + "; road relationship id road id not available" ); 
+      e.printStackTrace();
+      this.failedRelationships.increment();
+    } finally {
+      // ways are accounted by their actual size (tags, geometry) rather than a fixed weight
+      this.trackSharedTransactionOperation();
+    }
+    
+  }
+
+  // creates the relationship with its props - returns the estimated transaction state bytes
+  static long createRelationship(Node startNode, Node endNode, Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+
+    Relationship newRelationship = startNode.createRelationshipTo( endNode , RelationshipTypes.CONNECTS );
+    long bytes = ENTITY_STATE_BYTES;
+
+    //apply properties to newly created Relationship (representing a road / way)
+    for (Map.Entry<String, Object> prop : wayProps.entrySet()) {
+      bytes += setWayProperty(newRelationship, prop.getKey(), prop.getValue());
+    }
+
+    // explicitly set start and end osm ids (useful for filtering cypher queries by direction)
+    bytes += setWayProperty(newRelationship, "start_osm_id", wayStartOsmId);
+    bytes += setWayProperty(newRelationship, "end_osm_id", wayEndOsmId);
+
+    return bytes;
+
+  }
+
+  // rough transaction state size of a relationship to be created with the given props
+  static long estimateRelationshipBytes(Map<String, Object> wayProps) {
+    long bytes = ENTITY_STATE_BYTES + 2 * PROPERTY_STATE_BYTES;
+    for (Map.Entry<String, Object> prop : wayProps.entrySet()) bytes += estimatePropertyBytes(prop.getKey(), prop.getValue());
+    return bytes;
+  }
+
+  // returns the estimated transaction state bytes of the property
+  private static long setWayProperty(Relationship relationship, String key, Object value) {
+
+    // special fix for BigDecimal types, used fot lat/long e.g. -89.3837613
+    if (value instanceof BigDecimal) {
+      value = ((BigDecimal)value).doubleValue();
+    }
+
+    // geometry set by GeomUtil.setWayGeometry() - stored as array of Neo4j Points
+    //  https://neo4j.com/docs/graphql-manual/current/type-definitions/types/#type-definitions-types-point
+    if (value instanceof WayCoordinates) {
+      value = toPointValues((WayCoordinates) value);
+    }
+
+    relationship.setProperty(key, value);
+    return estimatePropertyBytes(key, value);
+
+  }
+
+  // change application (osmChange files) - relationship lookups by way id need an index on CONNECTS(osm_id)
+  public void createChangeIndexes() {
+    try ( Transaction tx = this.getTransaction() ) {
+      tx.execute("CREATE INDEX " + CHANGE_INDEX_NAME_CONNECTS_OSM_ID + " IF NOT EXISTS FOR ()-[r:" + RelationshipTypes.CONNECTS + "]-() ON (r.osm_id)");
+      tx.commit();
+    }
+    try ( Transaction tx = this.getTransaction() ) {
+      tx.schema().awaitIndexesOnline(10, TimeUnit.MINUTES);
+    }
+  }
+
+  // reads the intersections and road relationships of the graph into a CSR adjacency snapshot (see Main exportcsr)
+  public void readCsrAdjacency(CsrAdjacencyBuilder csrAdjacencyBuilder) {
+
+    System.out.println("reading graph for CSR adjacency snapshot..");
+
+    try ( Transaction tx = this.getTransaction() ) {
+
+      ResourceIterator<Node> intersectionNodes = tx.findNodes(NodeLabels.INTERSECTION);
+      while (intersectionNodes.hasNext()) {
+        Node intersectionNode = intersectionNodes.next();
+        Object osmId = intersectionNode.getProperty("osm_id", null);
+        Object geom = intersectionNode.getProperty("geom", null);
+        if (!(osmId instanceof Number) || !(geom instanceof Point)) continue;
+        List<Double> coordinate = ((Point) geom).getCoordinate().getCoordinate();
+        csrAdjacencyBuilder.addNode(((Number) osmId).longValue(), intersectionNode.getId(), coordinate.get(0), coordinate.get(1));
+      }
+
+      for (Relationship relationship : tx.getAllRelationships()) {
+        if (!relationship.isType(RelationshipTypes.CONNECTS)) continue;
+        Object startOsmId = relationship.getStartNode().getProperty("osm_id", null);
+        Object endOsmId = relationship.getEndNode().getProperty("osm_id", null);
+        if (!(startOsmId instanceof Number) || !(endOsmId instanceof Number)) continue;
+        csrAdjacencyBuilder.addRelationship(((Number) startOsmId).longValue(), ((Number) endOsmId).longValue(),
+            relationship.getProperties("length", "highway", "forward_allowed", "backward_allowed"));
+      }
+
+    }
+
+    csrAdjacencyBuilder.commit();
+
+  }
+
+  // applies the dynamic settings of a configuration profile (see BulkLoadProfile) to the running database. The
+  //  database is opened by GraphDb without configuration, so static settings can't change for this load - they're
+  //  returned (with the values the database runs with) for the caller to report. Unknown settings and invalid values
+  //  fail before anything is changed
+  public Map<String, String> applyConfigProfile(Map<String, String> settings) {
+
+    Config config = this.getConfig();
+
+    Map<Setting<Object>, Object> dynamicValues = new LinkedHashMap<Setting<Object>, Object>();
+    Map<String, String> staticSettings = new LinkedHashMap<String, String>();
+    for (Map.Entry<String, String> setting : settings.entrySet()) {
+      Setting<Object> configSetting = getSetting(config, setting.getKey());
+      Object value = ((SettingImpl<Object>) configSetting).parse(setting.getValue());
+      if (configSetting.dynamic()) dynamicValues.put(configSetting, value);
+      else staticSettings.put(setting.getKey(), toConfigString(configSetting, config.get(configSetting)));
+    }
+
+    for (Map.Entry<Setting<Object>, Object> setting : dynamicValues.entrySet()) {
+      if (!this.replacedSettings.containsKey(setting.getKey())) this.replacedSettings.put(setting.getKey(), config.get(setting.getKey()));
+      config.setDynamic(setting.getKey(), setting.getValue(), CONFIG_PROFILE_SCOPE);
+      System.out.println("applied config: " + setting.getKey().name() + "=" + toConfigString(setting.getKey(), setting.getValue()));
+    }
+
+    return staticSettings;
+
+  }
+
+  // puts back the values the dynamic settings had before applyConfigProfile() - settings changed at runtime aren't
+  //  persisted, so a restart restores them as well
+  public void restoreConfigProfile() {
+    Config config = this.getConfig();
+    for (Map.Entry<Setting<Object>, Object> setting : this.replacedSettings.entrySet()) {
+      config.setDynamic(setting.getKey(), setting.getValue(), CONFIG_PROFILE_SCOPE);
+      System.out.println("restored config: " + setting.getKey().name() + "=" + toConfigString(setting.getKey(), setting.getValue()));
+    }
+    this.replacedSettings.clear();
+  }
+
+  // current value of a setting, as it would be written in neo4j.conf
+  public String getConfigValue(String name) {
+    Config config = this.getConfig();
+    Setting<Object> setting = getSetting(config, name);
+    return toConfigString(setting, config.get(setting));
+  }
+
+  // unset - Neo4j picks the value itself (e.g. the page cache size)
+  private static String toConfigString(Setting<Object> setting, Object value) {
+    return value != null ? ((SettingImpl<Object>) setting).valueToString(value) : "unset";
+  }
+
+  private Config getConfig() {
+    return ((GraphDatabaseAPI) this.db).getDependencyResolver().resolveDependency(Config.class);
+  }
+
+  private static Setting<Object> getSetting(Config config, String name) {
+    try {
+      return config.getSetting(name);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("unknown Neo4j setting: " + name, e);
+    }
+  }
+
+  // deferred index lifecycle - drops the indexes for the duration of a load, so writes don't pay for index
+  //  maintenance. Endpoints are resolved through the node id cache alone (filled by the node pass or
+  //  rebuildNodeIdCache()); the indexes are built once the load is committed (see createDeferredIndexes())
+  public void deferIndexes() {
+    this.dropNodeIndexes();
+    this.dropRelationshipIndexes();
+    this.indexSeeksOnCacheMiss = false;
+  }
+
+  public boolean isDeferringIndexes() {
+    return !this.indexSeeksOnCacheMiss;
+  }
+
+  // creates the indexes after the last commit of a deferred load - all of them are defined first, so Neo4j populates
+  //  them concurrently in the background. Waits for population, printing progress every progressSeconds, and fails
+  //  if any index ends up FAILED
+  public void createDeferredIndexes(long progressSeconds) {
+
+    this.flush();
+
+    System.out.println("creating indexes..");
+    long populationStart = this.indexPopulationTimer.start();
+
+    this.createNodeIndexes();
+    this.createRelationshipIndexes();
+    this.indexSeeksOnCacheMiss = true;
+
+    long nextReportMillis = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(progressSeconds);
+    while (true) {
+
+      List<String> populatingIndexes = new ArrayList<String>();
+      try ( Transaction tx = this.getTransaction() ) {
+        Schema schema = tx.schema();
+        for (IndexDefinition index : schema.getIndexes()) {
+          Schema.IndexState indexState = schema.getIndexState(index);
+          if (indexState == Schema.IndexState.FAILED) {
+            throw new IllegalStateException("index " + index.getName() + " failed to populate: " + schema.getIndexFailure(index));
+          }
+          if (indexState == Schema.IndexState.POPULATING) {
+            populatingIndexes.add(index.getName() + " " + String.format("%.1f%%", schema.getIndexPopulationProgress(index).getCompletedPercentage()));
+          }
         }
-        newRelationship.setProperty(key, value);
       }
+      if (populatingIndexes.isEmpty()) break;
 
-      // explicitly set start and end osm ids (useful for filtering cypher queries by direction)
-      newRelationship.setProperty("start_osm_id", wayStartOsmId);
-      newRelationship.setProperty("end_osm_id", wayEndOsmId);
-
-      // set relationship geometry as array of Neo4j Points - geometry read from "way" proprety set in GeomUtil.setWayGeometry()
-      //  https://neo4j.com/docs/graphql-manual/current/type-definitions/types/#type-definitions-types-point
-      //  https://github.com/neo4j/neo4j/blob/3.5/community/values/src/main/java/org/neo4j/values/storable/Values.java#L385
-      LineString relationshipGeometry = GeomUtil.getLineStringFromWkt(wayJsonObject.getString("way"));
-      PointValue[] relationshipPoints = new PointValue[relationshipGeometry.getCoordinates().length];
-      for (int i = 0; i < relationshipGeometry.getCoordinates().length; ++i ) {
-        Coordinate coord = relationshipGeometry.getCoordinateN(i);
-        relationshipPoints[i] = Values.pointValue(CoordinateReferenceSystem.get(4326), coord.x, coord.y);
+      if (System.currentTimeMillis() >= nextReportMillis) {
+        System.out.println("populating indexes: " + String.join(", ", populatingIndexes));
+        nextReportMillis += TimeUnit.SECONDS.toMillis(progressSeconds);
+      }
+      try {
+        Thread.sleep(INDEX_POLL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("interrupted while waiting for index population");
       }
-      newRelationship.setProperty("geom", relationshipPoints);
 
-      // System.out.println("creating road relationship in Graph for node osm_ids " + wayStartOsmId + " and "+ wayEndOsmId + "; road relationship graph id " + newRelationship.getId() );
+    }
+
+    long populationNanos = this.indexPopulationTimer.stop(populationStart);
+    System.out.println("finished creating indexes - " + TimeUnit.NANOSECONDS.toSeconds(populationNanos) + "s");
+
+  }
+
+  // inserts or replaces an intersection by osm_id - returns true if an existing intersection changed location
+  public boolean upsertNode(OsmNode osmNode, Map<String, Object> nodeProps) {
+
+    Node intersectionNode = this.findIntersectionNode(osmNode.getId());
+    if (intersectionNode == null) {
+      this.createNode(osmNode, nodeProps);
+      return false;
+    }
+
+    boolean moved = true;
+    try {
+
+      Object geom = intersectionNode.getProperty("geom", null);
+      if (geom instanceof Point) {
+        List<Double> coords = ((Point) geom).getCoordinate().getCoordinate();
+        moved = coords.get(0) != osmNode.getLon() || coords.get(1) != osmNode.getLat();
+      }
+
+      // replace all properties - tags may have been removed
+      List<String> propertyKeys = new ArrayList<String>();
+      intersectionNode.getPropertyKeys().forEach(propertyKeys::add);
+      for (String propertyKey : propertyKeys) intersectionNode.removeProperty(propertyKey);
+      this.setNodeProperties(intersectionNode, osmNode, nodeProps);
+
     } catch (Exception e) {
-      System.out.println("FAILED to create road relationship in Graph for node osm_ids " + wayStartOsmId + " and "+ wayEndOsmId + "; road relationship id road id not available" ); 
+      System.out.println("FAILED to update intersection for node id " + osmNode.getId());
       e.printStackTrace();
+      this.failedChanges.increment();
     } finally {
-      // track amount of activity on shared transaction - commit to DB if interval reached
-      //   - move at faster rate than nodes since ways contain much more data
-      this.sharedTransactionCount += 500;
-      if (this.sharedTransactionCount > SHARED_TRANSACTION_COMMIT_INTERVAL) this.commitSharedTransaction();
+      this.trackSharedTransactionOperation();
     }
-    
+    return moved;
+
+  }
+
+  // deletes an intersection along with any relationships still attached to it
+  public void deleteNode(long osmId) {
+
+    try {
+      Node intersectionNode = this.findIntersectionNode(osmId);
+      if (intersectionNode == null) return;
+      for (Relationship relationship : intersectionNode.getRelationships()) relationship.delete();
+      intersectionNode.delete();
+      this.nodeIdCache.put(osmId, -1); // node ids are reused - never resolve this osm id through the cache again
+    } catch (Exception e) {
+      System.out.println("FAILED to delete intersection for node id " + osmId);
+      e.printStackTrace();
+      this.failedChanges.increment();
+    } finally {
+      this.pendingBytes += ENTITY_STATE_BYTES;
+      this.trackSharedTransactionOperation();
+    }
+
+  }
+
+  // deletes all relationships created from a way - returns the number deleted
+  public int deleteWayRelationships(long wayOsmId) {
+
+    int deletedCount = 0;
+    try {
+      // osm_id is stored as Integer or Long depending on magnitude - the index seek matches either
+      ResourceIterator<Relationship> wayRelationships = this.sharedTransaction.findRelationships(RelationshipTypes.CONNECTS, "osm_id", wayOsmId);
+      while (wayRelationships.hasNext()) {
+        wayRelationships.next().delete();
+        ++deletedCount;
+      }
+    } catch (Exception e) {
+      System.out.println("FAILED to delete road relationships of way id " + wayOsmId);
+      e.printStackTrace();
+      this.failedChanges.increment();
+    } finally {
+      this.pendingBytes += ENTITY_STATE_BYTES * deletedCount;
+      this.trackSharedTransactionOperation();
+    }
+    return deletedCount;
+
+  }
+
+  // recomputes the geometry of relationships attached to a moved intersection from their refOsmNodes - relationships
+  //  of ways in skipWayIds (already rebuilt) are left alone. Returns the number of relationships updated.
+  public int refreshRelationshipGeometries(long osmId, Set<Long> skipWayIds, INodeShapeSource nodeShapeSource) {
+
+    int refreshedCount = 0;
+    try {
+
+      Node intersectionNode = this.findIntersectionNode(osmId);
+      if (intersectionNode == null) return 0;
+
+      for (Relationship relationship : intersectionNode.getRelationships(RelationshipTypes.CONNECTS)) {
+
+        Object wayOsmId = relationship.getProperty("osm_id", null);
+        if (wayOsmId instanceof Number && skipWayIds.contains(((Number) wayOsmId).longValue())) continue;
+
+        // segment node refs are stored in relationship direction - long[] in the compact schema, JSON otherwise; the
+        //  geometry is rewritten in the same schema
+        Object refOsmNodesValue = relationship.getProperty("refOsmNodes");
+        boolean compact = refOsmNodesValue instanceof long[];
+        long[] wayNodeRefs;
+        if (compact) {
+          wayNodeRefs = (long[]) refOsmNodesValue;
+        } else {
+          JSONArray refOsmNodes = new JSONArray((String) refOsmNodesValue);
+          wayNodeRefs = new long[refOsmNodes.length()];
+          for (int i = 0; i < wayNodeRefs.length; ++i) wayNodeRefs[i] = refOsmNodes.getJSONObject(i).getLong("ref");
+        }
+
+        Map<String, Object> geometryProps = new HashMap<String, Object>();
+        if (!GeomUtil.setWayGeometry(nodeShapeSource, geometryProps, wayNodeRefs, 0, wayNodeRefs.length - 1, compact)) continue;
+        for (Map.Entry<String, Object> prop : geometryProps.entrySet()) {
+          this.pendingBytes += setWayProperty(relationship, prop.getKey(), prop.getValue());
+        }
+        ++refreshedCount;
+
+      }
+
+    } catch (Exception e) {
+      System.out.println("FAILED to refresh road relationship geometries of node id " + osmId);
+      e.printStackTrace();
+      this.failedChanges.increment();
+    } finally {
+      this.trackSharedTransactionOperation();
+    }
+    return refreshedCount;
+
+  }
+
+  private static PointValue[] toPointValues(WayCoordinates wayCoordinates) {
+    PointValue[] points = new PointValue[wayCoordinates.getNumPoints()];
+    for (int i = 0; i < points.length; ++i) {
+      points[i] = Values.pointValue(CoordinateReferenceSystem.get(4326), wayCoordinates.getLon(i), wayCoordinates.getLat(i));
+    }
+    return points;
   }
 
-}
\ No newline at end of file
+}
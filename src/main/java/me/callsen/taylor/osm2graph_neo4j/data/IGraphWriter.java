@@ -0,0 +1,16 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.util.Map;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+
+// destination for the graph elements produced by OsmSource (transactional loader, bulk import files, ..)
+public interface IGraphWriter {
+
+  // nodeProps are assembled by PropertySchema.assembleNodeProps()
+  public void createNode(OsmNode osmNode, Map<String, Object> nodeProps);
+
+  // wayProps must carry the segment geometry set by GeomUtil.setWayGeometry()
+  public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId);
+
+}
@@ -0,0 +1,62 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+// Position of an interrupted load, persisted by GraphDbLoader in the same transaction as the data it covers. The
+//  ordinal counts the elements of the phase that are fully written (nodes handed to the writer, or ways read).
+//  Concurrent relationship writers commit batches of ways out of order - committed ranges beyond the ordinal are kept
+//  as [first, last] ordinal pairs and skipped on resume.
+public class LoadCheckpoint {
+
+  public static final String PHASE_NODES = "nodes";
+  public static final String PHASE_WAYS = "ways";
+
+  private final String action;
+  private final String source;
+  private final String phase;
+  private final long ordinal;
+  private final long osmId;
+  private final long[] committedRanges;
+
+  public LoadCheckpoint(String action, String source, String phase, long ordinal, long osmId) {
+    this(action, source, phase, ordinal, osmId, new long[0]);
+  }
+
+  public LoadCheckpoint(String action, String source, String phase, long ordinal, long osmId, long[] committedRanges) {
+    this.action = action;
+    this.source = source;
+    this.phase = phase;
+    this.ordinal = ordinal;
+    this.osmId = osmId;
+    this.committedRanges = committedRanges;
+  }
+
+  public String getAction() {
+    return this.action;
+  }
+
+  public String getSource() {
+    return this.source;
+  }
+
+  public String getPhase() {
+    return this.phase;
+  }
+
+  public long getOrdinal() {
+    return this.ordinal;
+  }
+
+  public long getOsmId() {
+    return this.osmId;
+  }
+
+  public long[] getCommittedRanges() {
+    return this.committedRanges;
+  }
+
+  @Override
+  public String toString() {
+    return this.action + " of " + this.source + " - " + this.ordinal + " " + this.phase + " loaded (last osm id " + this.osmId + ")"
+        + (this.committedRanges.length > 0 ? ", " + (this.committedRanges.length / 2) + " ranges committed beyond" : "");
+  }
+
+}
@@ -0,0 +1,176 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygonal;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+// Area and tag filters applied while streaming the source (see OsmSource) - elements they reject are dropped before
+//  any property, geometry or graph work. The area is a bounding box and/or polygon on node coordinates; ways are
+//  selected by their tags (in addition to the highway tag) and by their nodes' position relative to the area.
+public class LoadFilter {
+
+  private static final GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory( null );
+
+  private Envelope boundingBox;
+  private PreparedGeometry polygon;
+
+  // key -> accepted values (empty: any value)
+  private Map<String, Set<String>> includeTags = new LinkedHashMap<String, Set<String>>();
+  private Map<String, Set<String>> excludeTags = new LinkedHashMap<String, Set<String>>();
+
+  // ways crossing the area boundary - kept whole (nodes outside the area are loaded along with them), or clipped to
+  //  the runs of consecutive nodes inside the area
+  private boolean clipAtBoundary = false;
+
+  // "minLon,minLat,maxLon,maxLat"
+  public void setBoundingBox(String boundingBox) {
+    String[] values = boundingBox.split(",");
+    if (values.length != 4) throw new IllegalArgumentException("bounding box must be minLon,minLat,maxLon,maxLat: " + boundingBox);
+    double minLon = Double.parseDouble(values[0].trim());
+    double minLat = Double.parseDouble(values[1].trim());
+    double maxLon = Double.parseDouble(values[2].trim());
+    double maxLat = Double.parseDouble(values[3].trim());
+    if (minLon > maxLon || minLat > maxLat) throw new IllegalArgumentException("bounding box minimum exceeds maximum: " + boundingBox);
+    this.boundingBox = new Envelope(minLon, maxLon, minLat, maxLat);
+  }
+
+  // polygon file - Osmosis polygon format (.poly, as published with Geofabrik extracts) or WKT (Polygon/MultiPolygon)
+  public void setPolygon(Path polygonFile) throws IOException {
+    String content = new String(Files.readAllBytes(polygonFile), StandardCharsets.UTF_8);
+    Geometry geometry;
+    try {
+      geometry = polygonFile.toString().toLowerCase().endsWith(".poly") ? parsePoly(content) : new WKTReader(geometryFactory).read(content);
+    } catch (ParseException | RuntimeException e) {
+      throw new IllegalArgumentException("invalid polygon file " + polygonFile + ": " + e.getMessage(), e);
+    }
+    if (!(geometry instanceof Polygonal)) throw new IllegalArgumentException("polygon file must contain a Polygon or MultiPolygon: " + polygonFile);
+    this.polygon = PreparedGeometryFactory.prepare(geometry);
+  }
+
+  // "key=value1|value2,key2" - a way is loaded if it matches any of the expressions (a bare key matches any value)
+  public void setIncludeTags(String expressions) {
+    this.includeTags = parseTagExpressions(expressions);
+  }
+
+  // same format - a way matching any of the expressions is skipped
+  public void setExcludeTags(String expressions) {
+    this.excludeTags = parseTagExpressions(expressions);
+  }
+
+  public void setClipAtBoundary(boolean clipAtBoundary) {
+    this.clipAtBoundary = clipAtBoundary;
+  }
+
+  public boolean isClipAtBoundary() {
+    return this.clipAtBoundary;
+  }
+
+  public boolean hasArea() {
+    return this.boundingBox != null || this.polygon != null;
+  }
+
+  // true if the point is inside the area (boundary included) - always true without an area
+  public boolean containsPoint(double lon, double lat) {
+    if (this.boundingBox != null && !this.boundingBox.contains(lon, lat)) return false;
+    if (this.polygon == null) return true;
+    if (!this.polygon.getGeometry().getEnvelopeInternal().contains(lon, lat)) return false;
+    return this.polygon.covers(geometryFactory.createPoint(new Coordinate(lon, lat)));
+  }
+
+  public boolean acceptsTags(Map<String, String> tags) {
+    if (!this.includeTags.isEmpty() && !matchesAny(this.includeTags, tags)) return false;
+    return !matchesAny(this.excludeTags, tags);
+  }
+
+  @Override
+  public String toString() {
+    String area = !this.hasArea() ? "none" : this.boundingBox == null ? "polygon" : "bbox " + this.boundingBox + (this.polygon != null ? " and polygon" : "");
+    return "area: " + area + ", include: " + this.includeTags + ", exclude: " + this.excludeTags + ", boundary: " + (this.clipAtBoundary ? "clip" : "keep");
+  }
+
+  private static boolean matchesAny(Map<String, Set<String>> expressions, Map<String, String> tags) {
+    for (Map.Entry<String, Set<String>> expression : expressions.entrySet()) {
+      String value = tags.get(expression.getKey());
+      if (value != null && (expression.getValue().isEmpty() || expression.getValue().contains(value))) return true;
+    }
+    return false;
+  }
+
+  protected static Map<String, Set<String>> parseTagExpressions(String expressions) {
+    Map<String, Set<String>> parsedExpressions = new LinkedHashMap<String, Set<String>>();
+    for (String expression : expressions.split(",")) {
+      expression = expression.trim();
+      if (expression.isEmpty()) continue;
+      int separatorIndex = expression.indexOf('=');
+      String key = separatorIndex < 0 ? expression : expression.substring(0, separatorIndex).trim();
+      if (key.isEmpty()) throw new IllegalArgumentException("tag expression without key: " + expression);
+      Set<String> values = parsedExpressions.computeIfAbsent(key, k -> new HashSet<String>());
+      if (separatorIndex >= 0) {
+        for (String value : expression.substring(separatorIndex + 1).split("\\|")) {
+          if (!value.trim().isEmpty()) values.add(value.trim());
+        }
+      }
+    }
+    return parsedExpressions;
+  }
+
+  // Osmosis polygon format - a name line, then rings of "lon lat" lines each closed by END (rings named with a
+  //  leading "!" are holes), and a final END. https://wiki.openstreetmap.org/wiki/Osmosis/Polygon_Filter_File_Format
+  protected static Geometry parsePoly(String content) {
+
+    List<String> lines = new ArrayList<String>();
+    for (String line : content.split("\\r?\\n")) {
+      if (!line.trim().isEmpty()) lines.add(line.trim());
+    }
+
+    Geometry shells = geometryFactory.createPolygon();
+    Geometry holes = geometryFactory.createPolygon();
+
+    // first line is the polygon name
+    int lineIndex = 1;
+    while (lineIndex < lines.size() && !lines.get(lineIndex).equals("END")) {
+
+      boolean hole = lines.get(lineIndex).startsWith("!");
+      ++lineIndex;
+
+      List<Coordinate> coordinates = new ArrayList<Coordinate>();
+      while (lineIndex < lines.size() && !lines.get(lineIndex).equals("END")) {
+        String[] lonLat = lines.get(lineIndex).split("\\s+");
+        coordinates.add(new Coordinate(Double.parseDouble(lonLat[0]), Double.parseDouble(lonLat[1])));
+        ++lineIndex;
+      }
+      if (lineIndex == lines.size()) throw new IllegalArgumentException("ring without END");
+      ++lineIndex;
+
+      // rings are not necessarily closed in the file
+      if (!coordinates.isEmpty() && !coordinates.get(0).equals2D(coordinates.get(coordinates.size() - 1))) coordinates.add(coordinates.get(0));
+      Geometry ring = geometryFactory.createPolygon(coordinates.toArray(new Coordinate[0]));
+      if (hole) holes = holes.union(ring);
+      else shells = shells.union(ring);
+
+    }
+
+    if (shells.isEmpty()) throw new IllegalArgumentException("no rings found");
+    return shells.difference(holes);
+
+  }
+
+}
@@ -0,0 +1,234 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadPhaseEvent;
+import me.callsen.taylor.osm2graph_neo4j.metrics.TransformBatchEvent;
+
+// Staged load: a parser thread produces elements, a pool of transform workers turns batches of them into
+//  write-ready records (property maps, geometries), and the calling thread writes the records in source order.
+//  Stages are connected by a bounded queue, so a slow writer holds back parsing instead of buffering the file.
+//  With 0 transform threads all stages run inline on the calling thread.
+//  Time spent in each stage is recorded in LoadMetrics under "<phase>.parse/transform/write", along with the time
+//  the parser waited on a full queue ("<phase>.parse_wait" - writing is the bottleneck) and the time the writer
+//  waited for the next batch ("<phase>.write_wait" - parsing or transforming is the bottleneck).
+public class LoadPipeline<I, O> {
+
+  public interface IProducer<I> {
+    public void produce(Consumer<I> sink) throws Exception;
+  }
+
+  public interface ITransform<I, O> {
+    public O transform(I input) throws Exception;
+  }
+
+  public interface IWriter<O> {
+    public void write(O output) throws Exception;
+  }
+
+  private static final int BATCH_SIZE = 256;
+
+  // marks the end of the produced batches
+  private final Future<List<O>> endOfInput = CompletableFuture.completedFuture(null);
+
+  private final String phase;
+  private final int transformThreads;
+  private final int maxPendingBatches;
+
+  private final LoadMetrics.Timer parseTimer;
+  private final LoadMetrics.Timer parseWaitTimer;
+  private final LoadMetrics.Timer transformTimer;
+  private final LoadMetrics.Timer writeTimer;
+  private final LoadMetrics.Timer writeWaitTimer;
+
+  public LoadPipeline(String phase, int transformThreads) {
+    this.phase = phase;
+    this.transformThreads = Math.max(0, transformThreads);
+    this.maxPendingBatches = Math.max(1, this.transformThreads * 4);
+    LoadMetrics metrics = LoadMetrics.get();
+    this.parseTimer = metrics.timer(phase + ".parse");
+    this.parseWaitTimer = metrics.timer(phase + ".parse_wait");
+    this.transformTimer = metrics.timer(phase + ".transform");
+    this.writeTimer = metrics.timer(phase + ".write");
+    this.writeWaitTimer = metrics.timer(phase + ".write_wait");
+  }
+
+  public void run(IProducer<I> producer, ITransform<I, O> transform, IWriter<O> writer) throws Exception {
+
+    LoadPhaseEvent phaseEvent = new LoadPhaseEvent();
+    phaseEvent.begin();
+    long[] writtenCount = { 0 };
+
+    try {
+      if (this.transformThreads == 0) this.runInline(producer, transform, output -> {
+        writer.write(output);
+        ++writtenCount[0];
+      });
+      else this.runStaged(producer, transform, output -> {
+        writer.write(output);
+        ++writtenCount[0];
+      });
+    } finally {
+      phaseEvent.end();
+      if (phaseEvent.shouldCommit()) {
+        phaseEvent.phase = this.phase;
+        phaseEvent.elements = writtenCount[0];
+        phaseEvent.commit();
+      }
+    }
+
+  }
+
+  private void runInline(IProducer<I> producer, ITransform<I, O> transform, IWriter<O> writer) throws Exception {
+
+    // stages are interleaved - parse time is what remains of the total after transforms and writes
+    long[] stageNanos = { 0 };
+    long startNanos = System.nanoTime();
+
+    producer.produce(input -> {
+      try {
+        long transformStart = this.transformTimer.start();
+        O output = transform.transform(input);
+        stageNanos[0] += this.transformTimer.stop(transformStart);
+        if (output != null) {
+          long writeStart = this.writeTimer.start();
+          writer.write(output);
+          stageNanos[0] += this.writeTimer.stop(writeStart);
+        }
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+
+    this.parseTimer.record(System.nanoTime() - startNanos - stageNanos[0]);
+
+  }
+
+  private void runStaged(IProducer<I> producer, ITransform<I, O> transform, IWriter<O> writer) throws Exception {
+
+    ExecutorService transformPool = Executors.newFixedThreadPool(this.transformThreads, runnable -> {
+      Thread thread = new Thread(runnable, "osm-transform");
+      thread.setDaemon(true);
+      return thread;
+    });
+    BlockingQueue<Future<List<O>>> pendingBatches = new ArrayBlockingQueue<Future<List<O>>>(this.maxPendingBatches);
+    AtomicReference<Throwable> producerFailure = new AtomicReference<Throwable>();
+    AtomicBoolean writerFailed = new AtomicBoolean(false);
+
+    Thread parserThread = new Thread(() -> {
+      long startNanos = System.nanoTime();
+      long[] waitNanos = { 0 };
+      try {
+
+        List<List<I>> currentBatch = new ArrayList<List<I>>(List.of(new ArrayList<I>(BATCH_SIZE)));
+        producer.produce(input -> {
+          List<I> batch = currentBatch.get(0);
+          batch.add(input);
+          if (batch.size() >= BATCH_SIZE) {
+            waitNanos[0] += this.submitBatch(batch, transform, transformPool, pendingBatches);
+            currentBatch.set(0, new ArrayList<I>(BATCH_SIZE));
+          }
+        });
+        if (!currentBatch.get(0).isEmpty()) waitNanos[0] += this.submitBatch(currentBatch.get(0), transform, transformPool, pendingBatches);
+        this.parseTimer.record(System.nanoTime() - startNanos - waitNanos[0]);
+
+      } catch (Throwable t) {
+        producerFailure.set(t);
+      } finally {
+        // signal end of input - gives up once the writer has stopped consuming
+        try {
+          while (!writerFailed.get() && !pendingBatches.offer(this.endOfInput, 100, TimeUnit.MILLISECONDS)) { }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }, "osm-parser");
+    parserThread.setDaemon(true);
+    parserThread.start();
+
+    try {
+
+      while (true) {
+        long waitStart = this.writeWaitTimer.start();
+        Future<List<O>> batch = pendingBatches.take();
+        if (batch == this.endOfInput) break;
+        List<O> outputs = getBatch(batch);
+        this.writeWaitTimer.stop(waitStart);
+        for (O output : outputs) {
+          long writeStart = this.writeTimer.start();
+          writer.write(output);
+          this.writeTimer.stop(writeStart);
+        }
+      }
+
+      Throwable failure = producerFailure.get();
+      if (failure instanceof Exception) throw (Exception) failure;
+      if (failure != null) throw new IllegalStateException(failure);
+
+    } catch (Exception e) {
+      writerFailed.set(true);
+      parserThread.interrupt();
+      throw e;
+    } finally {
+      transformPool.shutdownNow();
+    }
+
+  }
+
+  // returns the nanos spent waiting for room in the queue
+  private long submitBatch(List<I> batch, ITransform<I, O> transform, ExecutorService transformPool, BlockingQueue<Future<List<O>>> pendingBatches) {
+    Future<List<O>> pendingBatch = transformPool.submit(() -> {
+      TransformBatchEvent batchEvent = new TransformBatchEvent();
+      batchEvent.begin();
+      List<O> outputs = new ArrayList<O>(batch.size());
+      for (I input : batch) {
+        long transformStart = this.transformTimer.start();
+        O output = transform.transform(input);
+        this.transformTimer.stop(transformStart);
+        if (output != null) outputs.add(output);
+      }
+      batchEvent.end();
+      if (batchEvent.shouldCommit()) {
+        batchEvent.phase = this.phase;
+        batchEvent.elements = batch.size();
+        batchEvent.commit();
+      }
+      return outputs;
+    });
+    try {
+      // blocks while the queue is full - backpressure towards the parser
+      long waitStart = this.parseWaitTimer.start();
+      pendingBatches.put(pendingBatch);
+      return this.parseWaitTimer.stop(waitStart);
+    } catch (InterruptedException e) {
+      pendingBatch.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("load pipeline interrupted", e);
+    }
+  }
+
+  private static <O> List<O> getBatch(Future<List<O>> batch) throws Exception {
+    try {
+      return batch.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+      throw e;
+    }
+  }
+
+}
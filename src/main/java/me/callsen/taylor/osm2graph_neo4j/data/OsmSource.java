@@ -1,217 +1,663 @@
 package me.callsen.taylor.osm2graph_neo4j.data;
 
-import java.io.StringWriter;
-
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.XML;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-
-import jlibs.xml.DefaultNamespaceContext;
-import jlibs.xml.sax.dog.NodeItem;
-import jlibs.xml.sax.dog.XMLDog;
-import jlibs.xml.sax.dog.expr.Expression;
-import jlibs.xml.sax.dog.expr.InstantEvaluationListener;
-import jlibs.xml.sax.dog.sniff.DOMBuilder;
-import jlibs.xml.sax.dog.sniff.Event;
-import me.callsen.taylor.osm2graph_neo4j.geo.GeomUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmChangeHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmChangeType;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmFileInput;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.MappedXmlOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.MergedOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.PbfOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.XmlOsmChangeReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.XmlOsmReader;
 import me.callsen.taylor.osm2graph_neo4j.geo.INodeShapeSource;
 import me.callsen.taylor.osm2graph_neo4j.geo.impl.GraphNodeShapeSource;
+import me.callsen.taylor.osm2graph_neo4j.geo.impl.MappedNodeShapeSource;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.util.LongBitSet;
 
 public class OsmSource {
 
-  protected InputSource osmInputSource;
+  protected IOsmReader osmReader;
 
+  // node coordinates captured during the node pass - used as the shape source for ways when available
+  protected MappedNodeShapeSource nodeShapeStore;
+
+  // topology simplification - only way endpoints and nodes shared between ways become graph nodes; the shape
+  //  points in between are collapsed into the relationship geometry
+  protected boolean simplifyTopology = false;
+
+  // compact relationships - one relationship per segment in way direction, carrying traversal flags derived from
+  //  oneway tags, instead of a forward and a backward copy
+  protected boolean compactRelationships = false;
+
+  // only load nodes referenced by highway ways - buildings, landuse, POIs etc. are skipped in the node pass
+  protected boolean referencedNodesOnly = false;
+
+  protected LongBitSet wayNodeIds; // all nodes referenced by highway ways
+  protected LongBitSet graphNodeIds; // subset of wayNodeIds materialized as graph nodes
+
+  // area / tag filters applied while reading - see filterWay()
+  protected LoadFilter loadFilter;
+  protected LongBitSet areaNodeIds; // nodes inside the filter area
+
+  // properties written for intersections and relationships - full (original) or compact schema
+  protected PropertySchema propertySchema = PropertySchema.FULL;
+
+  // worker threads building props and geometries between parsing and writing - 0 runs the load serially
+  protected int transformThreads = Runtime.getRuntime().availableProcessors();
+
+  // osmFilePath - a single file, or several comma separated files (e.g. adjacent regional extracts) that are read in
+  //  parallel and merged into one source, with elements contained in more than one file loaded once
   public OsmSource(String osmFilePath) {
-    osmInputSource = new InputSource(osmFilePath);
+
+    String[] osmFilePaths = osmFilePath.split(",");
+    if (osmFilePaths.length == 1) {
+      this.osmReader = createReader(osmFilePath);
+      return;
+    }
+
+    List<IOsmReader> readers = new ArrayList<IOsmReader>();
+    for (String path : osmFilePaths) {
+      IOsmReader reader = createReader(path);
+      if (reader instanceof XmlOsmChangeReader) throw new IllegalArgumentException("osmChange files can't be merged: " + path);
+      readers.add(reader);
+    }
+    this.osmReader = new MergedOsmReader(readers, Arrays.asList(osmFilePaths));
+
+  }
+
+  private static IOsmReader createReader(String osmFilePath) {
+    // select reader by file extension - PBF (e.g. Geofabrik .osm.pbf extracts), osmChange or XML; a .gz/.bz2 suffix
+    //  is decompressed while reading (see OsmFileInput). Uncompressed XML is memory mapped and scanned in parallel
+    String contentPath = OsmFileInput.getContentPath(osmFilePath).toLowerCase();
+    boolean compressed = contentPath.length() != osmFilePath.length();
+    if (contentPath.endsWith(".pbf")) return new PbfOsmReader(osmFilePath);
+    else if (contentPath.endsWith(".osc")) return new XmlOsmChangeReader(osmFilePath);
+    else if (!compressed) return new MappedXmlOsmReader(osmFilePath);
+    else return new XmlOsmReader(osmFilePath);
+  }
+
+  public void setSimplifyTopology(boolean simplifyTopology) {
+    this.simplifyTopology = simplifyTopology;
+  }
+
+  public void setCompactRelationships(boolean compactRelationships) {
+    this.compactRelationships = compactRelationships;
+  }
+
+  public void setReferencedNodesOnly(boolean referencedNodesOnly) {
+    this.referencedNodesOnly = referencedNodesOnly;
   }
 
-  public void loadNodesIntoDb(GraphDbLoader graphDbLoader) throws Exception {
+  public void setTransformThreads(int transformThreads) {
+    this.transformThreads = transformThreads;
+  }
+
+  public void setLoadFilter(LoadFilter loadFilter) {
+    this.loadFilter = loadFilter;
+  }
+
+  public void setPropertySchema(PropertySchema propertySchema) {
+    this.propertySchema = propertySchema;
+  }
+
+  // counting pass over the source (no filters, props or geometries) - sizes the bulk load profile
+  public BulkLoadProfile.InputSize scanInputSize() throws Exception {
+    BulkLoadProfile.InputSize inputSize = new BulkLoadProfile.InputSize();
+    this.osmReader.read(inputSize);
+    return inputSize;
+  }
+
+  public void loadNodesIntoDb(IGraphWriter graphWriter) throws Exception {
+    this.loadNodesIntoDb(graphWriter, 0);
+  }
+
+  // skipNodes - number of nodes already written by an interrupted load (see LoadCheckpoint); they are still read
+  //  to fill the coordinate store, but not written again
+  public void loadNodesIntoDb(IGraphWriter graphWriter, long skipNodes) throws Exception {
+
+    // both modes filter nodes against the highway node references - collected by a way-only pre-pass
+    boolean filterReferencedNodes = this.simplifyTopology || this.referencedNodesOnly;
+    // an area filter needs the nodes inside the area to select ways, and the selected ways to know which nodes
+    //  outside the area are needed (ways kept whole across the boundary) - two pre-passes
+    boolean filterArea = this.loadFilter != null && this.loadFilter.hasArea();
+    if (filterArea && this.areaNodeIds == null) this.scanAreaNodes();
+    if ((filterReferencedNodes || filterArea) && this.wayNodeIds == null) this.scanWayTopology();
 
     System.out.println("loading nodes into graph..");
 
-    // configure xpath query
-    XMLDog dog = new XMLDog( new DefaultNamespaceContext() );
-    dog.addXPath("/osm/node");
-    
-    // configure sniffer and execute query
-    Event event = dog.createEvent();
-    event.setXMLBuilder(new DOMBuilder());
-    
-    // declare event callback for when xpath node is hit
-    event.setListener(new InstantEvaluationListener(){
-      
-      // Initialize count of loaded nodes
-      long nodeLoadedCount = 0;
+    // (re)initialize off-heap coordinate store, filled as nodes are read
+    this.closeNodeShapeStore();
+    MappedNodeShapeSource nodeShapeStore = new MappedNodeShapeSource();
 
-      @Override
-      public void onNodeHit(Expression expression, NodeItem nodeItem){
-        
-        // marshal XML node to JSON Object
-        JSONObject rawNodeJsonObject = xmlNodeToJson( (Node)nodeItem.xml ).getJSONObject("node");
+    if (skipNodes > 0) System.out.println("skipping nodes already loaded: " + (skipNodes == Long.MAX_VALUE ? "all" : skipNodes));
 
-        // prepare osm item props for ingest into Neo4j (move id, flatten tags array)
-        JSONObject nodeJsonObject = assembleOsmItemProps(rawNodeJsonObject);
+    // progress is tracked in the run's metrics (reported periodically, see LoadProgressReporter)
+    LoadMetrics.Counter nodesRead = LoadMetrics.get().counter("nodes.read");
+    LoadMetrics.Counter nodesWritten = LoadMetrics.get().counter("nodes.written");
 
-        // write node to graph database; commit every 5000 nodes
-        graphDbLoader.createNode(nodeJsonObject);
+    // Initialize count of loaded nodes, and position in the nodes to be written (for checkpoints)
+    long[] nodeLoadedCount = { 0 };
+    long[] nodeOrdinal = { 0 };
 
-        // output load progress
-        ++nodeLoadedCount;
-        if ( nodeLoadedCount % 5000 == 0) System.out.println("loaded " + nodeLoadedCount + " nodes..");
+    new LoadPipeline<PendingNode, PendingNode>("nodes", this.transformThreads).run(
+
+      // parse - declare callback for when a node is read from the source; the coordinate store is filled in
+      //  source order here so it stays sorted
+      sink -> osmReader.read(new IOsmElementHandler(){
+
+        @Override
+        public void onNode(OsmNode node){
+
+          nodesRead.increment();
+
+          // skip nodes no highway uses, and nodes outside the area no way needs
+          if (filterReferencedNodes && !wayNodeIds.get(node.getId())) return;
+          if (filterArea && !areaNodeIds.get(node.getId()) && !wayNodeIds.get(node.getId())) return;
+          nodeShapeStore.add(node.getId(), node.getLon(), node.getLat());
+
+          // simplified topology - shape points only need their coordinates
+          if (simplifyTopology && !graphNodeIds.get(node.getId())) return;
+
+          if (++nodeOrdinal[0] <= skipNodes) return;
+          sink.accept(new PendingNode(nodeOrdinal[0], node));
+
+        }
+
+        @Override
+        public boolean wantsWays() {
+          return false;
+        }
+
+      }),
+
+      // transform - prepare osm item props for ingest into Neo4j (move id, flatten tags)
+      pendingNode -> {
+        pendingNode.props = this.propertySchema.assembleNodeProps(pendingNode.node);
+        return pendingNode;
+      },
+
+      // write - node to graph database (committed in batches by the writer)
+      pendingNode -> {
+
+        graphWriter.createNode(pendingNode.node, pendingNode.props);
+        if (graphWriter instanceof GraphDbLoader) ((GraphDbLoader) graphWriter).markElementWritten(LoadCheckpoint.PHASE_NODES, pendingNode.ordinal, pendingNode.node.getId());
+
+        ++nodeLoadedCount[0];
+        nodesWritten.increment();
 
       }
 
-      // not using these functions at the moment but must be overridden
-      @Override
-      public void finishedNodeSet(Expression expression){ }
-      @Override
-      public void onResult(Expression expression, Object result){ }
+    );
 
-    });		
-    
-    // kick off dog sniffer
-    dog.sniff(event, this.osmInputSource, false);
+    nodeShapeStore.seal();
+    this.nodeShapeStore = nodeShapeStore;
+
+    System.out.println("finished loading nodes into graph - " + nodeLoadedCount[0] + " nodes");
 
-    System.out.println("finished loading nodes into graph");
+  }
 
+  public void loadWaysIntoGraph(IGraphWriter graphWriter) throws Exception {
+    this.loadWaysIntoGraph(graphWriter, 0, new long[0]);
   }
 
-  public void loadWaysIntoGraph(GraphDbLoader graphDbLoader) throws Exception {
+  // skipWays - number of ways already read by an interrupted load (see LoadCheckpoint); skipped by the reader.
+  //  skipRanges - [first, last] ordinal pairs beyond skipWays committed by concurrent relationship writers
+  public void loadWaysIntoGraph(IGraphWriter graphWriter, long skipWays, long[] skipRanges) throws Exception {
     
+    // shape points of a simplified topology only exist in the coordinate store filled by the node pass
+    if (this.simplifyTopology && this.nodeShapeStore == null) throw new IllegalStateException("simplified topology requires nodes to be loaded in the same run");
+
     System.out.println("loading ways into graph..");
 
-    // configure xpath query - only include ways tagged as highways
-    XMLDog dog = new XMLDog(new DefaultNamespaceContext());
-    dog.addXPath("/osm/way[tag/@k = 'highway']");
-    
-    // configure sniffer and execute query
-    Event event = dog.createEvent();
-    event.setXMLBuilder(new DOMBuilder());
-    
-    // configure GraphNodeShapeSource to use a source for Node longitutate and latitute
+    // configure source for Node longitutate and latitute - prefer coordinates captured during the node pass,
+    //  otherwise fall back to querying the graph (e.g. when loadways is executed on its own)
+    INodeShapeSource nodeShapeSource;
+    if (this.nodeShapeStore != null) nodeShapeSource = this.nodeShapeStore;
+    else if (graphWriter instanceof GraphDbLoader) nodeShapeSource = new GraphNodeShapeSource((GraphDbLoader) graphWriter);
+    else throw new IllegalStateException("node coordinates unavailable - nodes must be loaded before ways");
+
+    // way selection depends on the nodes inside the filter area (not yet known when loadways runs on its own)
+    if (this.loadFilter != null && this.loadFilter.hasArea() && this.areaNodeIds == null) this.scanAreaNodes();
+
+    if (skipWays > 0) System.out.println("skipping ways already loaded: " + skipWays);
+    if (skipRanges.length > 0) System.out.println("skipping way ranges already loaded: " + (skipRanges.length / 2));
+
+    // road relationships written on a pool of writers (if configured) from here on
+    if (graphWriter instanceof GraphDbLoader) ((GraphDbLoader) graphWriter).startRelationshipWriters(skipWays, skipRanges);
+
+    LoadMetrics.Counter waysRead = LoadMetrics.get().counter("ways.read");
+    LoadMetrics.Counter waysWritten = LoadMetrics.get().counter("ways.written");
+    LoadMetrics.Counter segmentsWritten = LoadMetrics.get().counter("segments.written");
+
+    // Initialize count of loaded ways, and position in the ways read (for checkpoints)
+    long[] wayLoadedCount = { 0 };
+    long[] wayOrdinal = { skipWays };
+
+    new LoadPipeline<PendingWay, PendingWay>("ways", this.transformThreads).run(
+
+      // parse - declare callback for when a way is read from the source
+      sink -> osmReader.read(new IOsmElementHandler(){
+
+        @Override
+        public void onWay(OsmWay way) {
+
+          ++wayOrdinal[0];
+          waysRead.increment();
+          if (skipRanges.length > 0 && isInRanges(wayOrdinal[0], skipRanges)) return;
+
+          // only include ways tagged as highways (and accepted by the load filter)
+          List<OsmWay> wayPieces = filterWay(way);
+          if (!wayPieces.isEmpty()) sink.accept(new PendingWay(wayOrdinal[0], way, wayPieces));
+
+        }
+
+        @Override
+        public boolean wantsNodes() {
+          return false;
+        }
+
+      }, skipWays),
+
+      // transform - split way into segments and build their geometries
+      pendingWay -> {
+        pendingWay.segments = new ArrayList<PendingSegment>();
+        for (OsmWay wayPiece : pendingWay.pieces) pendingWay.segments.addAll(assembleWaySegments(wayPiece, nodeShapeSource));
+        return pendingWay;
+      },
+
+      // write - both directions of every segment
+      pendingWay -> {
+
+        for (PendingSegment segment : pendingWay.segments) {
+          graphWriter.createRelationship(segment.props, segment.startOsmId, segment.endOsmId);
+        }
+        if (graphWriter instanceof GraphDbLoader) ((GraphDbLoader) graphWriter).markElementWritten(LoadCheckpoint.PHASE_WAYS, pendingWay.ordinal, pendingWay.way.getId());
+
+        ++wayLoadedCount[0];
+        waysWritten.increment();
+        segmentsWritten.add(pendingWay.segments.size());
+
+      }
+
+    );
+
+    System.out.println("finished loading ways into graph - " + wayLoadedCount[0] + " ways");
+
+  }
+  
+  private static boolean isInRanges(long ordinal, long[] ranges) {
+    for (int i = 0; i < ranges.length; i += 2) {
+      if (ordinal >= ranges[i] && ordinal <= ranges[i + 1]) return true;
+    }
+    return false;
+  }
+
+  // continues an interrupted load from the checkpoint stored in the graph - committed nodes are only read for their
+  //  coordinates, committed ways are skipped by the reader. Returns false if there is no checkpoint to resume from.
+  public boolean resumeLoadIntoGraph(GraphDbLoader graphDbLoader, String source) throws Exception {
+
+    LoadCheckpoint checkpoint = graphDbLoader.readCheckpoint();
+    if (checkpoint == null) return false;
+    if (!checkpoint.getSource().equals(source)) throw new IllegalStateException("checkpoint belongs to a load of " + checkpoint.getSource());
+
+    System.out.println("resuming " + checkpoint);
+    graphDbLoader.enableCheckpoints(checkpoint.getAction(), source);
+
+    boolean waysPhase = checkpoint.getPhase().equals(LoadCheckpoint.PHASE_WAYS);
+    if (!checkpoint.getAction().equals("loadways")) {
+      this.loadNodesIntoDb(graphDbLoader, waysPhase ? Long.MAX_VALUE : checkpoint.getOrdinal());
+    }
+    if (!checkpoint.getAction().equals("loadnodes")) {
+      // node ids of the interrupted run were never cached in this one - without indexes, the cache is the only lookup
+      if (waysPhase || (graphDbLoader.isDeferringIndexes() && checkpoint.getOrdinal() > 0)) graphDbLoader.rebuildNodeIdCache();
+      this.loadWaysIntoGraph(graphDbLoader, waysPhase ? checkpoint.getOrdinal() : 0, waysPhase ? checkpoint.getCommittedRanges() : new long[0]);
+    }
+
+    graphDbLoader.flush();
+    graphDbLoader.clearCheckpoint();
+    return true;
+
+  }
+
+  // runs on the transform workers - every relationship gets its own props map since segments are written later
+  protected List<PendingSegment> assembleWaySegments(OsmWay way, INodeShapeSource nodeShapeSource) {
+
+    // retrieve list of nodes that comprise way
+    long[] wayNodeRefs = way.getNodeRefs();
+
+    // assemble way properties object from any XML properties - copied for each relationship below
+    Map<String, Object> wayProps = this.propertySchema.assembleOsmItemProps(way);
+
+    List<PendingSegment> segments = new ArrayList<PendingSegment>();
+    boolean[] traversalFlags = this.compactRelationships ? getTraversalFlags(way) : null;
+
+    // segments run between consecutive graph nodes - every node normally, only shared nodes and
+    //  endpoints when the topology is simplified
+    int segmentStartIndex = 0;
+    for (int nodeIndex = 1; nodeIndex < wayNodeRefs.length; ++nodeIndex) {
+
+      if (simplifyTopology && nodeIndex < wayNodeRefs.length - 1 && !graphNodeIds.get(wayNodeRefs[nodeIndex])) continue;
+
+      // create two-way way representation in graph since both directions are walkable
+      //	- normally this is where one-way enforcement would take place
+
+      long wayStarOsmId = wayNodeRefs[nodeIndex];
+      long wayEndOsmId = wayNodeRefs[segmentStartIndex];
+
+      // compact - single relationship in way direction; readers reverse the geometry when traversing it backwards
+      if (this.compactRelationships) {
+        Map<String, Object> segmentProps = new HashMap<String, Object>(wayProps);
+        if (this.propertySchema.setWayGeometry(nodeShapeSource, segmentProps, wayNodeRefs, segmentStartIndex, nodeIndex )) {
+          segmentProps.put("forward_allowed", traversalFlags[0]);
+          segmentProps.put("backward_allowed", traversalFlags[1]);
+          segments.add(new PendingSegment(segmentProps, wayEndOsmId, wayStarOsmId));
+        }
+        segmentStartIndex = nodeIndex;
+        continue;
+      }
+
+      // forward
+
+      //  (skip segment if geometry unavailable - endpoint nodes are missing, so no relationship can be created)
+      Map<String, Object> forwardProps = new HashMap<String, Object>(wayProps);
+      if (this.propertySchema.setWayGeometry(nodeShapeSource, forwardProps, wayNodeRefs, nodeIndex, segmentStartIndex )) {
+        segments.add(new PendingSegment(forwardProps, wayStarOsmId, wayEndOsmId));
+
+        // backward - flip the start and stop Nodes to create the same relationship in the other direction (Neo4j does not support bi-directional relationships)
+
+        Map<String, Object> backwardProps = new HashMap<String, Object>(wayProps);
+        this.propertySchema.setWayGeometry(nodeShapeSource, backwardProps, wayNodeRefs, segmentStartIndex , nodeIndex );
+        segments.add(new PendingSegment(backwardProps, wayEndOsmId, wayStarOsmId));
+      }
+
+      segmentStartIndex = nodeIndex;
+
+    }
+
+    return segments;
+
+  }
+
+  // applies an osmChange file to a graph loaded earlier (default topology) - intersections are upserted/deleted by
+  //  osm_id, relationships of changed ways are rebuilt, and relationships of untouched ways whose nodes moved get
+  //  their geometry recomputed. All writes go through the loader's batched shared transaction.
+  public void applyChangesToGraph(GraphDbLoader graphDbLoader) throws Exception {
+
+    if (!(this.osmReader instanceof XmlOsmChangeReader)) throw new IllegalStateException("applying changes requires an osmChange (.osc) source");
+    if (this.simplifyTopology) throw new IllegalStateException("changes can't be applied to a simplified topology");
+    if (this.loadFilter != null) throw new IllegalStateException("load filters can't be applied to changes");
+    XmlOsmChangeReader changeReader = (XmlOsmChangeReader) this.osmReader;
+
+    graphDbLoader.createChangeIndexes();
+
+    System.out.println("applying node changes to graph..");
+
+    // deletes are deferred until the ways that referenced the nodes are rebuilt
+    Set<Long> movedNodeIds = new HashSet<Long>();
+    Set<Long> deletedNodeIds = new HashSet<Long>();
+
+    LoadMetrics.Counter nodeChanges = LoadMetrics.get().counter("changes.nodes");
+    LoadMetrics.Counter wayChanges = LoadMetrics.get().counter("changes.ways");
+
+    changeReader.readChanges(new IOsmChangeHandler(){
+
+      @Override
+      public void onNode(OsmChangeType changeType, OsmNode node) {
+
+        if (changeType == OsmChangeType.DELETE) deletedNodeIds.add(node.getId());
+        else if (graphDbLoader.upsertNode(node, propertySchema.assembleNodeProps(node))) movedNodeIds.add(node.getId());
+
+        nodeChanges.increment();
+
+      }
+
+      @Override
+      public boolean wantsWays() {
+        return false;
+      }
+
+    });
+
+    // way geometries are resolved through separate transactions - node changes must be visible to them
+    graphDbLoader.flush();
     INodeShapeSource nodeShapeSource = new GraphNodeShapeSource(graphDbLoader);
 
-    // declare event callback for when xpath is hit
-    event.setListener(new InstantEvaluationListener(){
-      
-      // Initialize count of loaded ways
-      long wayLoadedCount = 0;
-      
+    System.out.println("applying way changes to graph..");
+
+    Set<Long> rebuiltWayIds = new HashSet<Long>();
+
+    changeReader.readChanges(new IOsmChangeHandler(){
+
       @Override
-      public void onNodeHit(Expression expression, NodeItem wayItem) {
-          
-        // marshal XML way to JSON Object
-        JSONObject rawWayJsonObject = xmlNodeToJson( (Node)wayItem.xml ).getJSONObject("way");
-        
-        // retrieve list of nodes that comprise way
-        JSONArray wayNodesList = rawWayJsonObject.optJSONArray("nd");
-        if (wayNodesList == null) return; //skip if nodes not supplied or singular (we can't create a road here anyways)
-        
-        // assemble way properties object from any XML properties - shared/overwritten in all iterations of for loop below
-        JSONObject wayPropsObject = assembleOsmItemProps(rawWayJsonObject);
-        
-        for (int nodeIndex = 1; nodeIndex < wayNodesList.length(); ++nodeIndex) {
-          
-          // create two-way way representation in graph since both directions are walkable
-          //	- normally this is where one-way enforcement would take place
-          
-          long wayStarOsmId = wayNodesList.getJSONObject(nodeIndex).getLong("ref");
-          long wayEndOsmId = wayNodesList.getJSONObject(nodeIndex - 1).getLong("ref");
-          
-          // forward
-          
-          GeomUtil.setWayGeometry(nodeShapeSource, wayPropsObject, wayNodesList, nodeIndex, nodeIndex - 1 );
-          graphDbLoader.createRelationship(wayPropsObject, wayStarOsmId, wayEndOsmId);
-          
-          // backward - flip the start and stop Nodes to create the same relationship in the other direction (Neo4j does not support bi-directional relationships)
-          
-          GeomUtil.setWayGeometry(nodeShapeSource, wayPropsObject, wayNodesList, nodeIndex - 1 , nodeIndex );
-          graphDbLoader.createRelationship(wayPropsObject, wayEndOsmId, wayStarOsmId);
-        
+      public void onWay(OsmChangeType changeType, OsmWay way) {
+
+        // ways are rebuilt from scratch - previous relationships go, new ones are created from the new version
+        graphDbLoader.deleteWayRelationships(way.getId());
+        rebuiltWayIds.add(way.getId());
+
+        if (changeType != OsmChangeType.DELETE && way.hasTag("highway") && way.getNodeRefs().length >= 2) {
+          for (PendingSegment segment : assembleWaySegments(way, nodeShapeSource)) {
+            graphDbLoader.createRelationship(segment.props, segment.startOsmId, segment.endOsmId);
+          }
         }
 
-        // output load progress
-        ++wayLoadedCount;
-        if ( wayLoadedCount % 500 == 0) System.out.println("loaded " + wayLoadedCount + " ways..");
+        wayChanges.increment();
 
       }
 
-      // not using these functions at the moment but must be overridden
       @Override
-      public void finishedNodeSet(Expression expression){ }
-      @Override
-      public void onResult(Expression expression, Object result){ }
+      public boolean wantsNodes() {
+        return false;
+      }
 
-    });		
-    
-    //kick off dog sniffer
-    dog.sniff(event, this.osmInputSource, false);
+    });
 
-    System.out.println("finished loading ways into graph");
+    // moved nodes of ways that did not change themselves
+    long refreshedCount = 0;
+    for (long movedNodeId : movedNodeIds) refreshedCount += graphDbLoader.refreshRelationshipGeometries(movedNodeId, rebuiltWayIds, nodeShapeSource);
+
+    for (long deletedNodeId : deletedNodeIds) graphDbLoader.deleteNode(deletedNodeId);
+
+    System.out.println("finished applying changes to graph - " + rebuiltWayIds.size() + " ways rebuilt, " + movedNodeIds.size() + " nodes moved ("
+        + refreshedCount + " relationship geometries refreshed), " + deletedNodeIds.size() + " nodes deleted");
 
   }
 
-  // surely taken from stackoverflow
-  public static JSONObject xmlNodeToJson(Node node) {
-    
-    // convert XML node to string
-    StringWriter sw = new StringWriter();
-    Transformer xmlT;
-    try {
-      xmlT = TransformerFactory.newInstance().newTransformer();
-      xmlT.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-      xmlT.setOutputProperty(OutputKeys.INDENT, "yes");
-      xmlT.transform(new DOMSource(node), new StreamResult(sw));
-    } catch (TransformerException te) {
-      System.out.println("error parsing Node XML to JSON");
+  // { forward allowed, backward allowed } relative to the way's node order - per OSM oneway conventions: "yes",
+  //  "true" and "1" are forward only, "-1" and "reverse" backward only; motorways and roundabouts are implicitly
+  //  oneway unless tagged "oneway=no"
+  protected static boolean[] getTraversalFlags(OsmWay way) {
+
+    String oneway = way.getTags().get("oneway");
+    if (oneway == null) {
+      boolean impliedOneway = "motorway".equals(way.getTags().get("highway")) || "roundabout".equals(way.getTags().get("junction"));
+      return new boolean[] { true, !impliedOneway };
     }
-    String xmlNodeString = sw.toString();
-    
-    // parse string representation into JSONObject and return
-    return XML.toJSONObject( xmlNodeString );
-    
+
+    switch (oneway) {
+      case "yes": case "true": case "1": return new boolean[] { true, false };
+      case "-1": case "reverse": return new boolean[] { false, true };
+      default: return new boolean[] { true, true }; // "no", and conditional values such as "reversible" or "alternating"
+    }
+
   }
-  
-  public static JSONObject assembleOsmItemProps(JSONObject osmItem) {
-    
-    // create props object based on props of original item
-    JSONObject propsObject = new JSONObject(osmItem, JSONObject.getNames(osmItem));
-
-    // tags - move from nested tag array and place as propreties directly on node 
-    if (osmItem.has("tag")) {
-      JSONArray tagsArray = osmItem.optJSONArray("tag");
-      if (tagsArray != null) {
-        // handle tags property as a JSONArray
-        for (int i = 0; i < tagsArray.length(); i++) {
-          JSONObject prop = tagsArray.getJSONObject(i);
-          propsObject.put(prop.getString("k"), prop.get("v"));
+
+  // pre-pass over highway ways - collects the referenced node ids, and counts references to find the nodes that
+  //  become graph nodes of a simplified topology. OSM sources list ways after all nodes, so this can't share the
+  //  node pass's read; node records are skipped undecoded instead
+  protected void scanWayTopology() throws Exception {
+
+    System.out.println("scanning way topology..");
+
+    LongBitSet wayNodeIds = new LongBitSet();
+    LongBitSet graphNodeIds = new LongBitSet();
+
+    osmReader.read(new IOsmElementHandler(){
+
+      @Override
+      public void onWay(OsmWay way) {
+
+        for (OsmWay wayPiece : filterWay(way)) {
+
+          long[] wayNodeRefs = wayPiece.getNodeRefs();
+
+          // way endpoints always become graph nodes
+          graphNodeIds.set(wayNodeRefs[0]);
+          graphNodeIds.set(wayNodeRefs[wayNodeRefs.length - 1]);
+
+          // any node referenced a second time (by another way, or by the same way in a loop) is an intersection
+          for (long wayNodeRef : wayNodeRefs) {
+            if (!wayNodeIds.set(wayNodeRef)) graphNodeIds.set(wayNodeRef);
+          }
+
         }
-      } else {
-        // if fails, handle tag property as a JSONObject
-        JSONObject tagObject = osmItem.getJSONObject("tag");
-        propsObject.put(tagObject.getString("k"), tagObject.get("v"));
+
+      }
+
+      @Override
+      public boolean wantsNodes() {
+        return false;
+      }
+
+    });
+
+    this.wayNodeIds = wayNodeIds;
+    this.graphNodeIds = graphNodeIds;
+
+    System.out.println("finished scanning way topology - " + graphNodeIds.cardinality() + " of " + wayNodeIds.cardinality() + " way nodes are graph nodes");
+
+  }
+
+  // pre-pass over the nodes - collects the ids of nodes inside the load filter's area (ways are skipped undecoded)
+  protected void scanAreaNodes() throws Exception {
+
+    System.out.println("scanning nodes inside load area..");
+
+    LongBitSet areaNodeIds = new LongBitSet();
+    long[] nodeCount = { 0 };
+
+    osmReader.read(new IOsmElementHandler(){
+
+      @Override
+      public void onNode(OsmNode node) {
+        ++nodeCount[0];
+        if (loadFilter.containsPoint(node.getLon(), node.getLat())) areaNodeIds.set(node.getId());
+      }
+
+      @Override
+      public boolean wantsWays() {
+        return false;
+      }
+
+    });
+
+    this.areaNodeIds = areaNodeIds;
+
+    System.out.println("finished scanning nodes inside load area - " + areaNodeIds.cardinality() + " of " + nodeCount[0] + " nodes are inside");
+
+  }
+
+  // the way(s) to load for a source way - none for ways without highway tag or fewer than 2 nodes (we can't create a
+  //  road there anyways), rejected by the tag filter, or without nodes inside the filter area. Ways crossing the area
+  //  boundary are kept whole, or clipped to their runs of 2+ consecutive nodes inside the area - each run becomes a
+  //  way of its own (same id and tags).
+  protected List<OsmWay> filterWay(OsmWay way) {
+
+    long[] wayNodeRefs = way.getNodeRefs();
+    if (!way.hasTag("highway") || wayNodeRefs.length < 2) return List.of();
+    if (this.loadFilter == null) return List.of(way);
+    if (!this.loadFilter.acceptsTags(way.getTags())) return List.of();
+    if (this.areaNodeIds == null) return List.of(way);
+
+    if (!this.loadFilter.isClipAtBoundary()) {
+      for (long wayNodeRef : wayNodeRefs) {
+        if (this.areaNodeIds.get(wayNodeRef)) return List.of(way);
       }
+      return List.of();
     }
-    
-    // move osm id to osm_id prop (so doesn't conflict with neo4j id)		
-    propsObject.put("osm_id", osmItem.get("id"));
+
+    List<OsmWay> wayPieces = new ArrayList<OsmWay>(1);
+    int runStart = 0;
+    for (int nodeIndex = 0; nodeIndex <= wayNodeRefs.length; ++nodeIndex) {
+      if (nodeIndex < wayNodeRefs.length && this.areaNodeIds.get(wayNodeRefs[nodeIndex])) continue;
+      // run of inside nodes ends before nodeIndex
+      if (nodeIndex - runStart >= 2) {
+        if (runStart == 0 && nodeIndex == wayNodeRefs.length) return List.of(way);
+        wayPieces.add(new OsmWay(way.getId(), Arrays.copyOfRange(wayNodeRefs, runStart, nodeIndex), way.getAttributes(), way.getTags()));
+      }
+      runStart = nodeIndex + 1;
+    }
+    return wayPieces;
+
+  }
+
+  public void closeNodeShapeStore() throws Exception {
+    if (this.nodeShapeStore == null) return;
+    this.nodeShapeStore.close();
+    this.nodeShapeStore = null;
+  }
   
-    // remove tags, id, and other non-needed props
-    propsObject.remove("tag");
-    propsObject.remove("id");
-    propsObject.remove("nd");
+  // flattened attributes and tags of the full schema - see PropertySchema
+  public static Map<String, Object> assembleOsmItemProps(OsmElement osmItem) {
+    return PropertySchema.FULL.assembleOsmItemProps(osmItem);
+  }
+
+  // node on its way through the load pipeline - props are assembled off the writer thread
+  protected static class PendingNode {
+
+    final long ordinal;
+    final OsmNode node;
+    Map<String, Object> props;
+
+    PendingNode(long ordinal, OsmNode node) {
+      this.ordinal = ordinal;
+      this.node = node;
+    }
+
+  }
+
+  // way on its way through the load pipeline - segments are assembled off the writer thread
+  protected static class PendingWay {
+
+    final long ordinal;
+    final OsmWay way;
+    final List<OsmWay> pieces; // way as loaded - the way itself, or its pieces inside the filter area
+    List<PendingSegment> segments;
+
+    PendingWay(long ordinal, OsmWay way, List<OsmWay> pieces) {
+      this.ordinal = ordinal;
+      this.way = way;
+      this.pieces = pieces;
+    }
+
+  }
+
+  // one direction of a way segment ready to be written
+  protected static class PendingSegment {
+
+    final Map<String, Object> props;
+    final long startOsmId;
+    final long endOsmId;
+
+    PendingSegment(Map<String, Object> props, long startOsmId, long endOsmId) {
+      this.props = props;
+      this.startOsmId = startOsmId;
+      this.endOsmId = endOsmId;
+    }
 
-    return propsObject;
-    
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.json.XML;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.geo.GeomUtil;
+import me.callsen.taylor.osm2graph_neo4j.geo.INodeShapeSource;
+
+// Properties written for intersections and road relationships (see OsmSource). The full schema is the original one:
+//  lat/lon (floats), geom_wkt and the relationship's way WKT and refOsmNodes JSON next to the geom points. The
+//  compact schema drops those copies - geom holds the coordinates at full precision, refOsmNodes is a long[] - and
+//  parses numeric road tags into numbers. Metadata attributes (version, timestamp, changeset, user, uid) are optional
+//  in either schema.
+public class PropertySchema {
+
+  public static final PropertySchema FULL = new PropertySchema(false, true);
+
+  private static final Set<String> METADATA_ATTRIBUTES = Set.of("version", "timestamp", "changeset", "user", "uid", "visible");
+
+  // coordinates are in the geom point of the compact schema
+  private static final Set<String> COORDINATE_ATTRIBUTES = Set.of("lat", "lon");
+
+  // plain decimal number - Double.parseDouble alone also accepts "50f", "0x1p5", "NaN", "Infinity" ..
+  private static final Pattern DECIMAL_PATTERN = Pattern.compile("[0-9]+(\\.[0-9]+)?");
+  // unsigned count - Integer.valueOf alone also accepts "-1", "+2"
+  private static final Pattern COUNT_PATTERN = Pattern.compile("[0-9]+");
+
+  private static final double KMH_PER_MPH = 1.609344;
+  private static final double KMH_PER_KNOT = 1.852;
+  private static final double METERS_PER_FOOT = 0.3048;
+
+  private final boolean compact;
+  private final boolean includeMetadata;
+
+  public PropertySchema(boolean compact, boolean includeMetadata) {
+    this.compact = compact;
+    this.includeMetadata = includeMetadata;
+  }
+
+  public boolean isCompact() {
+    return this.compact;
+  }
+
+  public boolean isIncludeMetadata() {
+    return this.includeMetadata;
+  }
+
+  // intersection props - runs on the transform workers, so the writer only copies them onto the node (and adds geom)
+  public Map<String, Object> assembleNodeProps(OsmNode osmNode) {
+    Map<String, Object> propsObject = this.assembleOsmItemProps(osmNode);
+    if (!this.compact) propsObject.put("geom_wkt", "POINT(" + osmNode.getLon() + " " + osmNode.getLat() + ")");
+    return propsObject;
+  }
+
+  // sets the segment geometry props in this schema's form - see GeomUtil.setWayGeometry()
+  public boolean setWayGeometry(INodeShapeSource nodeShapeSource, Map<String, Object> wayPropsObject, long[] wayNodeRefs, int wayStartIndex, int wayEndIndex) {
+    return GeomUtil.setWayGeometry(nodeShapeSource, wayPropsObject, wayNodeRefs, wayStartIndex, wayEndIndex, this.compact);
+  }
+
+  public Map<String, Object> assembleOsmItemProps(OsmElement osmItem) {
+
+    // create props object based on attributes of original item - raw values are coerced the same way
+    //  org.json's XML conversion did previously (e.g. "1" -> Integer, "37.75" -> BigDecimal, "yes" -> String)
+    Map<String, Object> propsObject = new HashMap<String, Object>();
+    for (Map.Entry<String, String> attribute : osmItem.getAttributes().entrySet()) {
+      if (!this.includeMetadata && METADATA_ATTRIBUTES.contains(attribute.getKey())) continue;
+      if (this.compact && COORDINATE_ATTRIBUTES.contains(attribute.getKey())) continue;
+      propsObject.put(attribute.getKey(), XML.stringToValue(attribute.getValue()));
+    }
+
+    // tags - move from nested tag list and place as propreties directly on node
+    for (Map.Entry<String, String> tag : osmItem.getTags().entrySet()) {
+      Object value = this.compact ? parseNumericTag(tag.getKey(), tag.getValue()) : null;
+      propsObject.put(tag.getKey(), value != null ? value : XML.stringToValue(tag.getValue()));
+    }
+
+    // move osm id to osm_id prop (so doesn't conflict with neo4j id)
+    propsObject.put("osm_id", XML.stringToValue(osmItem.getAttributes().get("id")));
+
+    // remove tags, id, and other non-needed props
+    propsObject.remove("tag");
+    propsObject.remove("id");
+    propsObject.remove("nd");
+
+    return propsObject;
+
+  }
+
+  // numeric road tags with units normalized - maxspeed in km/h (Double), width in meters (Double), lanes (Integer).
+  //  Returns null for other tags (stored like any other tag). Values that aren't a single plain number (e.g. "none",
+  //  "signals", "2;3", "-1") stay strings - not coerced like other tags, so the property has one numeric type
+  protected static Object parseNumericTag(String key, String value) {
+    try {
+      switch (key) {
+        case "lanes":
+          String lanes = value.trim();
+          if (!COUNT_PATTERN.matcher(lanes).matches()) throw new NumberFormatException("not a lane count: " + value);
+          return Integer.valueOf(lanes);
+        case "maxspeed":
+          return parseQuantity(value, new String[] { "km/h", "kmh", "kph", "mph", "knots" }, new double[] { 1, 1, 1, KMH_PER_MPH, KMH_PER_KNOT });
+        case "width":
+          return parseQuantity(value, new String[] { "m", "ft" }, new double[] { 1, METERS_PER_FOOT });
+        default:
+          return null;
+      }
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+  // "50", "50 mph", "3.5m" - number with an optional unit (first unit is the default)
+  private static Double parseQuantity(String value, String[] units, double[] factors) {
+    String quantity = value.trim().toLowerCase();
+    double factor = factors[0];
+    for (int i = 0; i < units.length; ++i) {
+      if (quantity.endsWith(units[i])) {
+        quantity = quantity.substring(0, quantity.length() - units[i].length()).trim();
+        factor = factors[i];
+        break;
+      }
+    }
+    if (!DECIMAL_PATTERN.matcher(quantity).matches()) throw new NumberFormatException("not a decimal number: " + value);
+    double number = Double.parseDouble(quantity) * factor;
+    if (!Double.isFinite(number)) throw new NumberFormatException("not a finite number: " + value);
+    return number;
+  }
+
+  @Override
+  public String toString() {
+    return (this.compact ? "compact" : "full") + (this.includeMetadata ? "" : " (no metadata)");
+  }
+
+}
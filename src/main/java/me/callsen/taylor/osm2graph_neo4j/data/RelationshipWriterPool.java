@@ -0,0 +1,246 @@
+package me.callsen.taylor.osm2graph_neo4j.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransientFailureException;
+
+import me.callsen.taylor.osm2graph_neo4j.metrics.CommitEvent;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.routing.CsrAdjacencyBuilder;
+
+// Writes the road relationships of a way load on several threads (see GraphDbLoader.startRelationshipWriters()).
+//  Relationships are collected into batches cut at way boundaries and sized by the loader's commit policy; each
+//  batch is written and committed in a transaction of its own. Before creating anything a batch write-locks all
+//  its endpoint intersections in ascending node id order - concurrent batches sharing intersections queue up on
+//  the first shared one instead of deadlocking. Transient failures (deadlocks, lock timeouts) roll the batch back
+//  and retry it with backoff; a batch that still can't be written fails the load once the writers are closed.
+public class RelationshipWriterPool implements AutoCloseable {
+
+  private static final int MAX_ATTEMPTS = 5;
+  private static final long RETRY_BACKOFF_MILLIS = 20;
+
+  private final GraphDbLoader graphDbLoader;
+  private final int writerThreads;
+  private final boolean recordCheckpoints;
+
+  private final ExecutorService writerExecutor;
+  // backpressure - bounded number of batches queued or being written
+  private final Semaphore batchPermits;
+  private final int maxPendingBatches;
+
+  private RelationshipBatch currentBatch;
+
+  // way ordinal ranges of batches given up on - reported by close()
+  private final List<String> failedBatches = Collections.synchronizedList(new ArrayList<String>());
+
+  private final LoadMetrics.Timer commitTimer = LoadMetrics.get().timer("graph.commit");
+  private final LoadMetrics.Counter batchRetries = LoadMetrics.get().counter("graph.relationship_batch_retries");
+  private final LoadMetrics.Counter failedCommits = LoadMetrics.get().counter("failures.commits");
+  private final LoadMetrics.Counter failedRelationships = LoadMetrics.get().counter("failures.relationships");
+
+  // firstOrdinal - ordinal of the first way to be written (ways before it are committed already)
+  public RelationshipWriterPool(GraphDbLoader graphDbLoader, int writerThreads, long firstOrdinal, boolean recordCheckpoints) {
+    this.graphDbLoader = graphDbLoader;
+    this.writerThreads = writerThreads;
+    this.recordCheckpoints = recordCheckpoints;
+    this.maxPendingBatches = writerThreads * 2;
+    this.batchPermits = new Semaphore(this.maxPendingBatches);
+    this.writerExecutor = Executors.newFixedThreadPool(writerThreads, runnable -> {
+      Thread thread = new Thread(runnable, "relationship-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.currentBatch = new RelationshipBatch(firstOrdinal + 1);
+  }
+
+  public void addRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+    this.currentBatch.segments.add(new Segment(wayProps, wayStartOsmId, wayEndOsmId));
+    this.currentBatch.bytes += GraphDbLoader.estimateRelationshipBytes(wayProps);
+  }
+
+  // way boundary - the batch is handed to a writer once the writers' combined transaction state reaches the budget
+  public void markWayWritten(long ordinal, long osmId) {
+    this.currentBatch.lastOrdinal = ordinal;
+    this.currentBatch.lastOsmId = osmId;
+    if (this.graphDbLoader.getCommitPolicy().shouldCommit(this.currentBatch.bytes * this.writerThreads)) this.submitBatch();
+  }
+
+  private void submitBatch() {
+
+    RelationshipBatch batch = this.currentBatch;
+    if (batch.segments.isEmpty() && batch.lastOrdinal < batch.firstOrdinal) return;
+    this.currentBatch = new RelationshipBatch(Math.max(batch.firstOrdinal, batch.lastOrdinal + 1));
+
+    this.batchPermits.acquireUninterruptibly();
+    this.writerExecutor.execute(() -> {
+      try {
+        this.writeBatch(batch);
+      } finally {
+        this.batchPermits.release();
+      }
+    });
+
+  }
+
+  private void writeBatch(RelationshipBatch batch) {
+
+    for (int attempt = 1; ; ++attempt) {
+
+      CommitEvent commitEvent = new CommitEvent();
+      long missingEndpoints = 0;
+      long bytes = 0;
+      long commitNanos = 0;
+
+      try ( Transaction tx = this.graphDbLoader.getTransaction() ) {
+
+        // resolve endpoints, then lock them in node id order before any relationship touches them
+        Node[] startNodes = new Node[batch.segments.size()];
+        Node[] endNodes = new Node[batch.segments.size()];
+        TreeMap<Long, Node> endpointNodes = new TreeMap<Long, Node>();
+        for (int i = 0; i < startNodes.length; ++i) {
+          Segment segment = batch.segments.get(i);
+          startNodes[i] = this.graphDbLoader.findIntersectionNode(tx, segment.startOsmId, false);
+          endNodes[i] = this.graphDbLoader.findIntersectionNode(tx, segment.endOsmId, false);
+          if (startNodes[i] != null) endpointNodes.put(startNodes[i].getId(), startNodes[i]);
+          if (endNodes[i] != null) endpointNodes.put(endNodes[i].getId(), endNodes[i]);
+        }
+        for (Node endpointNode : endpointNodes.values()) tx.acquireWriteLock(endpointNode);
+
+        for (int i = 0; i < startNodes.length; ++i) {
+          Segment segment = batch.segments.get(i);
+          if (startNodes[i] == null || endNodes[i] == null) {
+            // endpoint node missing (e.g. outside the extract) - same outcome as a failed write on the shared transaction
+            if (attempt == 1) System.out.println("FAILED to create road relationship in Graph for node osm_ids " + segment.startOsmId + " and "+ segment.endOsmId + "; intersection not found");
+            ++missingEndpoints;
+            continue;
+          }
+          bytes += GraphDbLoader.createRelationship(startNodes[i], endNodes[i], segment.props, segment.startOsmId, segment.endOsmId);
+        }
+
+        // record load position along with the data - the checkpoint node is always locked last
+        if (this.recordCheckpoints && batch.lastOrdinal >= batch.firstOrdinal) {
+          this.graphDbLoader.recordCheckpointRange(tx, batch.firstOrdinal, batch.lastOrdinal, batch.lastOsmId);
+        }
+
+        commitEvent.begin();
+        long commitStart = this.commitTimer.start();
+        tx.commit();
+        commitNanos = this.commitTimer.stop(commitStart);
+        commitEvent.succeeded = true;
+
+        // routing snapshot follows committed relationships only
+        CsrAdjacencyBuilder csrAdjacencyBuilder = this.graphDbLoader.getCsrAdjacencyBuilder();
+        if (csrAdjacencyBuilder != null) {
+          synchronized (csrAdjacencyBuilder) {
+            for (int i = 0; i < startNodes.length; ++i) {
+              Segment segment = batch.segments.get(i);
+              if (startNodes[i] != null && endNodes[i] != null) csrAdjacencyBuilder.addRelationship(segment.startOsmId, segment.endOsmId, segment.props);
+            }
+            csrAdjacencyBuilder.commit();
+          }
+        }
+
+        this.failedRelationships.add(missingEndpoints);
+        return;
+
+      } catch (TransientFailureException e) {
+        if (attempt < MAX_ATTEMPTS) {
+          this.batchRetries.increment();
+          sleep(RETRY_BACKOFF_MILLIS << (attempt - 1));
+          continue;
+        }
+        this.onFailedBatch(batch, e);
+        return;
+      } catch (Exception e) {
+        this.onFailedBatch(batch, e);
+        return;
+      } finally {
+        commitEvent.end();
+        if (commitEvent.succeeded && commitEvent.shouldCommit()) {
+          commitEvent.operations = batch.segments.size();
+          commitEvent.bytes = bytes;
+          commitEvent.commit();
+        }
+        if (commitEvent.succeeded) {
+          AdaptiveCommitPolicy commitPolicy = this.graphDbLoader.getCommitPolicy();
+          synchronized (commitPolicy) {
+            commitPolicy.onCommit(batch.segments.size(), bytes, TimeUnit.NANOSECONDS.toMillis(commitNanos));
+          }
+        }
+      }
+
+    }
+
+  }
+
+  // a batch that can't be written is rolled back and its ways are left out of the checkpoint's committed ranges -
+  //  the other writers carry on, and close() fails the load, leaving the checkpoint for a resume to write them
+  private void onFailedBatch(RelationshipBatch batch, Exception e) {
+    System.out.println("Warning - failed to write batch of " + batch.segments.size() + " road relationships (ways " + batch.firstOrdinal + " - " + batch.lastOrdinal + ")");
+    e.printStackTrace();
+    this.failedCommits.increment();
+    this.failedRelationships.add(batch.segments.size());
+    this.failedBatches.add(batch.firstOrdinal + " - " + batch.lastOrdinal);
+  }
+
+  // writes the last batch and waits for all writers to finish - throws if any batch failed
+  public void close() {
+    this.submitBatch();
+    this.batchPermits.acquireUninterruptibly(this.maxPendingBatches);
+    this.batchPermits.release(this.maxPendingBatches);
+    this.writerExecutor.shutdown();
+    if (!this.failedBatches.isEmpty()) {
+      throw new IllegalStateException("failed to write " + this.failedBatches.size() + " batches of road relationships (ways " + this.failedBatches + ")"
+          + (this.recordCheckpoints ? " - checkpoint kept, resume the load to write them" : ""));
+    }
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static class Segment {
+
+    final Map<String, Object> props;
+    final long startOsmId;
+    final long endOsmId;
+
+    Segment(Map<String, Object> props, long startOsmId, long endOsmId) {
+      this.props = props;
+      this.startOsmId = startOsmId;
+      this.endOsmId = endOsmId;
+    }
+
+  }
+
+  // relationships of consecutive ways - firstOrdinal follows the previous batch's last ordinal, so the ordinal ranges
+  //  of all batches are contiguous (ways without relationships included)
+  private static class RelationshipBatch {
+
+    final long firstOrdinal;
+    long lastOrdinal = -1;
+    long lastOsmId = -1;
+    final List<Segment> segments = new ArrayList<Segment>();
+    long bytes = 0;
+
+    RelationshipBatch(long firstOrdinal) {
+      this.firstOrdinal = firstOrdinal;
+    }
+
+  }
+
+}
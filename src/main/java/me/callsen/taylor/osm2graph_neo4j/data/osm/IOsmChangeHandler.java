@@ -0,0 +1,15 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+public interface IOsmChangeHandler {
+
+  // changes are delivered in source order; deleted elements may lack coordinates, node refs and tags
+  public default void onNode(OsmChangeType changeType, OsmNode node) { }
+
+  public default void onWay(OsmChangeType changeType, OsmWay way) { }
+
+  // element types the handler consumes - readers may skip decoding the others entirely
+  public default boolean wantsNodes() { return true; }
+
+  public default boolean wantsWays() { return true; }
+
+}
@@ -0,0 +1,15 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+public interface IOsmElementHandler {
+
+  // elements are delivered in source order; handlers only override the element types they care about
+  public default void onNode(OsmNode node) { }
+
+  public default void onWay(OsmWay way) { }
+
+  // element types the handler consumes - readers may skip decoding the others entirely
+  public default boolean wantsNodes() { return true; }
+
+  public default boolean wantsWays() { return true; }
+
+}
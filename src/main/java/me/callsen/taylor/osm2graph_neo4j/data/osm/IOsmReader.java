@@ -0,0 +1,14 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+public interface IOsmReader {
+
+  // performs a single streaming pass over the source, handing each element to the handler
+  public default void read(IOsmElementHandler handler) throws Exception {
+    this.read(handler, 0);
+  }
+
+  // as above, but the first skipWays ways are passed over without being handed to the handler (e.g. when resuming
+  //  an interrupted load) - readers avoid decoding them where the format allows
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception;
+
+}
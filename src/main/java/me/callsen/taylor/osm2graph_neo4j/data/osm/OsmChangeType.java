@@ -0,0 +1,6 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+// osmChange (.osc) sections - elements carry their new version for create/modify and the last version for delete
+public enum OsmChangeType {
+  CREATE, MODIFY, DELETE
+}
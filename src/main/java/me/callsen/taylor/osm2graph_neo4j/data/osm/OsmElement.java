@@ -0,0 +1,37 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+import java.util.Map;
+
+public abstract class OsmElement {
+
+  protected final long id;
+
+  // raw attributes as they appear in the source (e.g. id, version, changeset) - values are coerced to
+  //  typed property values when flattened in PropertySchema.assembleOsmItemProps()
+  protected final Map<String, String> attributes;
+
+  protected final Map<String, String> tags;
+
+  protected OsmElement(long id, Map<String, String> attributes, Map<String, String> tags) {
+    this.id = id;
+    this.attributes = attributes;
+    this.tags = tags;
+  }
+
+  public long getId() {
+    return this.id;
+  }
+
+  public Map<String, String> getAttributes() {
+    return this.attributes;
+  }
+
+  public Map<String, String> getTags() {
+    return this.tags;
+  }
+
+  public boolean hasTag(String key) {
+    return this.tags.containsKey(key);
+  }
+
+}
@@ -0,0 +1,46 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import me.callsen.taylor.osm2graph_neo4j.util.ParallelBZip2InputStream;
+
+// Opens OSM source files - gzip (.gz) and bzip2 (.bz2) compressed files (e.g. BBBike or Geofabrik downloads) are
+//  decompressed while streaming, so they never have to be unpacked to disk
+public final class OsmFileInput {
+
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+
+  private OsmFileInput() { }
+
+  public static InputStream open(String osmFilePath) throws IOException {
+    return open(osmFilePath, Runtime.getRuntime().availableProcessors());
+  }
+
+  // decompressThreads - workers decoding bzip2 blocks in parallel (bzip2 decompression is slow enough to otherwise
+  //  bound the whole load)
+  public static InputStream open(String osmFilePath, int decompressThreads) throws IOException {
+    InputStream fileStream = new FileInputStream(osmFilePath);
+    try {
+      String lowerCasePath = osmFilePath.toLowerCase();
+      if (lowerCasePath.endsWith(".gz")) return new BufferedInputStream(new GZIPInputStream(fileStream, READ_BUFFER_SIZE), READ_BUFFER_SIZE);
+      if (lowerCasePath.endsWith(".bz2")) return new BufferedInputStream(new ParallelBZip2InputStream(new BufferedInputStream(fileStream, READ_BUFFER_SIZE), decompressThreads), READ_BUFFER_SIZE);
+      return new BufferedInputStream(fileStream, READ_BUFFER_SIZE);
+    } catch (IOException | RuntimeException e) {
+      fileStream.close();
+      throw e;
+    }
+  }
+
+  // file path without compression extension - tells the format of the content (e.g. "changes.osc.gz" is osmChange)
+  public static String getContentPath(String osmFilePath) {
+    String lowerCasePath = osmFilePath.toLowerCase();
+    if (lowerCasePath.endsWith(".gz")) return osmFilePath.substring(0, osmFilePath.length() - 3);
+    if (lowerCasePath.endsWith(".bz2")) return osmFilePath.substring(0, osmFilePath.length() - 4);
+    return osmFilePath;
+  }
+
+}
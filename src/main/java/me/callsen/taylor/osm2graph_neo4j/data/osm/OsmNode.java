@@ -0,0 +1,24 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+import java.util.Map;
+
+public class OsmNode extends OsmElement {
+
+  private final double lat;
+  private final double lon;
+
+  public OsmNode(long id, double lat, double lon, Map<String, String> attributes, Map<String, String> tags) {
+    super(id, attributes, tags);
+    this.lat = lat;
+    this.lon = lon;
+  }
+
+  public double getLat() {
+    return this.lat;
+  }
+
+  public double getLon() {
+    return this.lon;
+  }
+
+}
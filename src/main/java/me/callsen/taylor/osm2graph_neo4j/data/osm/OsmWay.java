@@ -0,0 +1,19 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm;
+
+import java.util.Map;
+
+public class OsmWay extends OsmElement {
+
+  // osm ids of the nodes that make up the way, in way order
+  private final long[] nodeRefs;
+
+  public OsmWay(long id, long[] nodeRefs, Map<String, String> attributes, Map<String, String> tags) {
+    super(id, attributes, tags);
+    this.nodeRefs = nodeRefs;
+  }
+
+  public long[] getNodeRefs() {
+    return this.nodeRefs;
+  }
+
+}
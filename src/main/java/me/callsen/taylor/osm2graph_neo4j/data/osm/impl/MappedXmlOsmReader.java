@@ -0,0 +1,672 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// Reads uncompressed OSM XML files through memory mapped chunks. OSM XML is a flat list of <node>, <way> and
+//  <relation> elements below the <osm> root, so the file can be split without parsing what comes before a split
+//  point: a chunk begins at the first element start at or after its nominal offset and ends where the next chunk
+//  begins. Chunks are scanned in parallel on a worker pool straight from the mapped bytes - no XML parser, numbers
+//  parsed without intermediate strings, keys interned per thread - and handed to the handler in file order on the
+//  calling thread (as with the PBF reader). Compressed files can't be mapped and are read by XmlOsmReader.
+public class MappedXmlOsmReader implements IOsmReader {
+
+  // small enough for the elements of the chunks in flight to die young - larger chunks are slower, not faster
+  public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+  // window mapped at a time while looking for the element start at a chunk boundary
+  private static final int BOUNDARY_WINDOW_SIZE = 16 * 1024;
+
+  private static final byte[] OSM = ascii("osm");
+  private static final byte[] NODE = ascii("node");
+  private static final byte[] WAY = ascii("way");
+  private static final byte[] RELATION = ascii("relation");
+  private static final byte[] TAG = ascii("tag");
+  private static final byte[] ND = ascii("nd");
+  private static final byte[] ID = ascii("id");
+  private static final byte[] LAT = ascii("lat");
+  private static final byte[] LON = ascii("lon");
+  private static final byte[] REF = ascii("ref");
+  private static final byte[] K = ascii("k");
+  private static final byte[] V = ascii("v");
+
+  // exact doubles - decimal mantissas of up to 15 digits divided by these are correctly rounded (as Double.parseDouble)
+  private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
+
+  private static final ThreadLocal<ScanContext> SCAN_CONTEXTS = ThreadLocal.withInitial(ScanContext::new);
+
+  protected String osmFilePath;
+  protected int decodeThreads;
+  protected int chunkSize;
+
+  public MappedXmlOsmReader(String osmFilePath) {
+    this(osmFilePath, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+  }
+
+  public MappedXmlOsmReader(String osmFilePath, int decodeThreads, int chunkSize) {
+    this.osmFilePath = osmFilePath;
+    this.decodeThreads = Math.max(1, decodeThreads);
+    this.chunkSize = Math.max(1024, chunkSize);
+  }
+
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception {
+
+    try (FileChannel channel = FileChannel.open(Path.of(this.osmFilePath), StandardOpenOption.READ)) {
+
+      long fileSize = channel.size();
+      if (!hasOsmRoot(channel, fileSize)) return;
+
+      ExecutorService decodePool = Executors.newFixedThreadPool(this.decodeThreads, runnable -> {
+        Thread thread = new Thread(runnable, "osm-xml-scanner");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+      // bound the number of chunks in flight so memory stays flat regardless of file size
+      int maxPendingChunks = this.decodeThreads * 2;
+
+      // element types the handler does not consume are skipped while scanning
+      boolean decodeNodes = handler.wantsNodes();
+      boolean decodeWays = handler.wantsWays();
+
+      // ways to pass over - chunks are scanned in parallel, so skipping happens on dispatch
+      long[] remainingSkipWays = { skipWays };
+      ArrayDeque<Future<List<OsmElement>>> pendingChunks = new ArrayDeque<Future<List<OsmElement>>>();
+
+      try {
+
+        for (long nominalStart = 0; nominalStart < fileSize; nominalStart += this.chunkSize) {
+          long chunkNominalStart = nominalStart;
+          pendingChunks.add(decodePool.submit(() -> scanChunk(channel, fileSize, chunkNominalStart, this.chunkSize, decodeNodes, decodeWays)));
+          if (pendingChunks.size() >= maxPendingChunks) dispatchChunk(pendingChunks.poll().get(), handler, remainingSkipWays);
+        }
+
+        while (!pendingChunks.isEmpty()) dispatchChunk(pendingChunks.poll().get(), handler, remainingSkipWays);
+
+      } finally {
+        for (Future<List<OsmElement>> pendingChunk : pendingChunks) pendingChunk.cancel(true);
+        decodePool.shutdownNow();
+      }
+
+    }
+
+  }
+
+  private static void dispatchChunk(List<OsmElement> elements, IOsmElementHandler handler, long[] remainingSkipWays) {
+    for (OsmElement element : elements) {
+      if (element instanceof OsmNode) handler.onNode((OsmNode) element);
+      else if (remainingSkipWays[0] > 0) --remainingSkipWays[0];
+      else handler.onWay((OsmWay) element);
+    }
+  }
+
+  private static List<OsmElement> scanChunk(FileChannel channel, long fileSize, long nominalStart, int chunkSize, boolean decodeNodes, boolean decodeWays) throws IOException {
+
+    // both boundaries are found the same way, so neighbouring chunks agree on them without coordination - an element
+    //  spanning a whole chunk leaves that chunk empty
+    long start = nominalStart == 0 ? 0 : findElementStart(channel, fileSize, nominalStart);
+    long end = nominalStart + chunkSize >= fileSize ? fileSize : findElementStart(channel, fileSize, nominalStart + chunkSize);
+
+    List<OsmElement> elements = new ArrayList<OsmElement>();
+    if (start >= end) return elements;
+    if (end - start > Integer.MAX_VALUE) throw new IOException("OSM XML element at offset " + start + " too large to map");
+
+    ScanContext context = SCAN_CONTEXTS.get();
+    int length = (int) (end - start);
+    if (context.chunkBytes.length < length) context.chunkBytes = new byte[length];
+    readMapped(channel, start, context.chunkBytes, length);
+    new ChunkScanner(context.chunkBytes, length, start, context.keyInterner).scan(elements, decodeNodes, decodeWays);
+    return elements;
+
+  }
+
+  // offset of the first <node, <way or <relation at or after the given offset (file size if there is none)
+  private static long findElementStart(FileChannel channel, long fileSize, long offset) throws IOException {
+    for (long windowStart = offset; windowStart < fileSize; windowStart += BOUNDARY_WINDOW_SIZE) {
+      // windows overlap by the longest name, so an element start across a window edge is found in the first window
+      int windowSize = (int) Math.min(BOUNDARY_WINDOW_SIZE + RELATION.length + 2, fileSize - windowStart);
+      byte[] window = new byte[windowSize];
+      readMapped(channel, windowStart, window, windowSize);
+      for (int i = 0; i < Math.min(BOUNDARY_WINDOW_SIZE, windowSize); ++i) {
+        if (window[i] != '<') continue;
+        if (nameAt(window, i + 1, windowSize, NODE) || nameAt(window, i + 1, windowSize, WAY) || nameAt(window, i + 1, windowSize, RELATION)) return windowStart + i;
+      }
+    }
+    return fileSize;
+  }
+
+  // the root element must be <osm> (as with XmlOsmReader, other documents yield no elements). The prolog before it
+  //  (declaration, comments, doctype) can be any length - the head read doubles until it holds the root's name
+  private static boolean hasOsmRoot(FileChannel channel, long fileSize) throws IOException {
+    for (long headSize = Math.min(fileSize, BOUNDARY_WINDOW_SIZE); ; headSize = Math.min(fileSize, headSize * 2)) {
+      if (headSize > Integer.MAX_VALUE) throw new IOException("OSM XML prolog too large to map");
+      byte[] head = new byte[(int) headSize];
+      readMapped(channel, 0, head, head.length);
+      Boolean isOsmRoot = new ChunkScanner(head, head.length, 0, new KeyInterner()).isRootElement(OSM);
+      if (isOsmRoot != null) return isOsmRoot;
+      if (headSize == fileSize) throw new IOException("OSM XML file has no root element");
+    }
+  }
+
+  // one bulk copy out of the mapping - scanning a heap array is several times faster than reading the mapped buffer
+  //  byte by byte, and Strings are then built straight from the array
+  private static void readMapped(FileChannel channel, long offset, byte[] bytes, int length) throws IOException {
+    channel.map(FileChannel.MapMode.READ_ONLY, offset, length).get(bytes, 0, length);
+  }
+
+  // true if the bytes at index are the name followed by a delimiter (whitespace, '/' or '>')
+  private static boolean nameAt(byte[] buffer, int index, int limit, byte[] name) {
+    if (index + name.length >= limit) return false;
+    for (int i = 0; i < name.length; ++i) {
+      if (buffer[index + i] != name[i]) return false;
+    }
+    return isNameEnd(buffer[index + name.length]);
+  }
+
+  private static boolean isNameEnd(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '/' || b == '>' || b == '=';
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  // scans the elements of one chunk - the cursor moves forward through the chunk's bytes, the attribute most recently
+  //  read is kept as offsets into them
+  private static final class ChunkScanner {
+
+    private final byte[] bytes;
+    private final int limit;
+    private final long fileOffset;
+    private final KeyInterner keyInterner;
+
+    private int position = 0;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+
+    private byte[] scratch = new byte[256];
+
+    ChunkScanner(byte[] bytes, int limit, long fileOffset, KeyInterner keyInterner) {
+      this.bytes = bytes;
+      this.limit = limit;
+      this.fileOffset = fileOffset;
+      this.keyInterner = keyInterner;
+    }
+
+    void scan(List<OsmElement> elements, boolean decodeNodes, boolean decodeWays) throws IOException {
+      try {
+        // markup other than elements (declaration, comments, the <osm> and </osm> tags, <bounds>) is passed over
+        while (this.skipToElement()) {
+          if (this.nameAt(NODE)) {
+            if (decodeNodes) elements.add(this.readNode());
+            else this.skipElement();
+          } else if (this.nameAt(WAY)) {
+            if (decodeWays) elements.add(this.readWay());
+            else this.skipElement();
+          } else if (this.nameAt(RELATION)) {
+            this.skipElement();
+          } else {
+            this.skipName();
+            this.skipAttributes();
+          }
+        }
+      } catch (IndexOutOfBoundsException e) {
+        throw new IOException("malformed OSM XML near offset " + (this.fileOffset + this.position), e);
+      }
+    }
+
+    // null if the chunk ends before the first start tag's name does
+    Boolean isRootElement(byte[] name) {
+      try {
+        if (!this.skipToElement()) return null;
+        int nameStart = this.position;
+        this.skipName();
+        return Arrays.equals(this.bytes, nameStart, this.position, name, 0, name.length);
+      } catch (IndexOutOfBoundsException e) {
+        return null;
+      }
+    }
+
+    // moves to the name of the next start tag - returns false at the end of the chunk
+    private boolean skipToElement() {
+      while (true) {
+        int tagStart = this.indexOf('<', this.position);
+        if (tagStart < 0) return false;
+        byte next = this.byteAt(tagStart + 1);
+        if (next == '?') this.position = this.indexOf("?>", tagStart) + 2;
+        else if (next == '!') this.position = this.skipDeclaration(tagStart);
+        else if (next == '/') this.position = this.find('>', tagStart) + 1;
+        else {
+          this.position = tagStart + 1;
+          return true;
+        }
+      }
+    }
+
+    private OsmNode readNode() throws IOException {
+
+      this.position += NODE.length;
+      Map<String, String> attributes = new LinkedHashMap<String, String>();
+      long id = 0;
+      boolean hasId = false;
+      double lat = Double.NaN;
+      double lon = Double.NaN;
+
+      while (this.readAttribute()) {
+        if (this.attributeNameIs(ID)) {
+          id = this.parseLong(this.valueStart, this.valueEnd);
+          hasId = true;
+        }
+        else if (this.attributeNameIs(LAT)) lat = this.parseDouble(this.valueStart, this.valueEnd);
+        else if (this.attributeNameIs(LON)) lon = this.parseDouble(this.valueStart, this.valueEnd);
+        attributes.put(this.keyInterner.intern(this, this.nameStart, this.nameEnd), this.decode(this.valueStart, this.valueEnd));
+      }
+      if (!hasId) throw new IOException("OSM XML node without id near offset " + (this.fileOffset + this.position));
+
+      Map<String, String> tags = new LinkedHashMap<String, String>();
+      if (!this.endStartTag()) this.readChildren(tags, null);
+      return new OsmNode(id, lat, lon, attributes, tags);
+
+    }
+
+    private OsmWay readWay() throws IOException {
+
+      this.position += WAY.length;
+      Map<String, String> attributes = new LinkedHashMap<String, String>();
+      long id = 0;
+      boolean hasId = false;
+
+      while (this.readAttribute()) {
+        if (this.attributeNameIs(ID)) {
+          id = this.parseLong(this.valueStart, this.valueEnd);
+          hasId = true;
+        }
+        attributes.put(this.keyInterner.intern(this, this.nameStart, this.nameEnd), this.decode(this.valueStart, this.valueEnd));
+      }
+      if (!hasId) throw new IOException("OSM XML way without id near offset " + (this.fileOffset + this.position));
+
+      Map<String, String> tags = new LinkedHashMap<String, String>();
+      NodeRefs nodeRefs = new NodeRefs();
+      if (!this.endStartTag()) this.readChildren(tags, nodeRefs);
+      return new OsmWay(id, Arrays.copyOf(nodeRefs.refs, nodeRefs.count), attributes, tags);
+
+    }
+
+    // reads <tag> (and <nd> if nodeRefs are wanted) children up to the element's end tag
+    private void readChildren(Map<String, String> tags, NodeRefs nodeRefs) throws IOException {
+      while (true) {
+        int tagStart = this.indexOf('<', this.position);
+        if (tagStart < 0) throw new IOException("unterminated OSM XML element near offset " + (this.fileOffset + this.position));
+        byte next = this.byteAt(tagStart + 1);
+        if (next == '/') {
+          this.position = this.find('>', tagStart) + 1;
+          return;
+        }
+        if (next == '!' || next == '?') {
+          this.position = next == '!' ? this.skipDeclaration(tagStart) : this.indexOf("?>", tagStart) + 2;
+          continue;
+        }
+
+        this.position = tagStart + 1;
+        if (this.nameAt(TAG)) {
+          this.position += TAG.length;
+          String key = null;
+          String value = null;
+          while (this.readAttribute()) {
+            if (this.attributeNameIs(K)) key = this.keyInterner.intern(this, this.valueStart, this.valueEnd);
+            else if (this.attributeNameIs(V)) value = this.decode(this.valueStart, this.valueEnd);
+          }
+          if (key != null && value != null) tags.put(key, value);
+        } else if (nodeRefs != null && this.nameAt(ND)) {
+          this.position += ND.length;
+          while (this.readAttribute()) {
+            if (this.attributeNameIs(REF)) nodeRefs.add(this.parseLong(this.valueStart, this.valueEnd));
+          }
+        } else {
+          this.skipName();
+          if (!this.skipAttributes()) this.skipContent();
+          continue;
+        }
+        if (!this.endStartTag()) this.skipContent();
+      }
+    }
+
+    // skips the element whose name the cursor is on, including its children
+    private void skipElement() {
+      this.skipName();
+      if (!this.skipAttributes()) this.skipContent();
+    }
+
+    // skips the rest of the current start tag's attributes - returns true if the tag is self-closing
+    private boolean skipAttributes() {
+      while (this.readAttribute()) { }
+      return this.endStartTag();
+    }
+
+    // skips children up to and including the end tag of the current element
+    private void skipContent() {
+      int depth = 1;
+      while (depth > 0) {
+        int tagStart = this.indexOf('<', this.position);
+        if (tagStart < 0) throw new IndexOutOfBoundsException("unterminated element");
+        byte next = this.byteAt(tagStart + 1);
+        if (next == '/') {
+          this.position = this.find('>', tagStart) + 1;
+          --depth;
+        } else if (next == '!') {
+          this.position = this.skipDeclaration(tagStart);
+        } else if (next == '?') {
+          this.position = this.indexOf("?>", tagStart) + 2;
+        } else {
+          this.position = tagStart + 1;
+          this.skipName();
+          if (!this.skipAttributes()) ++depth;
+        }
+      }
+    }
+
+    // comment or other <! declaration starting at tagStart - returns the offset after it
+    private int skipDeclaration(int tagStart) {
+      if (this.byteAt(tagStart + 2) == '-' && this.byteAt(tagStart + 3) == '-') return this.indexOf("-->", tagStart + 4) + 3;
+      return this.find('>', tagStart) + 1;
+    }
+
+    private void skipName() {
+      while (!isNameEnd(this.byteAt(this.position))) ++this.position;
+    }
+
+    // reads the next attribute of a start tag into nameStart/nameEnd and valueStart/valueEnd - returns false once the
+    //  cursor reaches the end of the start tag ('/' or '>'). Values may contain '>', so tags are never skipped to the
+    //  next '>'
+    private boolean readAttribute() {
+      this.skipWhitespace();
+      byte b = this.byteAt(this.position);
+      if (b == '/' || b == '>') return false;
+
+      this.nameStart = this.position;
+      this.skipName();
+      this.nameEnd = this.position;
+      this.skipWhitespace();
+      if (this.byteAt(this.position) != '=') throw new IndexOutOfBoundsException("attribute without value");
+      ++this.position;
+      this.skipWhitespace();
+
+      byte quote = this.byteAt(this.position);
+      this.valueStart = this.position + 1;
+      this.valueEnd = this.indexOf(quote, this.valueStart);
+      if (this.valueEnd < 0) throw new IndexOutOfBoundsException("unterminated attribute value");
+      this.position = this.valueEnd + 1;
+      return true;
+    }
+
+    // moves past the end of a start tag - returns true if it was self-closing
+    private boolean endStartTag() {
+      this.skipWhitespace();
+      if (this.byteAt(this.position) == '/') {
+        this.position = this.find('>', this.position) + 1;
+        return true;
+      }
+      ++this.position;
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while (true) {
+        byte b = this.byteAt(this.position);
+        if (b != ' ' && b != '\t' && b != '\n' && b != '\r') return;
+        ++this.position;
+      }
+    }
+
+    // cursor reads - the chunk array is reused, so bytes past the limit are left over from an earlier chunk
+    private byte byteAt(int index) {
+      if (index >= this.limit) throw new IndexOutOfBoundsException("unexpected end of chunk");
+      return this.bytes[index];
+    }
+
+    private boolean nameAt(byte[] name) {
+      return MappedXmlOsmReader.nameAt(this.bytes, this.position, this.limit, name);
+    }
+
+    private boolean attributeNameIs(byte[] name) {
+      if (this.nameEnd - this.nameStart != name.length) return false;
+      for (int i = 0; i < name.length; ++i) {
+        if (this.bytes[this.nameStart + i] != name[i]) return false;
+      }
+      return true;
+    }
+
+    private int indexOf(char c, int from) {
+      return this.indexOf((byte) c, from);
+    }
+
+    private int indexOf(byte b, int from) {
+      for (int i = from; i < this.limit; ++i) {
+        if (this.bytes[i] == b) return i;
+      }
+      return -1;
+    }
+
+    private int find(char c, int from) {
+      int index = this.indexOf(c, from);
+      if (index < 0) throw new IndexOutOfBoundsException("unterminated tag");
+      return index;
+    }
+
+    private int indexOf(String sequence, int from) {
+      byte first = (byte) sequence.charAt(0);
+      for (int i = this.indexOf(first, from); i >= 0; i = this.indexOf(first, i + 1)) {
+        int j = 1;
+        while (j < sequence.length() && i + j < this.limit && this.bytes[i + j] == (byte) sequence.charAt(j)) ++j;
+        if (j == sequence.length()) return i;
+      }
+      throw new IndexOutOfBoundsException("unterminated " + sequence);
+    }
+
+    // decimal integer straight from the bytes - anything unusual (sign, overflow, entities) goes through Long.parseLong
+    long parseLong(int start, int end) {
+      int i = start;
+      boolean negative = i < end && this.bytes[i] == '-';
+      if (negative) ++i;
+      if (i == end || end - i > 18) return Long.parseLong(this.decode(start, end));
+      long value = 0;
+      for (; i < end; ++i) {
+        int digit = this.bytes[i] - '0';
+        if (digit < 0 || digit > 9) return Long.parseLong(this.decode(start, end));
+        value = value * 10 + digit;
+      }
+      return negative ? -value : value;
+    }
+
+    // plain decimal (e.g. -122.3964163) straight from the bytes - exponents and long mantissas go through
+    //  Double.parseDouble, so results are identical either way
+    double parseDouble(int start, int end) {
+      int i = start;
+      boolean negative = i < end && this.bytes[i] == '-';
+      if (negative) ++i;
+      long mantissa = 0;
+      int digits = 0;
+      int fractionDigits = -1;
+      for (; i < end; ++i) {
+        byte b = this.bytes[i];
+        if (b >= '0' && b <= '9') {
+          if (++digits > 15) return Double.parseDouble(this.decode(start, end));
+          mantissa = mantissa * 10 + (b - '0');
+          if (fractionDigits >= 0) ++fractionDigits;
+        } else if (b == '.' && fractionDigits < 0) {
+          fractionDigits = 0;
+        } else {
+          return Double.parseDouble(this.decode(start, end));
+        }
+      }
+      if (digits == 0) return Double.parseDouble(this.decode(start, end));
+      double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+      return negative ? -value : value;
+    }
+
+    // attribute value as a String - entity references resolved and whitespace normalized like an XML parser does;
+    //  pure ASCII values are decoded as Latin-1 (no UTF-8 decoding pass)
+    String decode(int start, int end) {
+      boolean ascii = true;
+      for (int i = start; i < end; ++i) {
+        byte b = this.bytes[i];
+        if (b == '&' || b == '\t' || b == '\n' || b == '\r') return this.decodeReferences(start, end);
+        if (b < 0) ascii = false;
+      }
+      return new String(this.bytes, start, end - start, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    private String decodeReferences(int start, int end) {
+      if (this.scratch.length < end - start) this.scratch = new byte[Math.max(end - start, this.scratch.length * 2)];
+      int length = 0;
+      boolean ascii = true;
+      for (int i = start; i < end; ++i) {
+        byte b = this.bytes[i];
+        if (b == '&') {
+          int entityEnd = this.indexOf(';', i);
+          if (entityEnd < 0 || entityEnd >= end) throw new IndexOutOfBoundsException("unterminated entity reference");
+          int codePoint = this.decodeEntity(i + 1, entityEnd);
+          if (codePoint >= 0x80) ascii = false;
+          length = appendUtf8(this.scratch, length, codePoint);
+          i = entityEnd;
+        } else if (b == '\t' || b == '\n') {
+          this.scratch[length++] = ' ';
+        } else if (b == '\r') {
+          this.scratch[length++] = ' ';
+          if (i + 1 < end && this.bytes[i + 1] == '\n') ++i;
+        } else {
+          if (b < 0) ascii = false;
+          this.scratch[length++] = b;
+        }
+      }
+      return new String(this.scratch, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+    }
+
+    private int decodeEntity(int start, int end) {
+      String name = new String(this.scratchCopy(start, end), StandardCharsets.US_ASCII);
+      switch (name) {
+        case "lt": return '<';
+        case "gt": return '>';
+        case "amp": return '&';
+        case "quot": return '"';
+        case "apos": return '\'';
+        default:
+          if (name.startsWith("#x")) return Integer.parseInt(name.substring(2), 16);
+          if (name.startsWith("#")) return Integer.parseInt(name.substring(1));
+          throw new IndexOutOfBoundsException("undeclared entity &" + name + ";");
+      }
+    }
+
+    private byte[] scratchCopy(int start, int end) {
+      return Arrays.copyOfRange(this.bytes, start, end);
+    }
+
+    // entities are at least 3 bytes long (e.g. &lt;), their UTF-8 encoding at most 4 - never longer than the source
+    private static int appendUtf8(byte[] target, int length, int codePoint) {
+      if (codePoint < 0x80) {
+        target[length++] = (byte) codePoint;
+      } else if (codePoint < 0x800) {
+        target[length++] = (byte) (0xC0 | (codePoint >> 6));
+        target[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (codePoint < 0x10000) {
+        target[length++] = (byte) (0xE0 | (codePoint >> 12));
+        target[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        target[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        target[length++] = (byte) (0xF0 | (codePoint >> 18));
+        target[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        target[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        target[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      }
+      return length;
+    }
+
+  }
+
+  // per decoding thread - chunks are read into the same array every time (elements never reference it), and tag keys
+  //  and attribute names, which repeat throughout a file, are interned across chunks
+  private static final class ScanContext {
+
+    final KeyInterner keyInterner = new KeyInterner();
+    byte[] chunkBytes = new byte[0];
+
+  }
+
+  private static final class NodeRefs {
+
+    long[] refs = new long[16];
+    int count = 0;
+
+    void add(long ref) {
+      if (this.count == this.refs.length) this.refs = Arrays.copyOf(this.refs, this.count * 2);
+      this.refs[this.count++] = ref;
+    }
+
+  }
+
+  // open addressing table from raw key bytes to their decoded String - stops growing once half full (files with
+  //  that many distinct keys just decode the rest each time)
+  private static final class KeyInterner {
+
+    private static final int CAPACITY = 4096;
+    private static final int MAX_KEY_LENGTH = 64;
+
+    private final byte[][] keyBytes = new byte[CAPACITY][];
+    private final String[] keyStrings = new String[CAPACITY];
+    private int size = 0;
+
+    String intern(ChunkScanner scanner, int start, int end) {
+
+      if (end - start > MAX_KEY_LENGTH) return scanner.decode(start, end);
+
+      int hash = 0;
+      for (int i = start; i < end; ++i) hash = 31 * hash + scanner.bytes[i];
+
+      int slot = (hash ^ (hash >>> 16)) & (CAPACITY - 1);
+      while (this.keyBytes[slot] != null) {
+        if (this.matches(this.keyBytes[slot], scanner.bytes, start, end)) return this.keyStrings[slot];
+        slot = (slot + 1) & (CAPACITY - 1);
+      }
+
+      // raw bytes always decode to the same String (entities included), so they are the table key
+      String key = scanner.decode(start, end);
+      if (this.size < CAPACITY / 2) {
+        this.keyBytes[slot] = scanner.scratchCopy(start, end);
+        this.keyStrings[slot] = key;
+        ++this.size;
+      }
+      return key;
+
+    }
+
+    private boolean matches(byte[] candidate, byte[] bytes, int start, int end) {
+      if (candidate.length != end - start) return false;
+      for (int i = 0; i < candidate.length; ++i) {
+        if (candidate[i] != bytes[start + i]) return false;
+      }
+      return true;
+    }
+
+  }
+
+}
@@ -0,0 +1,229 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// Reads several OSM files as one source - e.g. adjacent regional extracts loaded into one graph. Every file is read
+//  on a thread of its own, and their element streams are merged by element type and id (like extracts normally
+//  are, each file must be sorted: nodes, then ways, each by ascending id). An element contained in several files -
+//  nodes on a shared boundary, ways crossing it - is handed to the handler once: the copy with the highest version,
+//  or on equal versions the way with the most node refs (extracts clip boundary ways differently), otherwise the
+//  copy from the first file. Deduplication only compares the current element of each file, so memory use doesn't
+//  grow with the inputs.
+public class MergedOsmReader implements IOsmReader {
+
+  private static final int BATCH_ELEMENTS = 1024;
+  private static final int QUEUED_BATCHES = 4;
+
+  private static final Object END_OF_SOURCE = new Object();
+
+  private final List<IOsmReader> readers;
+  private final List<String> sourceNames;
+
+  // sourceNames - used in messages (e.g. the file paths), same order as readers
+  public MergedOsmReader(List<IOsmReader> readers, List<String> sourceNames) {
+    this.readers = readers;
+    this.sourceNames = sourceNames;
+  }
+
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception {
+
+    ExecutorService sourceExecutor = Executors.newFixedThreadPool(this.readers.size(), runnable -> {
+      Thread thread = new Thread(runnable, "osm-merge-source");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    try {
+
+      List<SourceStream> sources = new ArrayList<SourceStream>();
+      for (int i = 0; i < this.readers.size(); ++i) {
+        SourceStream source = new SourceStream(this.sourceNames.get(i));
+        IOsmReader reader = this.readers.get(i);
+        sourceExecutor.execute(() -> source.fill(reader, handler));
+        sources.add(source);
+      }
+      for (SourceStream source : sources) source.advance();
+
+      long duplicateNodes = 0;
+      long duplicateWays = 0;
+      long waysToSkip = skipWays;
+
+      while (true) {
+
+        // element with the lowest type / id among the sources' current elements
+        SourceStream first = null;
+        for (SourceStream source : sources) {
+          if (source.current != null && (first == null || source.compareTo(first) < 0)) first = source;
+        }
+        if (first == null) break;
+
+        // copies of the same element in other sources - keep the newest, and move all of them past it
+        OsmElement selected = first.current;
+        for (SourceStream source : sources) {
+          if (source == first || source.current == null || source.compareTo(first) != 0) continue;
+          if (isNewer(source.current, selected)) selected = source.current;
+          if (selected instanceof OsmNode) ++duplicateNodes;
+          else ++duplicateWays;
+          source.advance();
+        }
+        first.advance();
+
+        if (selected instanceof OsmNode) {
+          handler.onNode((OsmNode) selected);
+        } else if (waysToSkip > 0) {
+          --waysToSkip;
+        } else {
+          handler.onWay((OsmWay) selected);
+        }
+
+      }
+
+      System.out.println("merged " + sources.size() + " sources - skipped duplicates: " + duplicateNodes + " nodes, " + duplicateWays + " ways");
+
+    } finally {
+      // stops the readers if merging ended early
+      sourceExecutor.shutdownNow();
+    }
+
+  }
+
+  private static boolean isNewer(OsmElement element, OsmElement than) {
+    long version = getVersion(element);
+    long thanVersion = getVersion(than);
+    if (version != thanVersion) return version > thanVersion;
+    if (element instanceof OsmWay) return ((OsmWay) element).getNodeRefs().length > ((OsmWay) than).getNodeRefs().length;
+    return false;
+  }
+
+  private static long getVersion(OsmElement element) {
+    String version = element.getAttributes().get("version");
+    if (version == null) return -1;
+    try {
+      return Long.parseLong(version);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  // elements of one source - read in batches into a bounded queue by the source's thread, consumed by the merge
+  private static class SourceStream {
+
+    private final String name;
+    private final BlockingQueue<Object> batches = new ArrayBlockingQueue<Object>(QUEUED_BATCHES);
+
+    // batch being filled by the source's thread / consumed by the merge
+    private List<OsmElement> fillBatch = new ArrayList<OsmElement>(BATCH_ELEMENTS);
+    private List<OsmElement> batch;
+    private int batchPosition = 0;
+
+    OsmElement current;
+    private int currentType = -1;
+    private long currentId = Long.MIN_VALUE;
+
+    SourceStream(String name) {
+      this.name = name;
+    }
+
+    // runs on the source's thread
+    void fill(IOsmReader reader, IOsmElementHandler handler) {
+
+      try {
+
+        reader.read(new IOsmElementHandler() {
+
+          @Override
+          public void onNode(OsmNode node) {
+            this.add(node);
+          }
+
+          @Override
+          public void onWay(OsmWay way) {
+            this.add(way);
+          }
+
+          @Override
+          public boolean wantsNodes() {
+            return handler.wantsNodes();
+          }
+
+          @Override
+          public boolean wantsWays() {
+            return handler.wantsWays();
+          }
+
+          private void add(OsmElement element) {
+            fillBatch.add(element);
+            if (fillBatch.size() < BATCH_ELEMENTS) return;
+            put(fillBatch);
+            fillBatch = new ArrayList<OsmElement>(BATCH_ELEMENTS);
+          }
+
+        }, 0);
+
+        if (!this.fillBatch.isEmpty()) this.put(this.fillBatch);
+        this.put(END_OF_SOURCE);
+
+      } catch (CancellationException e) {
+        // merge ended early
+      } catch (Throwable e) {
+        this.batches.clear();
+        this.batches.offer(e);
+      }
+
+    }
+
+    private void put(Object batch) {
+      try {
+        this.batches.put(batch);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new CancellationException();
+      }
+    }
+
+    // moves to the source's next element (current is null at the end) - checks the source is sorted
+    @SuppressWarnings("unchecked")
+    void advance() throws Exception {
+
+      while (this.batch == null || this.batchPosition == this.batch.size()) {
+        Object next = this.batches.take();
+        if (next == END_OF_SOURCE) {
+          this.current = null;
+          return;
+        }
+        if (next instanceof Throwable) throw new IllegalStateException("failed to read " + this.name, (Throwable) next);
+        this.batch = (List<OsmElement>) next;
+        this.batchPosition = 0;
+      }
+
+      OsmElement element = this.batch.get(this.batchPosition++);
+      int type = element instanceof OsmNode ? 0 : 1;
+      if (type < this.currentType || (type == this.currentType && element.getId() <= this.currentId)) {
+        throw new IllegalStateException(this.name + " is not sorted by element type and id (at " + (type == 0 ? "node " : "way ") + element.getId() + ") - merging requires sorted files, e.g. sorted with osmium sort");
+      }
+      this.current = element;
+      this.currentType = type;
+      this.currentId = element.getId();
+
+    }
+
+    int compareTo(SourceStream other) {
+      if (this.currentType != other.currentType) return Integer.compare(this.currentType, other.currentType);
+      return Long.compare(this.currentId, other.currentId);
+    }
+
+  }
+
+}
@@ -0,0 +1,438 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmElement;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmFileInput;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// Reads OSM PBF files (https://wiki.openstreetmap.org/wiki/PBF_Format). File blocks are read sequentially, but
+//  decompressed and decoded in parallel on a worker pool; decoded blocks are handed to the handler in file order
+//  on the calling thread, so handlers see the same element order as with the XML reader.
+public class PbfOsmReader implements IOsmReader {
+
+  private static final int MAX_BLOB_HEADER_SIZE = 64 * 1024;
+  private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+
+  private static final String[] SUPPORTED_FEATURES = { "OsmSchema-V0.6", "DenseNodes" };
+
+  protected String osmFilePath;
+  protected int decodeThreads;
+
+  public PbfOsmReader(String osmFilePath) {
+    this(osmFilePath, Runtime.getRuntime().availableProcessors());
+  }
+
+  public PbfOsmReader(String osmFilePath, int decodeThreads) {
+    this.osmFilePath = osmFilePath;
+    this.decodeThreads = Math.max(1, decodeThreads);
+  }
+
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception {
+
+    ExecutorService decodePool = Executors.newFixedThreadPool(this.decodeThreads, runnable -> {
+      Thread thread = new Thread(runnable, "osm-pbf-decoder");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    // bound the number of blocks in flight so memory stays flat regardless of file size
+    int maxPendingBlocks = this.decodeThreads * 2;
+
+    // element types the handler does not consume are skipped while decoding
+    boolean decodeNodes = handler.wantsNodes();
+    boolean decodeWays = handler.wantsWays();
+
+    // ways to pass over - blocks are decoded in parallel, so skipping happens on dispatch
+    long[] remainingSkipWays = { skipWays };
+    ArrayDeque<Future<List<OsmElement>>> pendingBlocks = new ArrayDeque<Future<List<OsmElement>>>();
+
+    try (DataInputStream input = new DataInputStream(OsmFileInput.open(this.osmFilePath))) {
+
+      while (true) {
+
+        // each file block: 4 byte big-endian BlobHeader length, BlobHeader, Blob
+        int blobHeaderLength;
+        try {
+          blobHeaderLength = input.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (blobHeaderLength < 0 || blobHeaderLength > MAX_BLOB_HEADER_SIZE) throw new IOException("invalid PBF blob header size " + blobHeaderLength);
+
+        byte[] blobHeaderBytes = new byte[blobHeaderLength];
+        input.readFully(blobHeaderBytes);
+
+        String blobType = null;
+        int blobSize = -1;
+        ProtobufInput blobHeader = new ProtobufInput(blobHeaderBytes);
+        for (int key = blobHeader.readKey(); key != 0; key = blobHeader.readKey()) {
+          switch (ProtobufInput.fieldNumber(key)) {
+            case 1: blobType = blobHeader.readString(); break;
+            case 3: blobSize = (int) blobHeader.readVarint(); break;
+            default: blobHeader.skipField(key);
+          }
+        }
+        if (blobSize < 0 || blobSize > MAX_BLOB_SIZE) throw new IOException("invalid PBF blob size " + blobSize);
+
+        byte[] blobBytes = new byte[blobSize];
+        input.readFully(blobBytes);
+
+        if ("OSMHeader".equals(blobType)) {
+          checkHeaderBlock(decodeBlob(blobBytes));
+        } else if ("OSMData".equals(blobType)) {
+          pendingBlocks.add(decodePool.submit(() -> decodePrimitiveBlock(decodeBlob(blobBytes), decodeNodes, decodeWays)));
+          if (pendingBlocks.size() >= maxPendingBlocks) dispatchBlock(takeBlock(pendingBlocks.poll()), handler, remainingSkipWays);
+        }
+        // unknown blob types are skipped, as required by the format
+
+      }
+
+      while (!pendingBlocks.isEmpty()) dispatchBlock(takeBlock(pendingBlocks.poll()), handler, remainingSkipWays);
+
+    } finally {
+      for (Future<List<OsmElement>> pendingBlock : pendingBlocks) pendingBlock.cancel(true);
+      decodePool.shutdownNow();
+    }
+
+  }
+
+  // decoded elements of a block - decode failures are rethrown as they occurred on the worker (e.g. the IOException of
+  //  a corrupt blob), not wrapped in an ExecutionException
+  private static List<OsmElement> takeBlock(Future<List<OsmElement>> block) throws Exception {
+    try {
+      return block.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) throw (Exception) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw e;
+    }
+  }
+
+  private static void dispatchBlock(List<OsmElement> elements, IOsmElementHandler handler, long[] remainingSkipWays) {
+    for (OsmElement element : elements) {
+      if (element instanceof OsmNode) handler.onNode((OsmNode) element);
+      else if (remainingSkipWays[0] > 0) --remainingSkipWays[0];
+      else handler.onWay((OsmWay) element);
+    }
+  }
+
+  // returns the uncompressed content of a Blob message
+  private static byte[] decodeBlob(byte[] blobBytes) throws IOException {
+
+    byte[] raw = null;
+    byte[] zlibData = null;
+    int rawSize = -1;
+
+    ProtobufInput blob = new ProtobufInput(blobBytes);
+    for (int key = blob.readKey(); key != 0; key = blob.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1: raw = blob.readBytes(); break;
+        case 2: rawSize = (int) blob.readVarint(); break;
+        case 3: zlibData = blob.readBytes(); break;
+        case 4: throw new IOException("LZMA compressed PBF blobs are not supported");
+        case 6: throw new IOException("LZ4 compressed PBF blobs are not supported");
+        case 7: throw new IOException("ZSTD compressed PBF blobs are not supported");
+        default: blob.skipField(key);
+      }
+    }
+
+    if (raw != null) return raw;
+    if (zlibData == null || rawSize < 0) throw new IOException("PBF blob contains no supported data");
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(zlibData);
+      byte[] data = new byte[rawSize];
+      int inflated = 0;
+      while (inflated < rawSize && !inflater.finished()) {
+        int count = inflater.inflate(data, inflated, rawSize - inflated);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        inflated += count;
+      }
+      if (inflated != rawSize) throw new IOException("PBF blob inflated to " + inflated + " bytes, expected " + rawSize);
+      return data;
+    } catch (DataFormatException e) {
+      throw new IOException("corrupt PBF blob - " + e.getMessage(), e);
+    } finally {
+      inflater.end();
+    }
+
+  }
+
+  private static void checkHeaderBlock(byte[] headerBytes) throws IOException {
+    ProtobufInput header = new ProtobufInput(headerBytes);
+    for (int key = header.readKey(); key != 0; key = header.readKey()) {
+      if (ProtobufInput.fieldNumber(key) == 4) {
+        String requiredFeature = header.readString();
+        if (!Arrays.asList(SUPPORTED_FEATURES).contains(requiredFeature)) {
+          throw new IOException("PBF file requires unsupported feature " + requiredFeature);
+        }
+      } else {
+        header.skipField(key);
+      }
+    }
+  }
+
+  private static List<OsmElement> decodePrimitiveBlock(byte[] blockBytes, boolean decodeNodes, boolean decodeWays) {
+
+    // block level settings - string table and coordinate/date encoding; groups are decoded once these are known
+    List<String> stringTable = new ArrayList<String>();
+    List<ProtobufInput> primitiveGroups = new ArrayList<ProtobufInput>();
+    PrimitiveBlockSettings settings = new PrimitiveBlockSettings();
+
+    ProtobufInput block = new ProtobufInput(blockBytes);
+    for (int key = block.readKey(); key != 0; key = block.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1:
+          ProtobufInput strings = block.readMessage();
+          for (int stringKey = strings.readKey(); stringKey != 0; stringKey = strings.readKey()) {
+            if (ProtobufInput.fieldNumber(stringKey) == 1) stringTable.add(strings.readString());
+            else strings.skipField(stringKey);
+          }
+          break;
+        case 2: primitiveGroups.add(block.readMessage()); break;
+        case 17: settings.granularity = block.readVarint(); break;
+        case 18: settings.dateGranularity = block.readVarint(); break;
+        case 19: settings.latOffset = block.readVarint(); break;
+        case 20: settings.lonOffset = block.readVarint(); break;
+        default: block.skipField(key);
+      }
+    }
+    settings.stringTable = stringTable.toArray(new String[0]);
+
+    List<OsmElement> elements = new ArrayList<OsmElement>();
+    for (ProtobufInput group : primitiveGroups) {
+      for (int key = group.readKey(); key != 0; key = group.readKey()) {
+        switch (ProtobufInput.fieldNumber(key)) {
+          case 1: if (decodeNodes) elements.add(decodeNode(group.readMessage(), settings)); else group.skipField(key); break;
+          case 2: if (decodeNodes) decodeDenseNodes(group.readMessage(), settings, elements); else group.skipField(key); break;
+          case 3: if (decodeWays) elements.add(decodeWay(group.readMessage(), settings)); else group.skipField(key); break;
+          default: group.skipField(key); // relations and changesets are not loaded
+        }
+      }
+    }
+    return elements;
+
+  }
+
+  private static OsmNode decodeNode(ProtobufInput message, PrimitiveBlockSettings settings) {
+
+    long id = 0, lat = 0, lon = 0;
+    long[] keys = new long[0], values = new long[0];
+    Map<String, String> infoAttributes = null;
+
+    for (int key = message.readKey(); key != 0; key = message.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1: id = message.readSignedVarint(); break;
+        case 2: keys = readPackedVarints(message); break;
+        case 3: values = readPackedVarints(message); break;
+        case 4: infoAttributes = decodeInfo(message.readMessage(), settings); break;
+        case 8: lat = message.readSignedVarint(); break;
+        case 9: lon = message.readSignedVarint(); break;
+        default: message.skipField(key);
+      }
+    }
+
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    for (int i = 0; i < keys.length; ++i) tags.put(settings.stringTable[(int) keys[i]], settings.stringTable[(int) values[i]]);
+
+    return buildNode(id, lat, lon, infoAttributes, tags, settings);
+
+  }
+
+  private static void decodeDenseNodes(ProtobufInput message, PrimitiveBlockSettings settings, List<OsmElement> elements) {
+
+    long[] ids = new long[0], lats = new long[0], lons = new long[0], keysVals = new long[0];
+    ProtobufInput denseInfo = null;
+
+    for (int key = message.readKey(); key != 0; key = message.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1: ids = readPackedSignedVarints(message); break;
+        case 5: denseInfo = message.readMessage(); break;
+        case 8: lats = readPackedSignedVarints(message); break;
+        case 9: lons = readPackedSignedVarints(message); break;
+        case 10: keysVals = readPackedVarints(message); break;
+        default: message.skipField(key);
+      }
+    }
+
+    // dense info columns - all but version are delta coded
+    long[] versions = null, timestamps = null, changesets = null, uids = null, userSids = null;
+    if (denseInfo != null) {
+      for (int key = denseInfo.readKey(); key != 0; key = denseInfo.readKey()) {
+        switch (ProtobufInput.fieldNumber(key)) {
+          case 1: versions = readPackedVarints(denseInfo); break;
+          case 2: timestamps = readPackedSignedVarints(denseInfo); break;
+          case 3: changesets = readPackedSignedVarints(denseInfo); break;
+          case 4: uids = readPackedSignedVarints(denseInfo); break;
+          case 5: userSids = readPackedSignedVarints(denseInfo); break;
+          default: denseInfo.skipField(key);
+        }
+      }
+    }
+
+    long id = 0, lat = 0, lon = 0, timestamp = 0, changeset = 0, uid = 0, userSid = 0;
+    int keysValsIndex = 0;
+    for (int i = 0; i < ids.length; ++i) {
+
+      id += ids[i];
+      lat += lats[i];
+      lon += lons[i];
+
+      Map<String, String> infoAttributes = null;
+      if (versions != null) {
+        if (timestamps != null) timestamp += timestamps[i];
+        if (changesets != null) changeset += changesets[i];
+        if (uids != null) uid += uids[i];
+        if (userSids != null) userSid += userSids[i];
+        infoAttributes = buildInfoAttributes((int) versions[i], timestamp, changeset, uid, (int) userSid, settings);
+      }
+
+      // keys_vals holds (key, value) string indexes per node, each node terminated by a 0
+      Map<String, String> tags = new LinkedHashMap<String, String>();
+      while (keysValsIndex < keysVals.length && keysVals[keysValsIndex] != 0) {
+        tags.put(settings.stringTable[(int) keysVals[keysValsIndex]], settings.stringTable[(int) keysVals[keysValsIndex + 1]]);
+        keysValsIndex += 2;
+      }
+      ++keysValsIndex;
+
+      elements.add(buildNode(id, lat, lon, infoAttributes, tags, settings));
+
+    }
+
+  }
+
+  private static OsmWay decodeWay(ProtobufInput message, PrimitiveBlockSettings settings) {
+
+    long id = 0;
+    long[] keys = new long[0], values = new long[0], refs = new long[0];
+    Map<String, String> infoAttributes = null;
+
+    for (int key = message.readKey(); key != 0; key = message.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1: id = message.readVarint(); break;
+        case 2: keys = readPackedVarints(message); break;
+        case 3: values = readPackedVarints(message); break;
+        case 4: infoAttributes = decodeInfo(message.readMessage(), settings); break;
+        case 8: refs = readPackedSignedVarints(message); break;
+        default: message.skipField(key);
+      }
+    }
+
+    // refs are delta coded
+    for (int i = 1; i < refs.length; ++i) refs[i] += refs[i - 1];
+
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    attributes.put("id", Long.toString(id));
+    if (infoAttributes != null) attributes.putAll(infoAttributes);
+
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    for (int i = 0; i < keys.length; ++i) tags.put(settings.stringTable[(int) keys[i]], settings.stringTable[(int) values[i]]);
+
+    return new OsmWay(id, refs, attributes, tags);
+
+  }
+
+  private static Map<String, String> decodeInfo(ProtobufInput message, PrimitiveBlockSettings settings) {
+    int version = -1;
+    long timestamp = 0, changeset = 0, uid = 0;
+    int userSid = 0;
+    for (int key = message.readKey(); key != 0; key = message.readKey()) {
+      switch (ProtobufInput.fieldNumber(key)) {
+        case 1: version = (int) message.readVarint(); break;
+        case 2: timestamp = message.readVarint(); break;
+        case 3: changeset = message.readVarint(); break;
+        case 4: uid = (int) message.readVarint(); break;
+        case 5: userSid = (int) message.readVarint(); break;
+        default: message.skipField(key);
+      }
+    }
+    return buildInfoAttributes(version, timestamp, changeset, uid, userSid, settings);
+  }
+
+  // mirrors the attributes an XML export carries - metadata absent from the file (zero/empty) is left out
+  private static Map<String, String> buildInfoAttributes(int version, long timestamp, long changeset, long uid, int userSid, PrimitiveBlockSettings settings) {
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    if (version >= 0) attributes.put("version", Integer.toString(version));
+    if (timestamp > 0) attributes.put("timestamp", Instant.ofEpochMilli(timestamp * settings.dateGranularity).toString());
+    if (changeset > 0) attributes.put("changeset", Long.toString(changeset));
+    if (userSid > 0) {
+      attributes.put("user", settings.stringTable[userSid]);
+      attributes.put("uid", Long.toString(uid));
+    }
+    return attributes;
+  }
+
+  private static OsmNode buildNode(long id, long rawLat, long rawLon, Map<String, String> infoAttributes, Map<String, String> tags, PrimitiveBlockSettings settings) {
+
+    // coordinates are rendered the way OSM XML writes them (plain decimal, no trailing zeros) so the flattened
+    //  lat/lon properties match an XML load of the same data
+    String lat = toDegreesString(settings.latOffset + settings.granularity * rawLat);
+    String lon = toDegreesString(settings.lonOffset + settings.granularity * rawLon);
+
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    attributes.put("id", Long.toString(id));
+    attributes.put("lat", lat);
+    attributes.put("lon", lon);
+    if (infoAttributes != null) attributes.putAll(infoAttributes);
+
+    return new OsmNode(id, Double.parseDouble(lat), Double.parseDouble(lon), attributes, tags);
+
+  }
+
+  private static String toDegreesString(long nanoDegrees) {
+    return BigDecimal.valueOf(nanoDegrees, 9).stripTrailingZeros().toPlainString();
+  }
+
+  private static long[] readPackedVarints(ProtobufInput message) {
+    ProtobufInput packed = message.readMessage();
+    long[] values = new long[16];
+    int count = 0;
+    while (packed.hasRemaining()) {
+      if (count == values.length) values = Arrays.copyOf(values, count * 2);
+      values[count++] = packed.readVarint();
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  private static long[] readPackedSignedVarints(ProtobufInput message) {
+    ProtobufInput packed = message.readMessage();
+    long[] values = new long[16];
+    int count = 0;
+    while (packed.hasRemaining()) {
+      if (count == values.length) values = Arrays.copyOf(values, count * 2);
+      values[count++] = packed.readSignedVarint();
+    }
+    return Arrays.copyOf(values, count);
+  }
+
+  private static class PrimitiveBlockSettings {
+    String[] stringTable;
+    long granularity = 100;
+    long dateGranularity = 1000;
+    long latOffset = 0;
+    long lonOffset = 0;
+  }
+
+}
@@ -0,0 +1,103 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.nio.charset.StandardCharsets;
+
+// Minimal protocol buffers wire-format reader over a byte array - just enough to decode the OSM PBF messages
+//  without generated classes. Length-delimited fields are exposed as sub-readers sharing the same array.
+class ProtobufInput {
+
+  static final int WIRETYPE_VARINT = 0;
+  static final int WIRETYPE_FIXED64 = 1;
+  static final int WIRETYPE_LENGTH_DELIMITED = 2;
+  static final int WIRETYPE_FIXED32 = 5;
+
+  private final byte[] buffer;
+  private int position;
+  private final int limit;
+
+  ProtobufInput(byte[] buffer) {
+    this(buffer, 0, buffer.length);
+  }
+
+  ProtobufInput(byte[] buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.position = offset;
+    this.limit = offset + length;
+  }
+
+  boolean hasRemaining() {
+    return this.position < this.limit;
+  }
+
+  // returns the next field key (field number << 3 | wire type), or 0 at the end of the message
+  int readKey() {
+    if (this.position >= this.limit) return 0;
+    return (int) this.readVarint();
+  }
+
+  static int fieldNumber(int key) {
+    return key >>> 3;
+  }
+
+  static int wireType(int key) {
+    return key & 0x7;
+  }
+
+  long readVarint() {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = this.buffer[this.position++];
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return result;
+    }
+    throw new IllegalStateException("malformed varint");
+  }
+
+  long readSignedVarint() {
+    long raw = this.readVarint();
+    return (raw >>> 1) ^ -(raw & 1);
+  }
+
+  ProtobufInput readMessage() {
+    int length = (int) this.readVarint();
+    ProtobufInput message = new ProtobufInput(this.buffer, this.position, length);
+    this.position += length;
+    return message;
+  }
+
+  String readString() {
+    int length = (int) this.readVarint();
+    String value = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+    this.position += length;
+    return value;
+  }
+
+  byte[] readBytes() {
+    int length = (int) this.readVarint();
+    byte[] value = new byte[length];
+    System.arraycopy(this.buffer, this.position, value, 0, length);
+    this.position += length;
+    return value;
+  }
+
+  void skipField(int key) {
+    switch (wireType(key)) {
+      case WIRETYPE_VARINT:
+        this.readVarint();
+        break;
+      case WIRETYPE_FIXED64:
+        this.position += 8;
+        break;
+      case WIRETYPE_LENGTH_DELIMITED:
+        int length = (int) this.readVarint();
+        this.position += length;
+        break;
+      case WIRETYPE_FIXED32:
+        this.position += 4;
+        break;
+      default:
+        throw new IllegalStateException("unsupported protobuf wire type " + wireType(key));
+    }
+  }
+
+}
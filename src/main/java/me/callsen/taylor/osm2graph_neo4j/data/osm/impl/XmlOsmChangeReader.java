@@ -0,0 +1,130 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmChangeHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmChangeType;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmFileInput;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// Streams osmChange (.osc) files - <osmChange> holding <create>, <modify> and <delete> sections of nodes and ways.
+//  As a plain IOsmReader it delivers the new state of created and modified elements (deletes are skipped).
+public class XmlOsmChangeReader implements IOsmReader {
+
+  protected String osmChangeFilePath;
+
+  public XmlOsmChangeReader(String osmChangeFilePath) {
+    this.osmChangeFilePath = osmChangeFilePath;
+  }
+
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception {
+
+    this.readChanges(new IOsmChangeHandler(){
+
+      long remainingSkipWays = skipWays;
+
+      @Override
+      public void onNode(OsmChangeType changeType, OsmNode node) {
+        if (changeType != OsmChangeType.DELETE) handler.onNode(node);
+      }
+
+      @Override
+      public void onWay(OsmChangeType changeType, OsmWay way) {
+        if (changeType == OsmChangeType.DELETE) return;
+        if (remainingSkipWays > 0) --remainingSkipWays;
+        else handler.onWay(way);
+      }
+
+      @Override
+      public boolean wantsNodes() {
+        return handler.wantsNodes();
+      }
+
+      @Override
+      public boolean wantsWays() {
+        return handler.wantsWays();
+      }
+
+    });
+
+  }
+
+  public void readChanges(IOsmChangeHandler handler) throws Exception {
+
+    try (InputStream inputStream = OsmFileInput.open(this.osmChangeFilePath)) {
+      this.readChanges(inputStream, handler);
+    }
+
+  }
+
+  public void readChanges(InputStream inputStream, IOsmChangeHandler handler) throws Exception {
+
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+
+    try {
+
+      boolean wantsNodes = handler.wantsNodes();
+      boolean wantsWays = handler.wantsWays();
+
+      // depth 1 is the <osmChange> root, depth 2 the change sections, depth 3 the elements
+      OsmChangeType changeType = null;
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          ++depth;
+          if (depth == 1 && !"osmChange".equals(reader.getLocalName())) throw new IllegalStateException("not an osmChange document: <" + reader.getLocalName() + ">");
+
+          if (depth == 2) {
+            // unknown sections are skipped
+            changeType = getChangeType(reader.getLocalName());
+            if (changeType == null) {
+              XmlOsmReader.skipElement(reader);
+              --depth;
+            }
+            continue;
+          }
+          if (depth != 3) continue;
+
+          String elementName = reader.getLocalName();
+          if ("node".equals(elementName) && wantsNodes) {
+            handler.onNode(changeType, XmlOsmReader.readNode(reader));
+          } else if ("way".equals(elementName) && wantsWays) {
+            handler.onWay(changeType, XmlOsmReader.readWay(reader));
+          } else {
+            // relations are not loaded
+            XmlOsmReader.skipElement(reader);
+          }
+          --depth;
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          --depth;
+        }
+      }
+
+    } finally {
+      reader.close();
+    }
+
+  }
+
+  private static OsmChangeType getChangeType(String sectionName) {
+    switch (sectionName) {
+      case "create": return OsmChangeType.CREATE;
+      case "modify": return OsmChangeType.MODIFY;
+      case "delete": return OsmChangeType.DELETE;
+      default: return null;
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+package me.callsen.taylor.osm2graph_neo4j.data.osm.impl;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmFileInput;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+public class XmlOsmReader implements IOsmReader {
+
+  protected String osmFilePath;
+
+  public XmlOsmReader(String osmFilePath) {
+    this.osmFilePath = osmFilePath;
+  }
+
+  public void read(IOsmElementHandler handler, long skipWays) throws Exception {
+
+    try (InputStream inputStream = OsmFileInput.open(this.osmFilePath)) {
+      this.read(inputStream, handler, skipWays);
+    }
+
+  }
+
+  public void read(InputStream inputStream, IOsmElementHandler handler) throws Exception {
+    this.read(inputStream, handler, 0);
+  }
+
+  public void read(InputStream inputStream, IOsmElementHandler handler, long skipWays) throws Exception {
+
+    // StAX pull parser - elements are read straight into typed records (no DOM, string or JSON round trip)
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+    XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+
+    try {
+
+      boolean wantsNodes = handler.wantsNodes();
+      boolean wantsWays = handler.wantsWays();
+
+      // depth 1 is the <osm> root; nodes and ways are its direct children
+      int depth = 0;
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          ++depth;
+          if (depth == 1 && !"osm".equals(reader.getLocalName())) return;
+          if (depth != 2) continue;
+
+          // element types the handler does not consume are skipped without building records
+          String elementName = reader.getLocalName();
+          if ("node".equals(elementName)) {
+            if (wantsNodes) handler.onNode(readNode(reader));
+            else skipElement(reader);
+            --depth;
+          } else if ("way".equals(elementName)) {
+            if (wantsWays && skipWays <= 0) handler.onWay(readWay(reader));
+            else skipElement(reader);
+            --skipWays;
+            --depth;
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          --depth;
+        }
+      }
+
+    } finally {
+      reader.close();
+    }
+
+  }
+
+  // reads a <node> element, leaving the reader positioned on its end tag
+  static OsmNode readNode(XMLStreamReader reader) throws Exception {
+
+    Map<String, String> attributes = readAttributes(reader);
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if ("tag".equals(reader.getLocalName())) readTag(reader, tags);
+        skipElement(reader);
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        break;
+      }
+    }
+
+    // coordinates are absent on deleted nodes of change files
+    return new OsmNode(
+        Long.parseLong(attributes.get("id")),
+        attributes.containsKey("lat") ? Double.parseDouble(attributes.get("lat")) : Double.NaN,
+        attributes.containsKey("lon") ? Double.parseDouble(attributes.get("lon")) : Double.NaN,
+        attributes,
+        tags);
+
+  }
+
+  // reads a <way> element, leaving the reader positioned on its end tag
+  static OsmWay readWay(XMLStreamReader reader) throws Exception {
+
+    Map<String, String> attributes = readAttributes(reader);
+    Map<String, String> tags = new LinkedHashMap<String, String>();
+    long[] nodeRefs = new long[16];
+    int nodeRefCount = 0;
+
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        String childName = reader.getLocalName();
+        if ("nd".equals(childName)) {
+          if (nodeRefCount == nodeRefs.length) nodeRefs = Arrays.copyOf(nodeRefs, nodeRefCount * 2);
+          nodeRefs[nodeRefCount++] = Long.parseLong(reader.getAttributeValue(null, "ref"));
+        } else if ("tag".equals(childName)) {
+          readTag(reader, tags);
+        }
+        skipElement(reader);
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        break;
+      }
+    }
+
+    return new OsmWay(
+        Long.parseLong(attributes.get("id")),
+        Arrays.copyOf(nodeRefs, nodeRefCount),
+        attributes,
+        tags);
+
+  }
+
+  private static Map<String, String> readAttributes(XMLStreamReader reader) {
+    Map<String, String> attributes = new LinkedHashMap<String, String>();
+    for (int i = 0; i < reader.getAttributeCount(); ++i) {
+      attributes.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+    }
+    return attributes;
+  }
+
+  private static void readTag(XMLStreamReader reader, Map<String, String> tags) {
+    String key = reader.getAttributeValue(null, "k");
+    String value = reader.getAttributeValue(null, "v");
+    if (key != null && value != null) tags.put(key, value);
+  }
+
+  // advances the reader to the end tag matching the current start tag
+  static void skipElement(XMLStreamReader reader) throws Exception {
+    int depth = 1;
+    while (depth > 0 && reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) ++depth;
+      else if (event == XMLStreamConstants.END_ELEMENT) --depth;
+    }
+  }
+
+}
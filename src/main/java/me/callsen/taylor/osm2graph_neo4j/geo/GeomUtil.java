@@ -1,61 +1,71 @@
 package me.callsen.taylor.osm2graph_neo4j.geo;
 
-import org.geotools.geometry.jts.JTSFactoryFinder;
-import org.locationtech.jts.geom.LineString;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.io.ParseException;
-import org.locationtech.jts.io.WKTReader;
+import java.util.Map;
 
-import org.json.JSONObject;
-import org.json.JSONArray;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
 
 public class GeomUtil {
 
-  //shared static references to geometry libraries
-  private static GeometryFactory geometryFactory = JTSFactoryFinder.getGeometryFactory( null );
-  public static WKTReader reader = new WKTReader( geometryFactory );
+  private static final LoadMetrics.Counter missingNodes = LoadMetrics.get().counter("failures.missing_way_nodes");
 
-  public static void setWayGeometry( INodeShapeSource nodeShapeSource, JSONObject wayPropsObject , JSONArray wayNodesList , int wayStartIndex , int wayEndIndex ) {
-    
-    try {
-    
-      String lineString = "LINESTRING(";
-        
-        //assemble list of the osm node attrId refs for attachment to the way 
-        //	so that this chunk of the way always know what original OSM nodes were a part of it, even if nodes are not full intersections
-        JSONArray refOsmNodes = new JSONArray();
-        
-        //need to handle either forward or backward traversal through wayNodesList
-        if ( wayStartIndex < wayEndIndex ) {
-          for (int i=wayStartIndex; i<=wayEndIndex; i++) {
-            long refNodeId = wayNodesList.getJSONObject(i).getLong("ref");
-            lineString += nodeShapeSource.getNodeLonLatString(refNodeId) + ",";
-            refOsmNodes.put(wayNodesList.getJSONObject(i));
-          }
-        } else if ( wayStartIndex > wayEndIndex ) {
-          for (int i=wayStartIndex; i>=wayEndIndex; i--) {
-            long refNodeId = wayNodesList.getJSONObject(i).getLong("ref");
-            lineString += nodeShapeSource.getNodeLonLatString(refNodeId) + ",";
-            refOsmNodes.put(wayNodesList.getJSONObject(i));
-          }
-        }
-        
-        lineString = lineString.substring(0, lineString.length()-1) + ")";
-        wayPropsObject.put("way", lineString);
-        
-        //append list of osm node attrId refs
-        wayPropsObject.put("refOsmNodes", refOsmNodes.toString());
-        
-        // utilize geotools library to compute length of road
-        LineString lineStringGeom = getLineStringFromWkt(lineString);
-        wayPropsObject.put("length", lineStringGeom.getLength() * (Math.PI/180) * 6378137); //http://gis.stackexchange.com/questions/14449/java-vividsolutions-jts-wgs-84-distance-to-meters
-    
-    } catch (Exception e) { e.printStackTrace(); }
-        
+  // sets the segment geometry props: "geom" (WayCoordinates, converted to points by the graph writer), "way" (WKT),
+  //  "refOsmNodes" and "length" (meters). Coordinates are collected once into a primitive array and everything else
+  //  is derived from it. Safe to call from multiple threads (no shared state besides the shape source).
+  // returns false if the geometry could not be built (e.g. a node ref is missing from the source)
+  public static boolean setWayGeometry( INodeShapeSource nodeShapeSource, Map<String, Object> wayPropsObject , long[] wayNodeRefs , int wayStartIndex , int wayEndIndex ) {
+    return setWayGeometry(nodeShapeSource, wayPropsObject, wayNodeRefs, wayStartIndex, wayEndIndex, false);
   }
 
-  public static LineString getLineStringFromWkt(String wktString) throws ParseException {
-    return (LineString) reader.read(wktString);
+  // compact - no "way" WKT copy of the geometry, and "refOsmNodes" as long[] instead of a JSON string (see PropertySchema)
+  public static boolean setWayGeometry( INodeShapeSource nodeShapeSource, Map<String, Object> wayPropsObject , long[] wayNodeRefs , int wayStartIndex , int wayEndIndex , boolean compact ) {
+    
+    //need to handle either forward or backward traversal through wayNodeRefs
+    int step = wayStartIndex <= wayEndIndex ? 1 : -1;
+    int pointCount = Math.abs(wayEndIndex - wayStartIndex) + 1;
+
+    // a segment always runs between two distinct nodes; anything shorter can't form a linestring
+    if (pointCount < 2) return false;
+
+    double[] lonLats = new double[pointCount * 2];
+    long[] refNodeIds = new long[pointCount];
+
+    // reused across points - filled by the primitive shape source lookup
+    double[] lonLat = new double[2];
+
+    for (int point = 0, i = wayStartIndex; point < pointCount; ++point, i += step) {
+      long refNodeId = wayNodeRefs[i];
+      if (!nodeShapeSource.getNodeLonLat(refNodeId, lonLat)) {
+        // counted, not printed - one line per missing ref from every worker floods the output on clipped extracts
+        missingNodes.increment();
+        return false;
+      }
+      lonLats[point * 2] = lonLat[0];
+      lonLats[point * 2 + 1] = lonLat[1];
+      refNodeIds[point] = refNodeId;
+    }
+
+    WayCoordinates wayCoordinates = new WayCoordinates(lonLats);
+    wayPropsObject.put("geom", wayCoordinates);
+    wayPropsObject.put("length", wayCoordinates.getLengthMeters());
+
+    //attach the osm node attrId refs to the way 
+    //	so that this chunk of the way always know what original OSM nodes were a part of it, even if nodes are not full intersections
+    if (compact) {
+      wayPropsObject.put("refOsmNodes", refNodeIds);
+      return true;
+    }
+
+    wayPropsObject.put("way", wayCoordinates.toWkt());
+    //  (serialized in the same JSON array form as the source nd elements, e.g. [{"ref":123},{"ref":456}])
+    StringBuilder refOsmNodes = new StringBuilder(pointCount * 20).append('[');
+    for (int point = 0; point < pointCount; ++point) {
+      if (point > 0) refOsmNodes.append(',');
+      refOsmNodes.append("{\"ref\":").append(refNodeIds[point]).append('}');
+    }
+    wayPropsObject.put("refOsmNodes", refOsmNodes.append(']').toString());
+
+    return true;
+        
   }
 
 }
\ No newline at end of file
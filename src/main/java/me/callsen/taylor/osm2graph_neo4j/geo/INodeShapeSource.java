@@ -2,6 +2,7 @@ package me.callsen.taylor.osm2graph_neo4j.geo;
 
 public interface INodeShapeSource {
 
-  public String getNodeLonLatString(Long osmId);
+  // writes lon into lonLat[0] and lat into lonLat[1]; returns false if the node is unknown
+  public boolean getNodeLonLat(long osmId, double[] lonLat);
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package me.callsen.taylor.osm2graph_neo4j.geo;
+
+// Immutable way segment geometry as interleaved lon/lat pairs - built once by GeomUtil.setWayGeometry() and
+//  converted by each graph writer to its own point representation (no WKT round trip)
+public final class WayCoordinates {
+
+  private static final double EARTH_RADIUS_METERS = 6371008.8; // mean earth radius (IUGG)
+
+  private final double[] lonLats;
+
+  public WayCoordinates(double[] lonLats) {
+    if (lonLats.length % 2 != 0) throw new IllegalArgumentException("coordinates must be lon/lat pairs");
+    this.lonLats = lonLats;
+  }
+
+  public int getNumPoints() {
+    return this.lonLats.length / 2;
+  }
+
+  public double getLon(int index) {
+    return this.lonLats[index * 2];
+  }
+
+  public double getLat(int index) {
+    return this.lonLats[index * 2 + 1];
+  }
+
+  // length in meters - sum of haversine distances between consecutive points
+  public double getLengthMeters() {
+    double length = 0;
+    for (int i = 2; i < this.lonLats.length; i += 2) {
+      length += haversineMeters(this.lonLats[i - 2], this.lonLats[i - 1], this.lonLats[i], this.lonLats[i + 1]);
+    }
+    return length;
+  }
+
+  public String toWkt() {
+    StringBuilder wkt = new StringBuilder(12 + this.lonLats.length * 12).append("LINESTRING(");
+    for (int i = 0; i < this.lonLats.length; i += 2) {
+      if (i > 0) wkt.append(',');
+      wkt.append(this.lonLats[i]).append(' ').append(this.lonLats[i + 1]);
+    }
+    return wkt.append(')').toString();
+  }
+
+  @Override
+  public String toString() {
+    return this.toWkt();
+  }
+
+  public static double haversineMeters(double lon1, double lat1, double lon2, double lat2) {
+    double sinHalfDeltaLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+    double sinHalfDeltaLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+    double a = sinHalfDeltaLat * sinHalfDeltaLat
+        + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * sinHalfDeltaLon * sinHalfDeltaLon;
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+}
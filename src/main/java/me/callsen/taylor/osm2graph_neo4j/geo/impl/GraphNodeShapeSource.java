@@ -1,45 +1,60 @@
 package me.callsen.taylor.osm2graph_neo4j.geo.impl;
 
-import java.util.Map;
+import java.util.List;
 
-import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
 
 import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
 import me.callsen.taylor.osm2graph_neo4j.geo.INodeShapeSource;
-import me.callsen.taylor.scenicrouting.javasdk.RoutingConstants;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
 
 public class GraphNodeShapeSource implements INodeShapeSource {
 
   protected GraphDbLoader graphDbLoader;
 
+  // each lookup is a query of its own - timed, since they dominate way loading when used
+  private final LoadMetrics.Timer lookupTimer = LoadMetrics.get().timer("graph.coordinate_lookup");
+  private final LoadMetrics.Counter failedLookups = LoadMetrics.get().counter("failures.coordinate_lookups");
+
   public GraphNodeShapeSource(GraphDbLoader graphDbLoader) throws Exception {
     this.graphDbLoader = graphDbLoader;
   }
 
-  public String getNodeLonLatString(Long osmId) {
-
-    String returnString = "POINT(0 0)"; 
+  // resolved like road relationship endpoints (node id cache, index seek on misses) - works while indexes are
+  //  deferred, as long as the cache has been rebuilt (see GraphDbLoader.rebuildNodeIdCache())
+  public boolean getNodeLonLat(long osmId, double[] lonLat) {
 
+    long lookupStart = this.lookupTimer.start();
     try ( Transaction tx = this.graphDbLoader.getTransaction() ) {
-      
-      // includes hint to use property index on osm_id
-      String cypherString = String.format("MATCH (n:%s {%s:%s}) USING INDEX n:%s RETURN n.lon, n.lat",
-          RoutingConstants.NodeLabels.INTERSECTION,
-          RoutingConstants.GRAPH_PROPERTY_NAME_OSM_ID,
-          osmId,
-          RoutingConstants.GRAPH_INDEX_NAME_INTERSECTION_OSM_ID);
-      Result result = tx.execute(cypherString);
-      Map<String,Object> row = result.next();
-      returnString = row.get("n.lon").toString() + " " + row.get("n.lat").toString();
+
+      Node node = this.graphDbLoader.findIntersectionNode(tx, osmId, false);
+      if (node == null) return false;
+
+      // prefer the full precision geom point - lon/lat properties are stored as floats
+      Object geom = node.getProperty("geom", null);
+      if (geom instanceof Point) {
+        List<Double> coords = ((Point) geom).getCoordinate().getCoordinate();
+        lonLat[0] = coords.get(0);
+        lonLat[1] = coords.get(1);
+      } else {
+        // parse via string so Float properties keep their short decimal form rather than their widened binary value
+        lonLat[0] = Double.parseDouble(node.getProperty("lon").toString());
+        lonLat[1] = Double.parseDouble(node.getProperty("lat").toString());
+      }
 
       tx.close();
+      return true;
     } catch (Exception e) {
-      System.out.println("failed to get lonLat string of osm id " + osmId); 
+      System.out.println("failed to get lonLat of osm id " + osmId); 
       e.printStackTrace();
+      this.failedLookups.increment();
+      return false;
+    } finally {
+      this.lookupTimer.stop(lookupStart);
     }
 
-    return returnString;
   }
 
 }
\ No newline at end of file
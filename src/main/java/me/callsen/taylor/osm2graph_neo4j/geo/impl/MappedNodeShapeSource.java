@@ -0,0 +1,170 @@
+package me.callsen.taylor.osm2graph_neo4j.geo.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.callsen.taylor.osm2graph_neo4j.geo.INodeShapeSource;
+
+// Off-heap osm_id -> (lon, lat) store backed by a memory-mapped temp file (scales past the heap for planet-sized
+//  inputs). Filled during the node pass; entries are 16 bytes: id, then lon and lat as fixed-point ints at OSM's
+//  native 1e-7 degree precision. Lookups binary search the id column - no Neo4j round trip and no boxing.
+public class MappedNodeShapeSource implements INodeShapeSource, AutoCloseable {
+
+  private static final int ENTRY_BYTES = 16;
+  private static final int CHUNK_SHIFT = 22; // 4M entries (64MB) per mapped chunk
+  private static final int CHUNK_ENTRIES = 1 << CHUNK_SHIFT;
+  private static final long CHUNK_MASK = CHUNK_ENTRIES - 1;
+
+  private static final double FIXED_POINT_SCALE = 1e7;
+
+  private final FileChannel channel;
+  private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+  private long size = 0;
+  private long lastId = Long.MIN_VALUE;
+  private boolean sorted = true;
+  private boolean sealed = false;
+
+  public MappedNodeShapeSource() throws IOException {
+    this(Path.of(System.getProperty("java.io.tmpdir")));
+  }
+
+  public MappedNodeShapeSource(Path directory) throws IOException {
+    Path storeFile = Files.createTempFile(directory, "osm2graph-nodes-", ".bin");
+    // file is removed when the channel closes; existing mappings stay valid until unreferenced
+    this.channel = FileChannel.open(storeFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+  }
+
+  public synchronized void add(long osmId, double lon, double lat) {
+
+    if (this.sealed) throw new IllegalStateException("node shape store is sealed");
+
+    int chunkIndex = (int) (this.size >>> CHUNK_SHIFT);
+    if (chunkIndex == this.chunks.size()) this.chunks.add(this.mapChunk(chunkIndex));
+
+    int offset = (int) (this.size & CHUNK_MASK) * ENTRY_BYTES;
+    ByteBuffer chunk = this.chunks.get(chunkIndex);
+    chunk.putLong(offset, osmId);
+    chunk.putInt(offset + 8, toFixedPoint(lon));
+    chunk.putInt(offset + 12, toFixedPoint(lat));
+
+    // OSM files are normally sorted by id - only fall back to sorting when they are not
+    if (osmId < this.lastId) this.sorted = false;
+    this.lastId = osmId;
+    ++this.size;
+
+  }
+
+  // finishes the fill phase - must be called before lookups (which are then safe from multiple threads)
+  public synchronized void seal() {
+    if (this.sealed) return;
+    if (!this.sorted) this.heapSort();
+    this.sealed = true;
+  }
+
+  public long size() {
+    return this.size;
+  }
+
+  public boolean getNodeLonLat(long osmId, double[] lonLat) {
+    long index = this.find(osmId);
+    if (index < 0) return false;
+    lonLat[0] = this.getLon(index);
+    lonLat[1] = this.getLat(index);
+    return true;
+  }
+
+  public void close() throws IOException {
+    this.chunks.clear();
+    this.channel.close();
+  }
+
+  private long find(long osmId) {
+
+    if (!this.sealed) throw new IllegalStateException("node shape store must be sealed before lookups");
+
+    long low = 0;
+    long high = this.size - 1;
+    while (low <= high) {
+      long mid = (low + high) >>> 1;
+      long midId = this.getId(mid);
+      if (midId < osmId) low = mid + 1;
+      else if (midId > osmId) high = mid - 1;
+      else return mid;
+    }
+    return -1;
+
+  }
+
+  private ByteBuffer mapChunk(int chunkIndex) {
+    try {
+      return this.channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * CHUNK_ENTRIES * ENTRY_BYTES, (long) CHUNK_ENTRIES * ENTRY_BYTES);
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to map node shape store chunk " + chunkIndex, e);
+    }
+  }
+
+  private ByteBuffer chunkOf(long index) {
+    return this.chunks.get((int) (index >>> CHUNK_SHIFT));
+  }
+
+  private static int offsetOf(long index) {
+    return (int) (index & CHUNK_MASK) * ENTRY_BYTES;
+  }
+
+  private long getId(long index) {
+    return this.chunkOf(index).getLong(offsetOf(index));
+  }
+
+  private double getLon(long index) {
+    return this.chunkOf(index).getInt(offsetOf(index) + 8) / FIXED_POINT_SCALE;
+  }
+
+  private double getLat(long index) {
+    return this.chunkOf(index).getInt(offsetOf(index) + 12) / FIXED_POINT_SCALE;
+  }
+
+  private static int toFixedPoint(double degrees) {
+    return (int) Math.round(degrees * FIXED_POINT_SCALE);
+  }
+
+  // in-place heap sort by id - keeps the fill phase append-only and avoids a second copy of the store
+  private void heapSort() {
+    for (long i = this.size / 2 - 1; i >= 0; --i) this.siftDown(i, this.size);
+    for (long end = this.size - 1; end > 0; --end) {
+      this.swap(0, end);
+      this.siftDown(0, end);
+    }
+  }
+
+  private void siftDown(long root, long end) {
+    while (true) {
+      long child = 2 * root + 1;
+      if (child >= end) return;
+      if (child + 1 < end && this.getId(child + 1) > this.getId(child)) ++child;
+      if (this.getId(root) >= this.getId(child)) return;
+      this.swap(root, child);
+      root = child;
+    }
+  }
+
+  private void swap(long a, long b) {
+    ByteBuffer chunkA = this.chunkOf(a);
+    ByteBuffer chunkB = this.chunkOf(b);
+    int offsetA = offsetOf(a);
+    int offsetB = offsetOf(b);
+    long id = chunkA.getLong(offsetA);
+    long lonLat = chunkA.getLong(offsetA + 8);
+    chunkA.putLong(offsetA, chunkB.getLong(offsetB));
+    chunkA.putLong(offsetA + 8, chunkB.getLong(offsetB + 8));
+    chunkB.putLong(offsetB, id);
+    chunkB.putLong(offsetB + 8, lonLat);
+  }
+
+}
@@ -0,0 +1,25 @@
+package me.callsen.taylor.osm2graph_neo4j.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("osm2graph.Commit")
+@Label("Graph Commit")
+@Category("osm2graph")
+@Description("Commit of a batch of writes to the graph database")
+public class CommitEvent extends jdk.jfr.Event {
+
+  @Label("Operations")
+  public long operations;
+
+  @Label("Estimated Transaction State")
+  @DataAmount
+  public long bytes;
+
+  @Label("Succeeded")
+  public boolean succeeded;
+
+}
@@ -0,0 +1,183 @@
+package me.callsen.taylor.osm2graph_neo4j.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+
+// Counters and latency timers of a run, shared by all load stages (parser thread, transform workers, writer).
+//  Metrics are created on first use by name - stages look them up once and keep the reference, so reset() zeroes
+//  them in place rather than replacing them. Updates are lock-free and safe from any thread.
+public final class LoadMetrics {
+
+  private static final LoadMetrics INSTANCE = new LoadMetrics();
+
+  // sorted by name, so related metrics (e.g. "ways.*") are listed together
+  private final Map<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+  private final Map<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+
+  private volatile long startMillis = System.currentTimeMillis();
+
+  private LoadMetrics() { }
+
+  public static LoadMetrics get() {
+    return INSTANCE;
+  }
+
+  // zeroes all metrics and restarts the run clock - called at the start of a run
+  public void reset() {
+    for (Counter counter : this.counters.values()) counter.reset();
+    for (Timer timer : this.timers.values()) timer.reset();
+    this.startMillis = System.currentTimeMillis();
+  }
+
+  public Counter counter(String name) {
+    return this.counters.computeIfAbsent(name, key -> new Counter());
+  }
+
+  public Timer timer(String name) {
+    return this.timers.computeIfAbsent(name, key -> new Timer());
+  }
+
+  public Map<String, Counter> getCounters() {
+    return this.counters;
+  }
+
+  public long getElapsedMillis() {
+    return System.currentTimeMillis() - this.startMillis;
+  }
+
+  // snapshot of all metrics that saw activity - counters by value, timers with latency percentiles
+  public JSONObject toJson() {
+
+    JSONObject counterValues = new JSONObject();
+    for (Map.Entry<String, Counter> counter : this.counters.entrySet()) {
+      if (counter.getValue().get() > 0) counterValues.put(counter.getKey(), counter.getValue().get());
+    }
+
+    JSONObject timerValues = new JSONObject();
+    for (Map.Entry<String, Timer> timer : this.timers.entrySet()) {
+      if (timer.getValue().getCount() > 0) timerValues.put(timer.getKey(), timer.getValue().toJson());
+    }
+
+    JSONObject json = new JSONObject();
+    json.put("elapsed_ms", this.getElapsedMillis());
+    json.put("counters", counterValues);
+    json.put("timers", timerValues);
+    return json;
+
+  }
+
+  // writes the snapshot along with details of the run (action, files, options, ..)
+  public void writeSummary(Path summaryPath, Map<String, Object> runDetails) throws IOException {
+    JSONObject summary = this.toJson();
+    summary.put("run", new JSONObject(runDetails));
+    Files.write(summaryPath, summary.toString(2).getBytes(StandardCharsets.UTF_8));
+  }
+
+  public static final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+      this.value.increment();
+    }
+
+    public void add(long amount) {
+      this.value.add(amount);
+    }
+
+    public long get() {
+      return this.value.sum();
+    }
+
+    private void reset() {
+      this.value.reset();
+    }
+
+  }
+
+  // latency timer with a power-of-two bucket histogram - percentiles are reported as the upper bound of their
+  //  bucket (within 2x of the actual value), which is plenty to tell a 50us lookup from a 5ms one
+  public static final class Timer {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS); // bucket b counts durations in [2^(b-1), 2^b)
+
+    public long start() {
+      return System.nanoTime();
+    }
+
+    // records the time since start() - returns the duration in nanos
+    public long stop(long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      this.record(nanos);
+      return nanos;
+    }
+
+    public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      this.count.increment();
+      this.totalNanos.add(nanos);
+      this.maxNanos.accumulateAndGet(nanos, Math::max);
+      this.buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    public long getCount() {
+      return this.count.sum();
+    }
+
+    public long getTotalNanos() {
+      return this.totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+      return this.maxNanos.get();
+    }
+
+    public long getPercentileNanos(double percentile) {
+      long count = this.getCount();
+      if (count == 0) return 0;
+      long rank = (long) Math.ceil(percentile * count);
+      long seen = 0;
+      for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+        seen += this.buckets.get(bucket);
+        if (seen >= rank) return Math.min(bucket < BUCKETS - 1 ? (1L << bucket) - 1 : Long.MAX_VALUE, this.getMaxNanos());
+      }
+      return this.getMaxNanos();
+    }
+
+    private JSONObject toJson() {
+      long count = this.getCount();
+      JSONObject json = new JSONObject();
+      json.put("count", count);
+      json.put("total_ms", this.getTotalNanos() / 1000000);
+      json.put("mean_us", count == 0 ? 0 : this.getTotalNanos() / count / 1000.0);
+      json.put("p50_us", this.getPercentileNanos(0.50) / 1000.0);
+      json.put("p95_us", this.getPercentileNanos(0.95) / 1000.0);
+      json.put("p99_us", this.getPercentileNanos(0.99) / 1000.0);
+      json.put("max_us", this.getMaxNanos() / 1000.0);
+      return json;
+    }
+
+    private void reset() {
+      this.count.reset();
+      this.totalNanos.reset();
+      this.maxNanos.set(0);
+      for (int bucket = 0; bucket < BUCKETS; ++bucket) this.buckets.set(bucket, 0);
+    }
+
+  }
+
+}
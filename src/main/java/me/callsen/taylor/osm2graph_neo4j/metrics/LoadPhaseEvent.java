@@ -0,0 +1,21 @@
+package me.callsen.taylor.osm2graph_neo4j.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JFR event spanning a load phase (e.g. the node or way pass) - record with -XX:StartFlightRecording
+@Name("osm2graph.LoadPhase")
+@Label("Load Phase")
+@Category("osm2graph")
+@Description("A pass over the OSM source that writes elements to the graph")
+public class LoadPhaseEvent extends jdk.jfr.Event {
+
+  @Label("Phase")
+  public String phase;
+
+  @Label("Elements Written")
+  public long elements;
+
+}
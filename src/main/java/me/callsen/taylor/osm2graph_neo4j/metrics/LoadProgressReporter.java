@@ -0,0 +1,56 @@
+package me.callsen.taylor.osm2graph_neo4j.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// prints the load counters (with their rate since the previous report) at a fixed interval - replaces progress
+//  lines every N elements, so a stalled import shows up as a rate dropping to zero instead of silence
+public class LoadProgressReporter implements AutoCloseable {
+
+  private final LoadMetrics metrics;
+  private final ScheduledExecutorService scheduler;
+
+  // counter values at the previous report
+  private final Map<String, Long> previousValues = new HashMap<String, Long>();
+  private long previousReportMillis;
+
+  public LoadProgressReporter(LoadMetrics metrics, long intervalSeconds) {
+    this.metrics = metrics;
+    this.previousReportMillis = System.currentTimeMillis();
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "osm-progress");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.scheduleAtFixedRate(this::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+  }
+
+  public void report() {
+
+    long now = System.currentTimeMillis();
+    double intervalSeconds = Math.max(1, now - this.previousReportMillis) / 1000.0;
+    this.previousReportMillis = now;
+
+    StringBuilder line = new StringBuilder("progress [" + (this.metrics.getElapsedMillis() / 1000) + "s]:");
+    for (Map.Entry<String, LoadMetrics.Counter> counter : this.metrics.getCounters().entrySet()) {
+      long value = counter.getValue().get();
+      if (value == 0) continue;
+      long previousValue = this.previousValues.getOrDefault(counter.getKey(), 0L);
+      this.previousValues.put(counter.getKey(), value);
+      line.append(' ').append(counter.getKey()).append('=').append(value)
+          .append(" (").append(Math.round((value - previousValue) / intervalSeconds)).append("/s)");
+    }
+    // nothing to report before the first element is read (e.g. while indexes are created)
+    if (!this.previousValues.isEmpty()) System.out.println(line);
+
+  }
+
+  @Override
+  public void close() {
+    this.scheduler.shutdownNow();
+  }
+
+}
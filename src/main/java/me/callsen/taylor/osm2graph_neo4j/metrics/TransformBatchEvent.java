@@ -0,0 +1,20 @@
+package me.callsen.taylor.osm2graph_neo4j.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("osm2graph.TransformBatch")
+@Label("Transform Batch")
+@Category("osm2graph")
+@Description("A batch of parsed elements turned into write-ready records by a transform worker")
+public class TransformBatchEvent extends jdk.jfr.Event {
+
+  @Label("Phase")
+  public String phase;
+
+  @Label("Elements")
+  public int elements;
+
+}
@@ -0,0 +1,294 @@
+package me.callsen.taylor.osm2graph_neo4j.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+// Collects intersections and road relationships as they are committed to the graph (see
+//  GraphDbLoader.setCsrAdjacencyBuilder()) or read back from a store, then writes them as a CSR adjacency file (see
+//  CsrAdjacencyFile for the layout). Everything is held in primitive arrays - 24 bytes per node and 21 per edge.
+//  Additions since the last commit() are discarded by rollback(), so the snapshot follows the commits of the load.
+public class CsrAdjacencyBuilder {
+
+  private static final double FIXED_POINT_SCALE = 1e7;
+
+  // nodes - osm_id, Neo4j node id and fixed-point coordinates
+  private long[] nodeOsmIds = new long[1024];
+  private long[] nodeNeo4jIds = new long[1024];
+  private int[] nodeLons = new int[1024];
+  private int[] nodeLats = new int[1024];
+  private int nodeCount = 0;
+  private int committedNodeCount = 0;
+
+  // edges - endpoints by osm_id (resolved to node indexes when written)
+  private long[] edgeSources = new long[1024];
+  private long[] edgeTargets = new long[1024];
+  private float[] edgeLengths = new float[1024];
+  private byte[] edgeClasses = new byte[1024];
+  private int edgeCount = 0;
+  private int committedEdgeCount = 0;
+
+  public synchronized void addNode(long osmId, long neo4jId, double lon, double lat) {
+    if (this.nodeCount == this.nodeOsmIds.length) {
+      int capacity = grow(this.nodeCount);
+      this.nodeOsmIds = Arrays.copyOf(this.nodeOsmIds, capacity);
+      this.nodeNeo4jIds = Arrays.copyOf(this.nodeNeo4jIds, capacity);
+      this.nodeLons = Arrays.copyOf(this.nodeLons, capacity);
+      this.nodeLats = Arrays.copyOf(this.nodeLats, capacity);
+    }
+    this.nodeOsmIds[this.nodeCount] = osmId;
+    this.nodeNeo4jIds[this.nodeCount] = neo4jId;
+    this.nodeLons[this.nodeCount] = toFixedPoint(lon);
+    this.nodeLats[this.nodeCount] = toFixedPoint(lat);
+    ++this.nodeCount;
+  }
+
+  // a road relationship with the props it was written with - one edge in relationship direction, or with compact
+  //  relationships (forward_allowed / backward_allowed props) an edge for each direction traversal is allowed in
+  public synchronized void addRelationship(long startOsmId, long endOsmId, Map<String, Object> props) {
+
+    Object length = props.get("length");
+    float lengthMeters = length instanceof Number ? ((Number) length).floatValue() : 0f;
+    byte highwayClass = CsrAdjacencyFile.encodeHighwayClass(props.get("highway"));
+
+    Object forwardAllowed = props.get("forward_allowed");
+    Object backwardAllowed = props.get("backward_allowed");
+    if (forwardAllowed == null && backwardAllowed == null) {
+      this.addEdge(startOsmId, endOsmId, lengthMeters, highwayClass);
+      return;
+    }
+    if (Boolean.TRUE.equals(forwardAllowed)) this.addEdge(startOsmId, endOsmId, lengthMeters, highwayClass);
+    if (Boolean.TRUE.equals(backwardAllowed)) this.addEdge(endOsmId, startOsmId, lengthMeters, highwayClass);
+
+  }
+
+  private void addEdge(long sourceOsmId, long targetOsmId, float lengthMeters, byte highwayClass) {
+    if (this.edgeCount == this.edgeSources.length) {
+      int capacity = grow(this.edgeCount);
+      this.edgeSources = Arrays.copyOf(this.edgeSources, capacity);
+      this.edgeTargets = Arrays.copyOf(this.edgeTargets, capacity);
+      this.edgeLengths = Arrays.copyOf(this.edgeLengths, capacity);
+      this.edgeClasses = Arrays.copyOf(this.edgeClasses, capacity);
+    }
+    this.edgeSources[this.edgeCount] = sourceOsmId;
+    this.edgeTargets[this.edgeCount] = targetOsmId;
+    this.edgeLengths[this.edgeCount] = lengthMeters;
+    this.edgeClasses[this.edgeCount] = highwayClass;
+    ++this.edgeCount;
+  }
+
+  // the additions so far are committed to the graph
+  public synchronized void commit() {
+    this.committedNodeCount = this.nodeCount;
+    this.committedEdgeCount = this.edgeCount;
+  }
+
+  // the additions since the last commit() were rolled back with a failed commit
+  public synchronized void rollback() {
+    this.nodeCount = this.committedNodeCount;
+    this.edgeCount = this.committedEdgeCount;
+  }
+
+  private static int grow(int size) {
+    if (size >= Integer.MAX_VALUE - 8) throw new IllegalStateException("CSR adjacency exceeds " + size + " entries");
+    return (int) Math.min(Integer.MAX_VALUE - 8, size * 2L);
+  }
+
+  private static int toFixedPoint(double degrees) {
+    return (int) Math.round(degrees * FIXED_POINT_SCALE);
+  }
+
+  // writes the committed nodes and edges - to a temporary file first, moved into place once complete, so readers
+  //  never map a partial file. Edges whose endpoints are missing are dropped. The output only depends on the graph
+  //  content (not on the order of writes), so a snapshot taken during a load equals one exported from the store.
+  public synchronized void write(Path csrFile) throws IOException {
+
+    System.out.println("writing CSR adjacency snapshot..");
+
+    int nodes = this.committedNodeCount;
+    int edges = this.committedEdgeCount;
+
+    // nodes by osm_id - OSM files are normally sorted by id already
+    for (int i = 1; i < nodes; ++i) {
+      if (this.nodeOsmIds[i - 1] > this.nodeOsmIds[i]) {
+        this.sortNodes(nodes);
+        break;
+      }
+    }
+
+    // resolve edge endpoints to node indexes, then count sort the edges by source node
+    int[] edgeSourceIndexes = new int[edges];
+    int[] edgeTargetIndexes = new int[edges];
+    long[] edgeOffsets = new long[nodes + 1];
+    int edgesWritten = 0;
+    for (int i = 0; i < edges; ++i) {
+      edgeSourceIndexes[i] = Arrays.binarySearch(this.nodeOsmIds, 0, nodes, this.edgeSources[i]);
+      edgeTargetIndexes[i] = Arrays.binarySearch(this.nodeOsmIds, 0, nodes, this.edgeTargets[i]);
+      if (edgeSourceIndexes[i] < 0 || edgeTargetIndexes[i] < 0) continue;
+      ++edgeOffsets[edgeSourceIndexes[i] + 1];
+      ++edgesWritten;
+    }
+    for (int i = 0; i < nodes; ++i) edgeOffsets[i + 1] += edgeOffsets[i];
+
+    int[] targets = new int[edgesWritten];
+    float[] lengths = new float[edgesWritten];
+    byte[] classes = new byte[edgesWritten];
+    long[] cursors = Arrays.copyOf(edgeOffsets, nodes);
+    for (int i = 0; i < edges; ++i) {
+      if (edgeSourceIndexes[i] < 0 || edgeTargetIndexes[i] < 0) continue;
+      int position = (int) cursors[edgeSourceIndexes[i]]++;
+      targets[position] = edgeTargetIndexes[i];
+      lengths[position] = this.edgeLengths[i];
+      classes[position] = this.edgeClasses[i];
+    }
+
+    // order each node's edges by target, length and class - concurrent relationship writers commit in any order
+    for (int i = 0; i < nodes; ++i) sortEdges(targets, lengths, classes, (int) edgeOffsets[i], (int) edgeOffsets[i + 1]);
+
+    Path tempFile = csrFile.resolveSibling(csrFile.getFileName() + ".tmp");
+    try ( FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE) ) {
+
+      SectionWriter out = new SectionWriter(channel);
+      out.putLong(CsrAdjacencyFile.MAGIC);
+      out.putInt(CsrAdjacencyFile.VERSION);
+      out.putInt((int) FIXED_POINT_SCALE);
+      out.putLong(nodes);
+      out.putLong(edgesWritten);
+      out.align();
+
+      for (int i = 0; i < nodes; ++i) out.putLong(this.nodeOsmIds[i]);
+      out.align();
+      for (int i = 0; i < nodes; ++i) out.putLong(this.nodeNeo4jIds[i]);
+      out.align();
+      for (int i = 0; i < nodes; ++i) out.putInt(this.nodeLons[i]);
+      out.align();
+      for (int i = 0; i < nodes; ++i) out.putInt(this.nodeLats[i]);
+      out.align();
+      for (int i = 0; i <= nodes; ++i) out.putLong(edgeOffsets[i]);
+      out.align();
+      for (int i = 0; i < edgesWritten; ++i) out.putInt(targets[i]);
+      out.align();
+      for (int i = 0; i < edgesWritten; ++i) out.putFloat(lengths[i]);
+      out.align();
+      for (int i = 0; i < edgesWritten; ++i) out.put(classes[i]);
+      out.align();
+      out.flush();
+
+    }
+    Files.move(tempFile, csrFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    System.out.println("finished writing CSR adjacency snapshot to " + csrFile + " - " + nodes + " nodes, " + edgesWritten + " edges");
+
+  }
+
+  // heap sort of the node columns by osm_id
+  private void sortNodes(int nodes) {
+    for (int i = nodes / 2 - 1; i >= 0; --i) this.siftDown(i, nodes);
+    for (int end = nodes - 1; end > 0; --end) {
+      this.swapNodes(0, end);
+      this.siftDown(0, end);
+    }
+  }
+
+  private void siftDown(int root, int size) {
+    while (true) {
+      int child = 2 * root + 1;
+      if (child >= size) return;
+      if (child + 1 < size && this.nodeOsmIds[child + 1] > this.nodeOsmIds[child]) ++child;
+      if (this.nodeOsmIds[root] >= this.nodeOsmIds[child]) return;
+      this.swapNodes(root, child);
+      root = child;
+    }
+  }
+
+  private void swapNodes(int a, int b) {
+    long osmId = this.nodeOsmIds[a]; this.nodeOsmIds[a] = this.nodeOsmIds[b]; this.nodeOsmIds[b] = osmId;
+    long neo4jId = this.nodeNeo4jIds[a]; this.nodeNeo4jIds[a] = this.nodeNeo4jIds[b]; this.nodeNeo4jIds[b] = neo4jId;
+    int lon = this.nodeLons[a]; this.nodeLons[a] = this.nodeLons[b]; this.nodeLons[b] = lon;
+    int lat = this.nodeLats[a]; this.nodeLats[a] = this.nodeLats[b]; this.nodeLats[b] = lat;
+  }
+
+  // insertion sort - intersections have a handful of edges
+  private static void sortEdges(int[] targets, float[] lengths, byte[] classes, int from, int to) {
+    for (int i = from + 1; i < to; ++i) {
+      int target = targets[i];
+      float length = lengths[i];
+      byte highwayClass = classes[i];
+      int j = i - 1;
+      while (j >= from && compareEdges(targets[j], lengths[j], classes[j], target, length, highwayClass) > 0) {
+        targets[j + 1] = targets[j];
+        lengths[j + 1] = lengths[j];
+        classes[j + 1] = classes[j];
+        --j;
+      }
+      targets[j + 1] = target;
+      lengths[j + 1] = length;
+      classes[j + 1] = highwayClass;
+    }
+  }
+
+  private static int compareEdges(int targetA, float lengthA, byte classA, int targetB, float lengthB, byte classB) {
+    if (targetA != targetB) return Integer.compare(targetA, targetB);
+    if (lengthA != lengthB) return Float.compare(lengthA, lengthB);
+    return Byte.compare(classA, classB);
+  }
+
+  // little-endian output through a reused buffer, sections padded to 8 bytes
+  private static class SectionWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    private long position = 0;
+
+    SectionWriter(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    void putLong(long value) throws IOException {
+      this.ensure(8);
+      this.buffer.putLong(value);
+      this.position += 8;
+    }
+
+    void putInt(int value) throws IOException {
+      this.ensure(4);
+      this.buffer.putInt(value);
+      this.position += 4;
+    }
+
+    void putFloat(float value) throws IOException {
+      this.ensure(4);
+      this.buffer.putFloat(value);
+      this.position += 4;
+    }
+
+    void put(byte value) throws IOException {
+      this.ensure(1);
+      this.buffer.put(value);
+      this.position += 1;
+    }
+
+    void align() throws IOException {
+      while ((this.position & 7) != 0) this.put((byte) 0);
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if (this.buffer.remaining() < bytes) this.flush();
+    }
+
+    void flush() throws IOException {
+      this.buffer.flip();
+      while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+      this.buffer.clear();
+    }
+
+  }
+
+}
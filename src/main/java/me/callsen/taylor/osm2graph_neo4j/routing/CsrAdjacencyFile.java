@@ -0,0 +1,175 @@
+package me.callsen.taylor.osm2graph_neo4j.routing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+// Read-only, memory-mapped view of a CSR (compressed sparse row) adjacency file written by CsrAdjacencyBuilder - the
+//  road graph for routing without going through Cypher. Nodes are numbered 0..nodeCount-1 in osm_id order; the
+//  outgoing edges of node i are getFirstEdge(i) until getEdgeEnd(i). All accessors read the mapped file directly, so
+//  traversals don't allocate. Layout (little-endian, every section padded to 8 bytes):
+//    header     - magic "OSM2CSR1", int32 version, int32 coordinate scale (1e7), int64 node count, int64 edge count
+//    osm_ids    - int64 per node, ascending (findNode() binary searches it)
+//    neo4j_ids  - int64 per node, internal Neo4j node id at the time of writing
+//    lons, lats - int32 per node, fixed-point degrees (OSM's native 1e-7 precision)
+//    offsets    - int64 per node + 1, first edge of each node (last entry is the edge count)
+//    targets    - int32 per edge, target node index
+//    lengths    - float32 per edge, meters
+//    classes    - int8 per edge, highway class (see HIGHWAY_CLASSES, 0 for other values)
+public class CsrAdjacencyFile implements AutoCloseable {
+
+  static final long MAGIC = ByteBuffer.wrap("OSM2CSR1".getBytes(StandardCharsets.US_ASCII)).order(ByteOrder.LITTLE_ENDIAN).getLong();
+  static final int VERSION = 1;
+
+  private static final int HEADER_BYTES = 32;
+
+  // highway tag values by class code - part of the file format, new values are only appended
+  public static final String[] HIGHWAY_CLASSES = {
+    null, "motorway", "motorway_link", "trunk", "trunk_link", "primary", "primary_link", "secondary", "secondary_link",
+    "tertiary", "tertiary_link", "unclassified", "residential", "living_street", "service", "pedestrian", "track",
+    "road", "busway", "footway", "cycleway", "bridleway", "path", "steps", "corridor", "construction"
+  };
+
+  private static final Map<String, Byte> HIGHWAY_CLASS_CODES = new HashMap<String, Byte>();
+  static {
+    for (int i = 1; i < HIGHWAY_CLASSES.length; ++i) HIGHWAY_CLASS_CODES.put(HIGHWAY_CLASSES[i], (byte) i);
+  }
+
+  private final FileChannel channel;
+  private final int nodeCount;
+  private final long edgeCount;
+  private final double coordinateScale;
+
+  private final ByteBuffer osmIds;
+  private final ByteBuffer neo4jIds;
+  private final ByteBuffer lons;
+  private final ByteBuffer lats;
+  private final ByteBuffer offsets;
+  private final ByteBuffer targets;
+  private final ByteBuffer lengths;
+  private final ByteBuffer classes;
+
+  public CsrAdjacencyFile(Path csrFile) throws IOException {
+
+    this.channel = FileChannel.open(csrFile, StandardOpenOption.READ);
+    try {
+
+      ByteBuffer header = this.map(0, HEADER_BYTES);
+      if (header.getLong(0) != MAGIC) throw new IOException(csrFile + " is not a CSR adjacency file");
+      if (header.getInt(8) != VERSION) throw new IOException("unsupported CSR adjacency file version " + header.getInt(8));
+      this.coordinateScale = header.getInt(12);
+      long nodes = header.getLong(16);
+      this.edgeCount = header.getLong(24);
+      if (nodes > Integer.MAX_VALUE) throw new IOException("too many nodes: " + nodes);
+      this.nodeCount = (int) nodes;
+
+      long position = HEADER_BYTES;
+      this.osmIds = this.map(position, 8L * nodes);
+      position += align(8L * nodes);
+      this.neo4jIds = this.map(position, 8L * nodes);
+      position += align(8L * nodes);
+      this.lons = this.map(position, 4L * nodes);
+      position += align(4L * nodes);
+      this.lats = this.map(position, 4L * nodes);
+      position += align(4L * nodes);
+      this.offsets = this.map(position, 8L * (nodes + 1));
+      position += align(8L * (nodes + 1));
+      this.targets = this.map(position, 4L * this.edgeCount);
+      position += align(4L * this.edgeCount);
+      this.lengths = this.map(position, 4L * this.edgeCount);
+      position += align(4L * this.edgeCount);
+      this.classes = this.map(position, this.edgeCount);
+
+    } catch (IOException | RuntimeException e) {
+      this.channel.close();
+      throw e;
+    }
+
+  }
+
+  private static long align(long bytes) {
+    return (bytes + 7) & ~7L;
+  }
+
+  // sections are mapped one buffer each - limits a section to 2GB (e.g. ~500M edges)
+  private ByteBuffer map(long position, long bytes) throws IOException {
+    if (bytes > Integer.MAX_VALUE) throw new IOException("CSR adjacency section too large to map: " + bytes + " bytes");
+    if (position + bytes > this.channel.size()) throw new IOException("CSR adjacency file truncated");
+    return this.channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public int getNodeCount() {
+    return this.nodeCount;
+  }
+
+  public long getEdgeCount() {
+    return this.edgeCount;
+  }
+
+  // node index of an osm_id, -1 if not in the graph
+  public int findNode(long osmId) {
+    int low = 0;
+    int high = this.nodeCount - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midId = this.getOsmId(mid);
+      if (midId < osmId) low = mid + 1;
+      else if (midId > osmId) high = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+
+  public long getOsmId(int node) {
+    return this.osmIds.getLong(node << 3);
+  }
+
+  public long getNeo4jId(int node) {
+    return this.neo4jIds.getLong(node << 3);
+  }
+
+  public double getLon(int node) {
+    return this.lons.getInt(node << 2) / this.coordinateScale;
+  }
+
+  public double getLat(int node) {
+    return this.lats.getInt(node << 2) / this.coordinateScale;
+  }
+
+  public long getFirstEdge(int node) {
+    return this.offsets.getLong(node << 3);
+  }
+
+  // exclusive
+  public long getEdgeEnd(int node) {
+    return this.offsets.getLong((node + 1) << 3);
+  }
+
+  public int getTarget(long edge) {
+    return this.targets.getInt((int) edge << 2);
+  }
+
+  public float getLength(long edge) {
+    return this.lengths.getFloat((int) edge << 2);
+  }
+
+  public int getHighwayClass(long edge) {
+    return this.classes.get((int) edge);
+  }
+
+  static byte encodeHighwayClass(Object highway) {
+    Byte code = highway instanceof String ? HIGHWAY_CLASS_CODES.get(highway) : null;
+    return code != null ? code : 0;
+  }
+
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+}
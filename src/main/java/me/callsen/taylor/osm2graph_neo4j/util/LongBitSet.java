@@ -0,0 +1,74 @@
+package me.callsen.taylor.osm2graph_neo4j.util;
+
+import java.util.Arrays;
+
+// Sparse bitset keyed by osm id - bits are kept in 8KB pages (65536 ids each) that are only allocated once an id
+//  in their range is set, so memory follows the ids actually used rather than the largest id.
+public class LongBitSet {
+
+  private static final int PAGE_SHIFT = 16;
+  private static final int PAGE_WORDS = 1 << (PAGE_SHIFT - 6);
+  private static final long PAGE_MASK = (1L << PAGE_SHIFT) - 1;
+
+  // non-negative ids and negative ids (e.g. unsaved JOSM objects) are paged separately
+  private long[][] positivePages = new long[0][];
+  private long[][] negativePages = new long[0][];
+
+  private long cardinality = 0;
+
+  public boolean get(long id) {
+    long[] page = this.getPage(id, false);
+    if (page == null) return false;
+    int bit = (int) (offsetOf(id) & PAGE_MASK);
+    return (page[bit >>> 6] & (1L << bit)) != 0;
+  }
+
+  // returns true if the bit was not set before
+  public boolean set(long id) {
+    long[] page = this.getPage(id, true);
+    int bit = (int) (offsetOf(id) & PAGE_MASK);
+    long mask = 1L << bit;
+    if ((page[bit >>> 6] & mask) != 0) return false;
+    page[bit >>> 6] |= mask;
+    ++this.cardinality;
+    return true;
+  }
+
+  public long cardinality() {
+    return this.cardinality;
+  }
+
+  // approximate heap usage in bytes
+  public long sizeInBytes() {
+    long bytes = (this.positivePages.length + this.negativePages.length) * 8L;
+    for (long[] page : this.positivePages) if (page != null) bytes += PAGE_WORDS * 8L;
+    for (long[] page : this.negativePages) if (page != null) bytes += PAGE_WORDS * 8L;
+    return bytes;
+  }
+
+  private static long offsetOf(long id) {
+    return (id >= 0) ? id : -(id + 1);
+  }
+
+  private long[] getPage(long id, boolean create) {
+
+    int pageIndex = (int) (offsetOf(id) >>> PAGE_SHIFT);
+    long[][] pages = (id >= 0) ? this.positivePages : this.negativePages;
+
+    if (pageIndex >= pages.length) {
+      if (!create) return null;
+      pages = Arrays.copyOf(pages, Math.max(pageIndex + 1, pages.length + (pages.length >> 1)));
+      if (id >= 0) this.positivePages = pages;
+      else this.negativePages = pages;
+    }
+
+    long[] page = pages[pageIndex];
+    if (page == null && create) {
+      page = new long[PAGE_WORDS];
+      pages[pageIndex] = page;
+    }
+    return page;
+
+  }
+
+}
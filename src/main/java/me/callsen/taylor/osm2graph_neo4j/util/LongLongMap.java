@@ -0,0 +1,206 @@
+package me.callsen.taylor.osm2graph_neo4j.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Primitive long -> long open-addressing hash map (linear probing, no boxing). The table lives on the heap until
+//  it would exceed maxHeapBytes, then moves to a memory-mapped temp file so very large maps don't exhaust the heap.
+//  Keys are stored xor'ed with Long.MIN_VALUE so a zeroed slot (new array or fresh file region) means empty.
+public class LongLongMap implements AutoCloseable {
+
+  private static final long EMPTY_SLOT = 0;
+  private static final long KEY_MASK = Long.MIN_VALUE;
+  private static final double MAX_LOAD_FACTOR = 0.6;
+  private static final int INITIAL_CAPACITY = 1 << 16;
+
+  private final long maxHeapBytes;
+  private final Path spillDirectory;
+
+  private volatile Table table;
+  private long size = 0;
+
+  public LongLongMap() {
+    this(Runtime.getRuntime().maxMemory() / 4, Path.of(System.getProperty("java.io.tmpdir")));
+  }
+
+  public LongLongMap(long maxHeapBytes, Path spillDirectory) {
+    this.maxHeapBytes = maxHeapBytes;
+    this.spillDirectory = spillDirectory;
+    this.table = new HeapTable(INITIAL_CAPACITY);
+  }
+
+  public synchronized void put(long key, long value) {
+
+    if (key == Long.MIN_VALUE) throw new IllegalArgumentException("key not supported: " + key);
+    if (this.size + 1 > this.table.capacity * MAX_LOAD_FACTOR) this.resize();
+
+    if (insert(this.table, key ^ KEY_MASK, value)) ++this.size;
+
+  }
+
+  public long get(long key, long defaultValue) {
+
+    Table table = this.table;
+    long storedKey = key ^ KEY_MASK;
+    long mask = table.capacity - 1;
+    for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+      long slotKey = table.getKey(slot);
+      if (slotKey == storedKey) return table.getValue(slot);
+      if (slotKey == EMPTY_SLOT) return defaultValue;
+    }
+
+  }
+
+  public long size() {
+    return this.size;
+  }
+
+  public boolean isSpilled() {
+    return this.table instanceof MappedTable;
+  }
+
+  public synchronized void clear() throws IOException {
+    this.table.close();
+    this.table = new HeapTable(INITIAL_CAPACITY);
+    this.size = 0;
+  }
+
+  public synchronized void close() throws IOException {
+    this.table.close();
+  }
+
+  // returns true if a new key was added
+  private static boolean insert(Table table, long storedKey, long value) {
+    long mask = table.capacity - 1;
+    for (long slot = hash(storedKey ^ KEY_MASK) & mask; ; slot = (slot + 1) & mask) {
+      long slotKey = table.getKey(slot);
+      if (slotKey == EMPTY_SLOT || slotKey == storedKey) {
+        table.set(slot, storedKey, value);
+        return slotKey == EMPTY_SLOT;
+      }
+    }
+  }
+
+  private void resize() {
+
+    long newCapacity = this.table.capacity * 2;
+    Table newTable;
+    try {
+      newTable = (newCapacity * 16 > this.maxHeapBytes || newCapacity > Integer.MAX_VALUE / 2)
+          ? new MappedTable(newCapacity, this.spillDirectory)
+          : new HeapTable((int) newCapacity);
+    } catch (IOException e) {
+      throw new IllegalStateException("failed to grow map to capacity " + newCapacity, e);
+    }
+
+    for (long slot = 0; slot < this.table.capacity; ++slot) {
+      long slotKey = this.table.getKey(slot);
+      if (slotKey != EMPTY_SLOT) insert(newTable, slotKey, this.table.getValue(slot));
+    }
+
+    try {
+      this.table.close();
+    } catch (IOException e) {
+      System.out.println("Warning - failed to release previous map table (not necessarily an issue)");
+    }
+    this.table = newTable;
+
+  }
+
+  // murmur3 finalizer - spreads sequential osm ids over the table
+  private static long hash(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  private abstract static class Table {
+
+    final long capacity;
+
+    Table(long capacity) {
+      this.capacity = capacity;
+    }
+
+    abstract long getKey(long slot);
+    abstract long getValue(long slot);
+    abstract void set(long slot, long storedKey, long value);
+    abstract void close() throws IOException;
+
+  }
+
+  private static class HeapTable extends Table {
+
+    // keys and values interleaved - a probe touches one cache line
+    private final long[] slots;
+
+    HeapTable(int capacity) {
+      super(capacity);
+      this.slots = new long[capacity * 2];
+    }
+
+    long getKey(long slot) {
+      return this.slots[(int) slot * 2];
+    }
+
+    long getValue(long slot) {
+      return this.slots[(int) slot * 2 + 1];
+    }
+
+    void set(long slot, long storedKey, long value) {
+      this.slots[(int) slot * 2] = storedKey;
+      this.slots[(int) slot * 2 + 1] = value;
+    }
+
+    void close() { }
+
+  }
+
+  private static class MappedTable extends Table {
+
+    private static final int CHUNK_SHIFT = 22; // 4M slots (64MB) per mapped chunk
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final FileChannel channel;
+    private final ByteBuffer[] chunks;
+
+    MappedTable(long capacity, Path directory) throws IOException {
+      super(capacity);
+      Path tableFile = Files.createTempFile(directory, "osm2graph-map-", ".bin");
+      this.channel = FileChannel.open(tableFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+      long chunkSlots = Math.min(capacity, 1L << CHUNK_SHIFT);
+      this.chunks = new ByteBuffer[(int) ((capacity + chunkSlots - 1) / chunkSlots)];
+      for (int i = 0; i < this.chunks.length; ++i) {
+        this.chunks[i] = this.channel.map(FileChannel.MapMode.READ_WRITE, i * chunkSlots * 16, chunkSlots * 16);
+      }
+    }
+
+    long getKey(long slot) {
+      return this.chunks[(int) (slot >>> CHUNK_SHIFT)].getLong((int) (slot & CHUNK_MASK) * 16);
+    }
+
+    long getValue(long slot) {
+      return this.chunks[(int) (slot >>> CHUNK_SHIFT)].getLong((int) (slot & CHUNK_MASK) * 16 + 8);
+    }
+
+    void set(long slot, long storedKey, long value) {
+      ByteBuffer chunk = this.chunks[(int) (slot >>> CHUNK_SHIFT)];
+      int offset = (int) (slot & CHUNK_MASK) * 16;
+      chunk.putLong(offset, storedKey);
+      chunk.putLong(offset + 8, value);
+    }
+
+    void close() throws IOException {
+      this.channel.close();
+    }
+
+  }
+
+}
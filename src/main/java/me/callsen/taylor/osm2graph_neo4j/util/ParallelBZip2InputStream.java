@@ -0,0 +1,361 @@
+package me.callsen.taylor.osm2graph_neo4j.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+// Decompresses bzip2 input with blocks decoded in parallel. bzip2 blocks are independent, but not byte aligned -
+//  a reader thread scans the compressed bits for the 48 bit block and end-of-stream markers, and each block is
+//  rewrapped as a standalone single-block stream (header, block bits, end marker and the block CRC as stream CRC)
+//  that a worker decodes with commons-compress. Decoded blocks are returned in order; a bounded queue limits how far
+//  decoding runs ahead. Concatenated streams (e.g. pbzip2/lbzip2 output) are handled too.
+//  A marker can in theory occur inside compressed data - a block that fails to decode is merged with what follows it
+//  (the bits after an end-of-stream marker are kept as a gap for this) and decoded again, so such a false positive
+//  costs time but not correctness.
+public class ParallelBZip2InputStream extends InputStream {
+
+  private static final long BLOCK_MAGIC = 0x314159265359L;
+  private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+  private static final long MAGIC_MASK = (1L << 48) - 1;
+
+  // stream header of the rewrapped blocks - level 9 (900k) accepts blocks of any level
+  private static final byte[] STREAM_HEADER = { 'B', 'Z', 'h', '9' };
+
+  // a real block never needs more than a few merges - beyond that the input is corrupt
+  private static final int MAX_MERGED_BLOCKS = 8;
+
+  private final InputStream input;
+  private final ExecutorService decodePool;
+  private final BlockingQueue<Future<DecodedBlock>> pendingBlocks;
+  private final Future<DecodedBlock> endOfInput = CompletableFuture.completedFuture(null);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final Thread scannerThread;
+  private volatile IOException scanFailure; // any scanner failure - reported once the blocks before it are read
+
+  // decoded block being returned by read()
+  private byte[] currentBytes = new byte[0];
+  private int currentPosition = 0;
+  private boolean finished = false;
+
+  public ParallelBZip2InputStream(InputStream input, int decodeThreads) {
+    this.input = input;
+    int threads = Math.max(1, decodeThreads);
+    this.decodePool = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "bzip2-decode");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.pendingBlocks = new ArrayBlockingQueue<Future<DecodedBlock>>(threads * 2);
+    this.scannerThread = new Thread(this::scanBlocks, "bzip2-scan");
+    this.scannerThread.setDaemon(true);
+    this.scannerThread.start();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int count = this.read(single, 0, 1);
+    return count < 0 ? -1 : single[0] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) return 0;
+    while (this.currentPosition == this.currentBytes.length) {
+      if (this.finished || !this.nextBlock()) return -1;
+    }
+    int count = Math.min(length, this.currentBytes.length - this.currentPosition);
+    System.arraycopy(this.currentBytes, this.currentPosition, buffer, offset, count);
+    this.currentPosition += count;
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (!this.closed.compareAndSet(false, true)) return;
+    this.scannerThread.interrupt();
+    this.decodePool.shutdownNow();
+    this.input.close();
+  }
+
+  private boolean nextBlock() throws IOException {
+
+    DecodedBlock block = this.takeBlock();
+    if (block == null) {
+      this.finished = true;
+      if (this.scanFailure != null) throw this.scanFailure;
+      return false;
+    }
+
+    // decode failure - most likely a false block marker inside the data: merge with the following block(s)
+    int mergedBlocks = 1;
+    while (block.failure != null) {
+      DecodedBlock nextBlock = this.takeBlock();
+      if (nextBlock == null || ++mergedBlocks > MAX_MERGED_BLOCKS) throw new IOException("corrupt bzip2 block", block.failure);
+      block = decode(block.block.merge(nextBlock.block));
+    }
+
+    this.currentBytes = block.bytes;
+    this.currentPosition = 0;
+    return true;
+
+  }
+
+  private DecodedBlock takeBlock() throws IOException {
+    try {
+      Future<DecodedBlock> block = this.pendingBlocks.take();
+      if (block == this.endOfInput) {
+        // keep signalling the end to any further calls
+        this.pendingBlocks.offer(this.endOfInput);
+        return null;
+      }
+      return block.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("bzip2 decompression interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException("bzip2 decompression failed", e.getCause());
+    }
+  }
+
+  // scanner thread - splits the input into blocks at bit granularity and hands them to the decode pool in order
+  private void scanBlocks() {
+
+    try {
+
+      // stream header ("BZh" and the block size level) - checked so other input fails instead of decoding to nothing
+      byte[] header = this.input.readNBytes(STREAM_HEADER.length);
+      if (header.length < STREAM_HEADER.length || header[0] != 'B' || header[1] != 'Z' || header[2] != 'h' || header[3] < '1' || header[3] > '9') {
+        throw new IOException("not a bzip2 stream - missing BZh header");
+      }
+
+      byte[] readBuffer = new byte[1 << 16];
+      GrowableBytes blockBytes = new GrowableBytes();
+
+      // rolling register of the most recent input bits, and the bit position of the current block's marker
+      long bits = 0;
+      long bitCount = 0;
+      long blockStartBit = -1;
+      long blockStartByte = 0; // first input byte held in blockBytes
+      boolean blockIsGap = false; // bits following an end-of-stream marker
+
+      // the last 6 bytes are kept around so a block starting there can be captured
+      byte[] history = new byte[8];
+
+      int readCount;
+      while ((readCount = this.input.read(readBuffer)) > 0) {
+        for (int i = 0; i < readCount; ++i) {
+
+          byte value = readBuffer[i];
+          long byteIndex = bitCount >>> 3;
+          bits = (bits << 8) | (value & 0xFF);
+          bitCount += 8;
+          history[(int) (byteIndex & 7)] = value;
+          if (blockStartBit >= 0) blockBytes.add(value);
+
+          if (bitCount < 48) continue;
+
+          // markers ending within this byte - checked in input order (earliest start first)
+          for (int shift = 7; shift >= 0; --shift) {
+            if (bitCount < 48 + shift) continue;
+            long candidate = (bits >>> shift) & MAGIC_MASK;
+            if (candidate != BLOCK_MAGIC && candidate != END_OF_STREAM_MAGIC) continue;
+
+            long markerBit = bitCount - shift - 48;
+
+            // the marker ends the current block
+            if (blockStartBit >= 0) {
+              this.submitBlock(new CompressedBlock(blockBytes.toArray(markerBit - blockStartByte * 8 + 7 >>> 3),
+                  (int) (blockStartBit - blockStartByte * 8), markerBit - blockStartBit, blockIsGap));
+            }
+
+            // start capturing the next block (or gap) - from the byte holding its first bit (at most 6 bytes back)
+            blockStartBit = markerBit;
+            blockStartByte = markerBit >>> 3;
+            blockIsGap = candidate == END_OF_STREAM_MAGIC;
+            blockBytes.clear();
+            for (long historyIndex = blockStartByte; historyIndex <= byteIndex; ++historyIndex) blockBytes.add(history[(int) (historyIndex & 7)]);
+          }
+
+        }
+      }
+
+      // a block cut off without end-of-stream marker is passed on as is - decoding reports the truncation
+      if (blockStartBit >= 0 && !blockIsGap) this.submitBlock(new CompressedBlock(blockBytes.toArray(blockBytes.size()), (int) (blockStartBit - blockStartByte * 8),
+          bitCount - blockStartBit, false));
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Throwable e) {
+      // anything else (e.g. a RuntimeException from the underlying stream) must not look like the end of the input
+      this.scanFailure = e instanceof IOException ? (IOException) e : new IOException("failed to scan bzip2 input", e);
+    } finally {
+      while (!this.closed.get()) {
+        try {
+          if (this.pendingBlocks.offer(this.endOfInput, 100, TimeUnit.MILLISECONDS)) break;
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+    }
+
+  }
+
+  private void submitBlock(CompressedBlock block) throws InterruptedException {
+    // blocks while the queue is full - decoding runs at most a few blocks ahead of the reader
+    this.pendingBlocks.put(this.decodePool.submit(() -> decode(block)));
+  }
+
+  private static DecodedBlock decode(CompressedBlock block) {
+    if (block.gap) return new DecodedBlock(block, new byte[0], null);
+    try (InputStream blockStream = new BZip2CompressorInputStream(new ByteArrayInputStream(block.toStream()))) {
+      return new DecodedBlock(block, blockStream.readAllBytes(), null);
+    } catch (IOException | RuntimeException e) {
+      return new DecodedBlock(block, null, e);
+    }
+  }
+
+  // compressed bits of one block - from its block marker up to the next marker. A gap holds the bits from an
+  //  end-of-stream marker to the next block, only decoded as part of a merge.
+  private static class CompressedBlock {
+
+    final byte[] bytes;
+    final int startBit; // offset of the marker within bytes[0]
+    final long bitLength;
+    final boolean gap;
+
+    CompressedBlock(byte[] bytes, int startBit, long bitLength, boolean gap) {
+      this.bytes = bytes;
+      this.startBit = startBit;
+      this.bitLength = bitLength;
+      this.gap = gap;
+    }
+
+    // block directly followed by next - bits are contiguous in the input, sharing a byte if not byte aligned
+    CompressedBlock merge(CompressedBlock next) {
+      long endBit = this.startBit + this.bitLength;
+      int keptBytes = (int) (endBit >>> 3);
+      byte[] merged = Arrays.copyOf(this.bytes, keptBytes + next.bytes.length);
+      System.arraycopy(next.bytes, 0, merged, keptBytes, next.bytes.length);
+      return new CompressedBlock(merged, this.startBit, this.bitLength + next.bitLength, false);
+    }
+
+    int getBit(long bit) {
+      long position = this.startBit + bit;
+      return (this.bytes[(int) (position >>> 3)] >>> (7 - (int) (position & 7))) & 1;
+    }
+
+    // standalone single-block stream - its stream CRC equals the block CRC (the 32 bits following the marker)
+    byte[] toStream() {
+
+      int crc = 0;
+      for (int bit = 48; bit < 80; ++bit) crc = (crc << 1) | this.getBit(bit);
+
+      BitWriter writer = new BitWriter((int) ((this.bitLength + 7) >>> 3) + STREAM_HEADER.length + 12);
+      for (byte headerByte : STREAM_HEADER) writer.write(headerByte & 0xFF, 8);
+
+      // block bits - whole bytes shifted into alignment, then the remaining bits
+      long wholeBytes = this.bitLength >>> 3;
+      int shift = this.startBit;
+      for (int i = 0; i < wholeBytes; ++i) {
+        int value = shift == 0 ? this.bytes[i] & 0xFF : ((this.bytes[i] << shift) | ((this.bytes[i + 1] & 0xFF) >>> (8 - shift))) & 0xFF;
+        writer.write(value, 8);
+      }
+      for (long bit = wholeBytes * 8; bit < this.bitLength; ++bit) writer.write(this.getBit(bit), 1);
+
+      writer.write((int) (END_OF_STREAM_MAGIC >>> 24), 24);
+      writer.write((int) (END_OF_STREAM_MAGIC & 0xFFFFFF), 24);
+      writer.write(crc >>> 16, 16);
+      writer.write(crc & 0xFFFF, 16);
+      return writer.toArray();
+
+    }
+
+  }
+
+  private static class DecodedBlock {
+
+    final CompressedBlock block;
+    final byte[] bytes;
+    final Exception failure;
+
+    DecodedBlock(CompressedBlock block, byte[] bytes, Exception failure) {
+      this.block = block;
+      this.bytes = bytes;
+      this.failure = failure;
+    }
+
+  }
+
+  private static class BitWriter {
+
+    private byte[] bytes;
+    private int length = 0;
+    private long buffer = 0;
+    private int bufferedBits = 0;
+
+    BitWriter(int capacity) {
+      this.bytes = new byte[capacity];
+    }
+
+    // writes the low count bits of value (count <= 24)
+    void write(int value, int count) {
+      this.buffer = (this.buffer << count) | (value & ((1L << count) - 1));
+      this.bufferedBits += count;
+      while (this.bufferedBits >= 8) {
+        this.bufferedBits -= 8;
+        this.append((int) (this.buffer >>> this.bufferedBits));
+      }
+    }
+
+    // pads the last byte with zero bits
+    byte[] toArray() {
+      if (this.bufferedBits > 0) this.append((int) (this.buffer << (8 - this.bufferedBits)));
+      this.bufferedBits = 0;
+      return Arrays.copyOf(this.bytes, this.length);
+    }
+
+    private void append(int value) {
+      if (this.length == this.bytes.length) this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2 + 16);
+      this.bytes[this.length++] = (byte) value;
+    }
+
+  }
+
+  private static class GrowableBytes {
+
+    private byte[] bytes = new byte[1 << 16];
+    private int size = 0;
+
+    void add(byte value) {
+      if (this.size == this.bytes.length) this.bytes = Arrays.copyOf(this.bytes, this.bytes.length * 2);
+      this.bytes[this.size++] = value;
+    }
+
+    void clear() {
+      this.size = 0;
+    }
+
+    int size() {
+      return this.size;
+    }
+
+    byte[] toArray(long length) {
+      return Arrays.copyOf(this.bytes, (int) length);
+    }
+
+  }
+
+}
@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.configuration.connectors.BoltConnector;
+import org.neo4j.configuration.helpers.SocketAddress;
+import org.neo4j.dbms.api.DatabaseManagementService;
+import org.neo4j.dbms.api.DatabaseManagementServiceBuilder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.BoltGraphWriter;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// load into a running server over Bolt - an embedded database with the Bolt connector enabled stands in for the server
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainBoltTest {
+
+  @TempDir
+  private static Path directory;
+
+  private static DatabaseManagementService managementService;
+
+  private static GraphDatabaseService db;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    int port;
+    try ( ServerSocket socket = new ServerSocket(0) ) {
+      port = socket.getLocalPort();
+    }
+
+    managementService = new DatabaseManagementServiceBuilder(directory)
+        .setConfig(BoltConnector.enabled, true)
+        .setConfig(BoltConnector.listen_address, new SocketAddress("localhost", port))
+        .setConfig(BoltConnector.encryption_level, BoltConnector.EncryptionLevel.DISABLED)
+        .build();
+    db = managementService.database(GraphDatabaseSettings.DEFAULT_DATABASE_NAME);
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    OsmSource source = new OsmSource(classLoader.getResource("xml/sf-potrero.osm").getFile());
+    assertNotNull(source);
+
+    // small batches with several in flight - relationship batches sharing intersections run concurrently
+    BoltGraphWriter boltGraphWriter = new BoltGraphWriter("bolt://localhost:" + port, null, null, null, 200, 4);
+    try {
+      source.loadNodesIntoDb(boltGraphWriter);
+      source.loadWaysIntoGraph(boltGraphWriter);
+    } finally {
+      boltGraphWriter.close();
+      source.closeNodeShapeStore();
+    }
+
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    managementService.shutdown();
+  }
+
+  private static long count(String query) {
+    try ( Transaction tx = db.beginTx() ) {
+      Result result = tx.execute(query);
+      return (Long) result.next().get("total");
+    }
+  }
+
+  @Test
+  public void testNodeCount() throws Exception {
+    assertEquals(5368, count("MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+  }
+
+  @Test
+  public void testRelationshipCount() throws Exception {
+    assertEquals(676, count("MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+    assertEquals(4, count("MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+  }
+
+  @Test
+  public void testNodeProperties() throws Exception {
+    try ( Transaction tx = db.beginTx() ) {
+      Result result = tx.execute("MATCH (n) WHERE n.osm_id=65354557 RETURN n");
+      Map<String, Object> row = result.next();
+      Node node = (Node)row.get("n");
+
+      // integers arrive as 64-bit over Bolt
+      assertEquals(65354557L, node.getProperty("osm_id"));
+      Point nodeGeom = (Point) node.getProperty("geom");
+      List<Double> coords = nodeGeom.getCoordinate().getCoordinate();
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
+    }
+  }
+
+  @Test
+  public void testRelationshipProperties() throws Exception {
+    try ( Transaction tx = db.beginTx() ) {
+      Result result = tx.execute("MATCH ()-[r]-() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN DISTINCT(r)");
+      assertTrue(result.hasNext());
+      Map<String, Object> relationship = ((Relationship) result.next().get("r")).getAllProperties();
+      assertEquals(8920510L, relationship.get("osm_id"));
+      assertEquals(6916235511L, relationship.get("end_osm_id"));
+      assertTrue(relationship.get("geom") instanceof Point[]);
+      assertTrue(((Point[]) relationship.get("geom")).length >= 2);
+    }
+  }
+
+}
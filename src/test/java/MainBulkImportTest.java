@@ -0,0 +1,170 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.BulkImportWriter;
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// bulkimport action - CSV files written and imported with neo4j-admin import in-process; the graph matches the
+//  transactional load (MainTest) apart from the documented type differences
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainBulkImportTest {
+
+  private static final String SERVER_CONF = "dbms.default_listen_address=0.0.0.0\n";
+
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  private static GraphDbLoader bulkImport(String osmFilePath, Path graphDbPath, Map<String, String> configProfile) throws Exception {
+    OsmSource source = new OsmSource(osmFilePath);
+    BulkImportWriter bulkImportWriter = new BulkImportWriter(graphDbPath.toString());
+    bulkImportWriter.setConfigProfile(configProfile);
+    try {
+      source.loadNodesIntoDb(bulkImportWriter);
+      source.loadWaysIntoGraph(bulkImportWriter);
+    } finally {
+      bulkImportWriter.close();
+      source.closeNodeShapeStore();
+    }
+    bulkImportWriter.runImport();
+    return new GraphDbLoader(graphDbPath.toString());
+  }
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    // configuration of a server run from the graph directory - kept as is by the import
+    Path graphDbPath = directory.resolve("graph.db");
+    Files.createDirectories(graphDbPath.resolve("conf"));
+    Files.writeString(graphDbPath.resolve("conf/neo4j.conf"), SERVER_CONF);
+
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+    graphDbLoader = bulkImport(osmFilePath, graphDbPath, Map.of("dbms.relationship_grouping_threshold", "100"));
+
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+      return (Long) tx.execute(query).next().get("total");
+    }
+  }
+
+  @Test
+  public void testCounts() throws Exception {
+    assertEquals(5368, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+    assertEquals(676, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+    assertEquals(4, count(graphDbLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+  }
+
+  @Test
+  public void testNodeProperties() throws Exception {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+
+      Node node = (Node) tx.execute("MATCH (n) WHERE n.osm_id=65354557 RETURN n").next().get("n");
+
+      // import ids are always longs
+      assertEquals(65354557L, node.getProperty("osm_id"));
+      Point nodeGeom = (Point) node.getProperty("geom");
+      List<Double> coords = nodeGeom.getCoordinate().getCoordinate();
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
+      assertEquals("POINT(-122.3964163 37.7511897)", node.getProperty("geom_wkt"));
+      assertEquals(1, node.getProperty("version"));
+      assertEquals(37.7511897f, node.getProperty("lat"));
+
+      // columns first seen after this node was written are absent, not empty
+      assertTrue(!node.hasProperty("name"));
+
+    }
+  }
+
+  @Test
+  public void testRelationshipProperties() throws Exception {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+
+      Relationship rel = (Relationship) tx.execute("MATCH ()-[r]->() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN r").next().get("r");
+
+      assertEquals(8920510, rel.getProperty("osm_id"));
+      assertEquals(65354557L, rel.getProperty("start_osm_id"));
+      assertEquals(6916235511L, rel.getProperty("end_osm_id"));
+      assertEquals(65354557L, ((Number) rel.getStartNode().getProperty("osm_id")).longValue());
+      assertEquals(6916235511L, ((Number) rel.getEndNode().getProperty("osm_id")).longValue());
+      Point[] wayGeom = (Point[]) rel.getProperty("geom");
+      assertEquals(2, wayGeom.length);
+      List<Double> coords = wayGeom[0].getCoordinate().getCoordinate();
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
+      assertEquals("LINESTRING(-122.3964163 37.7511897,-122.3964262 37.7513044)", rel.getProperty("way"));
+      assertTrue(rel.getProperty("length") instanceof Double);
+      assertEquals("residential", rel.getProperty("highway"));
+
+    }
+  }
+
+  @Test
+  public void testConfRestored() throws Exception {
+    assertEquals(SERVER_CONF, Files.readString(directory.resolve("graph.db/conf/neo4j.conf")));
+  }
+
+  // quoting, multiline values and column types widened over rows
+  @Test
+  public void testValueEncoding(@TempDir Path encodingDirectory) throws Exception {
+
+    String osmXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<osm version=\"0.6\">\n"
+        + " <node id=\"1\" lat=\"37.75\" lon=\"-122.39\"><tag k=\"ele\" v=\"5\"/><tag k=\"ref\" v=\"12\"/><tag k=\"level\" v=\"3\"/></node>\n"
+        + " <node id=\"2\" lat=\"37.76\" lon=\"-122.39\"><tag k=\"ele\" v=\"5.5\"/><tag k=\"ref\" v=\"12a\"/><tag k=\"level\" v=\"4294967296\"/>"
+        + "<tag k=\"name\" v=\"Joe's &quot;Diner&quot;, Bar\"/><tag k=\"note\" v=\"first line&#10;second line\"/></node>\n"
+        + " <way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><tag k=\"highway\" v=\"residential\"/></way>\n"
+        + "</osm>\n";
+    Path osmFile = Files.write(encodingDirectory.resolve("encoding.osm"), osmXml.getBytes(StandardCharsets.UTF_8));
+
+    GraphDbLoader encodingGraphDbLoader = bulkImport(osmFile.toString(), encodingDirectory.resolve("graph.db"), null);
+    try ( Transaction tx = encodingGraphDbLoader.getTransaction() ) {
+
+      Node first = tx.findNode(() -> "INTERSECTION", "osm_id", 1L);
+      Node second = tx.findNode(() -> "INTERSECTION", "osm_id", 2L);
+
+      // int and double - double; int and string - string; int and long - long
+      assertEquals(5.0, first.getProperty("ele"));
+      assertEquals(5.5, second.getProperty("ele"));
+      assertEquals("12", first.getProperty("ref"));
+      assertEquals("12a", second.getProperty("ref"));
+      assertEquals(3L, first.getProperty("level"));
+      assertEquals(4294967296L, second.getProperty("level"));
+
+      assertEquals("Joe's \"Diner\", Bar", second.getProperty("name"));
+      assertEquals("first line\nsecond line", second.getProperty("note"));
+      assertEquals(2, count(encodingGraphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+
+    } finally {
+      encodingGraphDbLoader.shutdown();
+    }
+
+  }
+
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import me.callsen.taylor.osm2graph_neo4j.data.BulkLoadProfile;
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+// bulk load configuration profile - sized from the input and memory, overridable, applied to the embedded database
+//  for the load and restored afterwards
+public class MainBulkProfileTest {
+
+  @TempDir
+  Path directory;
+
+  private static long megabytes(String value) {
+    return Long.parseLong(value.substring(0, value.length() - 1));
+  }
+
+  @Test
+  public void testInputSize() throws Exception {
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    BulkLoadProfile.InputSize inputSize = source.scanInputSize();
+    assertEquals(5368, inputSize.getNodeCount());
+    assertEquals(90, inputSize.getWayCount());
+    assertTrue(inputSize.getWayNodeRefs() > inputSize.getWayCount());
+    assertTrue(inputSize.getTagBytes() > 0);
+  }
+
+  @Test
+  public void testSizing() {
+
+    // a few million elements - roughly a city extract
+    BulkLoadProfile.InputSize inputSize = new BulkLoadProfile.InputSize();
+    OsmNode node = new OsmNode(1, 37.75, -122.39, Map.of(), Map.of());
+    for (int i = 0; i < 2_000_000; ++i) inputSize.onNode(node);
+    OsmWay way = new OsmWay(1, new long[20], Map.of(), Map.of("highway", "residential", "name", "Connecticut Street"));
+    for (int i = 0; i < 100_000; ++i) inputSize.onWay(way);
+    inputSize.onWay(new OsmWay(2, new long[20], Map.of(), Map.of("building", "yes")));
+    assertEquals(100_000, inputSize.getWayCount());
+
+    // enough memory - the page cache holds the estimated store
+    BulkLoadProfile largeMachine = new BulkLoadProfile(inputSize, 64L << 30, 8L << 30);
+    long storeMegabytes = largeMachine.getEstimatedStoreBytes() >> 20;
+    assertTrue(storeMegabytes > 500 && storeMegabytes < 5000);
+    assertEquals(storeMegabytes, megabytes(largeMachine.getSettings().get(BulkLoadProfile.PAGECACHE_SIZE)));
+    assertEquals(storeMegabytes / 8, megabytes(largeMachine.getSettings().get(BulkLoadProfile.TX_LOG_ROTATION_SIZE)));
+    assertEquals("false", largeMachine.getSettings().get(BulkLoadProfile.TX_LOG_RETENTION));
+
+    // little memory - capped to half of what the heap and coordinate store leave
+    BulkLoadProfile smallMachine = new BulkLoadProfile(inputSize, 2L << 30, 1L << 30);
+    assertEquals(((2L << 30) - (1L << 30) - 2_000_000L * 16) / 2 >> 20, megabytes(smallMachine.getSettings().get(BulkLoadProfile.PAGECACHE_SIZE)));
+
+    // no memory left - minimum page cache, small input - minimum log size
+    BulkLoadProfile noMemory = new BulkLoadProfile(new BulkLoadProfile.InputSize(), 1L << 30, 1L << 30);
+    assertEquals("64m", noMemory.getSettings().get(BulkLoadProfile.PAGECACHE_SIZE));
+    assertEquals("16m", noMemory.getSettings().get(BulkLoadProfile.TX_LOG_ROTATION_SIZE));
+
+  }
+
+  @Test
+  public void testOverride() {
+    BulkLoadProfile profile = new BulkLoadProfile(new BulkLoadProfile.InputSize(), 16L << 30, 4L << 30);
+    profile.override("dbms.memory.pagecache.size=2g, dbms.checkpoint.interval.time=,dbms.tx_log.rotation.retention_policy=2 files");
+    assertEquals("2g", profile.getSettings().get(BulkLoadProfile.PAGECACHE_SIZE));
+    assertFalse(profile.getSettings().containsKey(BulkLoadProfile.CHECKPOINT_INTERVAL_TIME));
+    assertEquals("2 files", profile.getSettings().get(BulkLoadProfile.TX_LOG_RETENTION));
+    assertThrows(IllegalArgumentException.class, () -> profile.override("dbms.memory.pagecache.size"));
+  }
+
+  @Test
+  public void testApplyAndRestore() throws Exception {
+
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+    try {
+
+      String rotationSize = graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_ROTATION_SIZE);
+      String retention = graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_RETENTION);
+      String iopsLimit = graphDbLoader.getConfigValue(BulkLoadProfile.CHECKPOINT_IOPS_LIMIT);
+
+      // invalid profiles change nothing
+      Map<String, String> unknownSetting = new LinkedHashMap<String, String>();
+      unknownSetting.put(BulkLoadProfile.TX_LOG_ROTATION_SIZE, "16m");
+      unknownSetting.put("dbms.no_such_setting", "1");
+      assertThrows(IllegalArgumentException.class, () -> graphDbLoader.applyConfigProfile(unknownSetting));
+      assertThrows(IllegalArgumentException.class, () -> graphDbLoader.applyConfigProfile(Map.of(BulkLoadProfile.CHECKPOINT_IOPS_LIMIT, "fast")));
+      assertEquals(rotationSize, graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_ROTATION_SIZE));
+
+      // dynamic settings are applied, static ones reported with the value the database runs with
+      BulkLoadProfile profile = new BulkLoadProfile(new BulkLoadProfile.InputSize(), 16L << 30, 4L << 30);
+      Map<String, String> staticSettings = graphDbLoader.applyConfigProfile(profile.getSettings());
+      assertEquals("16.00MiB", graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_ROTATION_SIZE));
+      assertEquals("false", graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_RETENTION));
+      assertEquals("-1", graphDbLoader.getConfigValue(BulkLoadProfile.CHECKPOINT_IOPS_LIMIT));
+      assertEquals("50", staticSettings.get(BulkLoadProfile.RELATIONSHIP_GROUPING_THRESHOLD));
+      assertTrue(staticSettings.containsKey(BulkLoadProfile.PAGECACHE_SIZE));
+      assertFalse(staticSettings.containsKey(BulkLoadProfile.TX_LOG_ROTATION_SIZE));
+
+      // query-time values are back after the load
+      graphDbLoader.restoreConfigProfile();
+      assertEquals(rotationSize, graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_ROTATION_SIZE));
+      assertEquals(retention, graphDbLoader.getConfigValue(BulkLoadProfile.TX_LOG_RETENTION));
+      assertEquals(iopsLimit, graphDbLoader.getConfigValue(BulkLoadProfile.CHECKPOINT_IOPS_LIMIT));
+
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+}
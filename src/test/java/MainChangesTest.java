@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+@TestInstance(Lifecycle.PER_CLASS)
+// sf-potrero.osm loaded as in MainTest, then updated with an osmChange file (moved node, modified, created and
+//  deleted ways, created and deleted nodes)
+public class MainChangesTest {
+  
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  private static OsmSource source;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    source = new OsmSource(classLoader.getResource("xml/sf-potrero.osm").getFile());
+    assertNotNull(source);
+    graphDbLoader = new GraphDbLoader(directory.toFile().getAbsolutePath());
+    assertNotNull(graphDbLoader);
+
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+
+    OsmSource changeSource = new OsmSource(classLoader.getResource("osc/sf-potrero-changes.osc").getFile());
+    changeSource.applyChangesToGraph(graphDbLoader);
+    graphDbLoader.flush();
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  private long count(String cypher) {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute(cypher);
+    long count = (Long) result.next().get("total");
+    tx.close();
+    return count;
+  }
+
+  @Test
+  public void testNodeCount() throws Exception {
+    // one node created, one deleted
+    assertEquals(5368, count("MATCH (n) RETURN COUNT(DISTINCT(n)) AS total"));
+    assertEquals(1, count("MATCH (n) WHERE n.osm_id=9900000001 RETURN COUNT(n) AS total"));
+    assertEquals(0, count("MATCH (n) WHERE n.osm_id=1262382443 RETURN COUNT(n) AS total"));
+  }
+
+  @Test
+  public void testRelationshipCount() throws Exception {
+    // way 8919319 (1 segment) deleted, way 9900000100 (1 segment) created
+    assertEquals(676, count("MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total"));
+    assertEquals(0, count("MATCH ()-[r]-() WHERE r.osm_id=8919319 RETURN COUNT(DISTINCT(r)) AS total"));
+    assertEquals(2, count("MATCH ()-[r]-() WHERE r.osm_id=9900000100 RETURN COUNT(DISTINCT(r)) AS total"));
+  }
+
+  @Test
+  public void testMovedNode() throws Exception {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH (n) WHERE n.osm_id=65354557 RETURN n");
+    assertEquals(true, result.hasNext());
+    Node node = (Node) result.next().get("n");
+
+    Point nodeGeom = (Point) node.getProperty("geom");
+    List<Double> coords = nodeGeom.getCoordinate().getCoordinate();
+    assertEquals(-122.3964, coords.get(0));
+    assertEquals(37.7512, coords.get(1));
+    assertEquals("POINT(-122.3964 37.7512)", node.getProperty("geom_wkt"));
+    assertEquals(2, node.getProperty("version"));
+    tx.close();
+  }
+
+  @Test
+  public void testModifiedWay() throws Exception {
+    // rebuilt with new tags - 4 segments in both directions
+    assertEquals(8, count("MATCH ()-[r]-() WHERE r.osm_id=8920510 RETURN COUNT(DISTINCT(r)) AS total"));
+    assertEquals(8, count("MATCH ()-[r]-() WHERE r.osm_id=8920510 AND r.name='Connecticut St' AND r.version=2 RETURN COUNT(DISTINCT(r)) AS total"));
+
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH ()-[r]-() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN DISTINCT(r)");
+    assertEquals(true, result.hasNext());
+    Relationship rel = (Relationship) result.next().get("r");
+    assertEquals("LINESTRING(-122.3964 37.7512,-122.3964262 37.7513044)", rel.getProperty("way"));
+    tx.close();
+  }
+
+  @Test
+  public void testMovedNodeRelationshipGeometry() throws Exception {
+    // way 110800914 is not part of the change file, but starts at the moved node
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH ()-[r]-() WHERE r.osm_id=110800914 AND r.start_osm_id=65354557 RETURN DISTINCT(r)");
+    assertEquals(true, result.hasNext());
+    Relationship rel = (Relationship) result.next().get("r");
+
+    Point[] wayGeom = (Point[]) rel.getProperty("geom");
+    List<Double> coords = wayGeom[0].getCoordinate().getCoordinate();
+    assertEquals(-122.3964, coords.get(0));
+    assertEquals(37.7512, coords.get(1));
+    assertEquals(true, ((String) rel.getProperty("way")).startsWith("LINESTRING(-122.3964 37.7512,"));
+    tx.close();
+  }
+
+}
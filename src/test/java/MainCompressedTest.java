@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmFileInput;
+import me.callsen.taylor.osm2graph_neo4j.util.ParallelBZip2InputStream;
+
+// gzip and bzip2 compressed copies of sf-potrero.osm - decompressed while streaming, with the same result as the plain
+//  file (bzip2 blocks decoded in parallel must come out in order)
+public class MainCompressedTest {
+
+  @TempDir
+  Path directory;
+
+  private byte[] fixture() throws Exception {
+    return Files.readAllBytes(Path.of(getClass().getClassLoader().getResource("xml/sf-potrero.osm").toURI()));
+  }
+
+  private static byte[] bzip2(byte[] content, int blockSize) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (BZip2CompressorOutputStream bzip2Output = new BZip2CompressorOutputStream(output, blockSize)) {
+      bzip2Output.write(content);
+    }
+    return output.toByteArray();
+  }
+
+  private long count(String osmFilePath, String query) throws Exception {
+    OsmSource source = new OsmSource(osmFilePath);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph-" + Path.of(osmFilePath).getFileName()).toFile().getAbsolutePath());
+    try {
+      source.loadNodesIntoDb(graphDbLoader);
+      source.loadWaysIntoGraph(graphDbLoader);
+      graphDbLoader.flush();
+      source.closeNodeShapeStore();
+      try (Transaction tx = graphDbLoader.getTransaction()) {
+        Result result = tx.execute(query);
+        return (Long) result.next().get("total");
+      }
+    } finally {
+      graphDbLoader.shutdown();
+    }
+  }
+
+  @Test
+  public void testBzip2BlocksAndStreamsDecodeInOrder() throws Exception {
+
+    byte[] fixture = this.fixture();
+
+    // smallest block size (100k) over several copies - many blocks, followed by a second stream (as written by pbzip2)
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int copy = 0; copy < 8; ++copy) expected.write(fixture);
+    Path compressedFile = directory.resolve("repeated.osm.bz2");
+    try (OutputStream output = Files.newOutputStream(compressedFile)) {
+      output.write(bzip2(expected.toByteArray(), 1));
+      output.write(bzip2(fixture, 9));
+    }
+    expected.write(fixture);
+
+    for (int threads : new int[] { 1, 4 }) {
+      try (InputStream input = OsmFileInput.open(compressedFile.toString(), threads)) {
+        assertArrayEquals(expected.toByteArray(), input.readAllBytes());
+      }
+    }
+
+  }
+
+  @Test
+  public void testCompressedFilesLoadLikePlainFile() throws Exception {
+
+    byte[] fixture = this.fixture();
+
+    Path gzipFile = directory.resolve("sf-potrero.osm.gz");
+    try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(gzipFile))) {
+      output.write(fixture);
+    }
+    Path bzip2File = Files.write(directory.resolve("sf-potrero.osm.bz2"), bzip2(fixture, 1));
+
+    assertEquals(5368, count(gzipFile.toString(), "MATCH (n) RETURN COUNT(DISTINCT(n)) AS total"));
+    assertEquals(676, count(bzip2File.toString(), "MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total"));
+
+  }
+
+  @Test
+  public void testBzip2InputFailures() throws Exception {
+
+    // not bzip2 at all - e.g. a plain file with a .bz2 extension
+    try (InputStream input = new ParallelBZip2InputStream(new ByteArrayInputStream(this.fixture()), 2)) {
+      IOException exception = assertThrows(IOException.class, () -> input.readAllBytes());
+      assertEquals("not a bzip2 stream - missing BZh header", exception.getMessage());
+    }
+    try (InputStream input = new ParallelBZip2InputStream(new ByteArrayInputStream(new byte[0]), 2)) {
+      assertThrows(IOException.class, () -> input.readAllBytes());
+    }
+
+    // the underlying stream failing part way with an unchecked exception - reported, not taken as the end of input
+    byte[] compressed = bzip2(this.fixture(), 1);
+    InputStream failingInput = new ByteArrayInputStream(compressed) {
+      @Override
+      public synchronized int read(byte[] buffer, int offset, int length) {
+        if (this.pos > compressed.length / 2) throw new IllegalStateException("device error");
+        return super.read(buffer, offset, Math.min(length, 1024));
+      }
+    };
+    try (InputStream input = new ParallelBZip2InputStream(failingInput, 2)) {
+      IOException exception = assertThrows(IOException.class, () -> input.readAllBytes());
+      assertEquals("device error", exception.getCause().getMessage());
+    }
+
+  }
+
+}
@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.routing.CsrAdjacencyBuilder;
+import me.callsen.taylor.osm2graph_neo4j.routing.CsrAdjacencyFile;
+
+// CSR adjacency snapshot - written during the load, traversed through the memory mapped file, and reproduced
+//  identically from the store (exportcsr action)
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainCsrTest {
+
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  private static Path loadCsrFile;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    OsmSource source = new OsmSource(classLoader.getResource("xml/sf-potrero.osm").getFile());
+    graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+
+    CsrAdjacencyBuilder csrAdjacencyBuilder = new CsrAdjacencyBuilder();
+    graphDbLoader.setCsrAdjacencyBuilder(csrAdjacencyBuilder);
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+
+    loadCsrFile = directory.resolve("load.csr");
+    csrAdjacencyBuilder.write(loadCsrFile);
+
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  @Test
+  public void testAdjacency() throws Exception {
+
+    try ( CsrAdjacencyFile csr = new CsrAdjacencyFile(loadCsrFile) ; Transaction tx = graphDbLoader.getTransaction() ) {
+
+      assertEquals(5368, csr.getNodeCount());
+      assertEquals(676, csr.getEdgeCount());
+      assertEquals(-1, csr.findNode(1));
+
+      // node mapping back to osm_id and Neo4j id
+      int node = csr.findNode(65354557);
+      assertEquals(65354557, csr.getOsmId(node));
+      Node intersectionNode = tx.getNodeById(csr.getNeo4jId(node));
+      assertEquals(65354557, ((Number) intersectionNode.getProperty("osm_id")).longValue());
+      assertEquals(-122.3964163, csr.getLon(node), 1e-9);
+      assertEquals(37.7511897, csr.getLat(node), 1e-9);
+
+      // outgoing edges match the node's outgoing relationships
+      Map<Long, Double> expectedLengths = new HashMap<Long, Double>();
+      Result result = tx.execute("MATCH (a)-[r:CONNECTS]->(b) WHERE a.osm_id=65354557 RETURN b.osm_id AS target, r.length AS length, r.highway AS highway");
+      while (result.hasNext()) {
+        Map<String, Object> row = result.next();
+        expectedLengths.put(((Number) row.get("target")).longValue(), (Double) row.get("length"));
+        assertEquals("residential", row.get("highway"));
+      }
+      assertEquals(2, expectedLengths.size());
+      assertEquals(2, csr.getEdgeEnd(node) - csr.getFirstEdge(node));
+      for (long edge = csr.getFirstEdge(node); edge < csr.getEdgeEnd(node); ++edge) {
+        long targetOsmId = csr.getOsmId(csr.getTarget(edge));
+        assertTrue(expectedLengths.containsKey(targetOsmId));
+        assertEquals(expectedLengths.get(targetOsmId).floatValue(), csr.getLength(edge));
+        assertEquals("residential", CsrAdjacencyFile.HIGHWAY_CLASSES[csr.getHighwayClass(edge)]);
+      }
+
+      // offsets cover every edge
+      assertEquals(0, csr.getFirstEdge(0));
+      assertEquals(csr.getEdgeCount(), csr.getEdgeEnd(csr.getNodeCount() - 1));
+
+    }
+
+  }
+
+  @Test
+  public void testExportMatchesLoadSnapshot() throws Exception {
+    CsrAdjacencyBuilder csrExportBuilder = new CsrAdjacencyBuilder();
+    graphDbLoader.readCsrAdjacency(csrExportBuilder);
+    Path exportCsrFile = directory.resolve("export.csr");
+    csrExportBuilder.write(exportCsrFile);
+    assertArrayEquals(Files.readAllBytes(loadCsrFile), Files.readAllBytes(exportCsrFile));
+  }
+
+}
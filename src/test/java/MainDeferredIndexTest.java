@@ -0,0 +1,213 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+
+import me.callsen.taylor.osm2graph_neo4j.data.AdaptiveCommitPolicy;
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.LoadCheckpoint;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+
+// deferred index lifecycle - the load runs without indexes (endpoints resolved through the node id cache only), the
+//  indexes are built once it is committed
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainDeferredIndexTest {
+
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  private static boolean intersectionIndexedDuringLoad;
+
+  // metrics of the load (other tests of the class record their own)
+  private static long intersectionIndexSeeks;
+  private static long indexPopulations;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    LoadMetrics.get().reset();
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    OsmSource source = new OsmSource(classLoader.getResource("xml/sf-potrero.osm").getFile());
+    graphDbLoader = new GraphDbLoader(directory.toFile().getAbsolutePath());
+
+    graphDbLoader.deferIndexes();
+    intersectionIndexedDuringLoad = hasIntersectionIndex();
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.createDeferredIndexes(1);
+
+    intersectionIndexSeeks = LoadMetrics.get().counter("graph.intersection_index_seeks").get();
+    indexPopulations = LoadMetrics.get().timer("graph.index_population").getCount();
+
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  private static boolean hasIntersectionIndex() {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+      return tx.schema().getIndexes(Label.label("INTERSECTION")).iterator().hasNext();
+    }
+  }
+
+  private static long count(String query) {
+    return count(graphDbLoader, query);
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+      return (Long) tx.execute(query).next().get("total");
+    }
+  }
+
+  @Test
+  public void testCounts() throws Exception {
+    assertEquals(5368, count("MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+    assertEquals(676, count("MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+    assertEquals(4, count("MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+  }
+
+  @Test
+  public void testIndexesBuiltAfterLoad() throws Exception {
+
+    assertFalse(intersectionIndexedDuringLoad);
+
+    // every endpoint came from the node id cache
+    assertEquals(0, intersectionIndexSeeks);
+    assertEquals(1, indexPopulations);
+
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+      Schema schema = tx.schema();
+      boolean osmIdIndexed = false;
+      for (IndexDefinition index : schema.getIndexes(Label.label("INTERSECTION"))) {
+        assertEquals(Schema.IndexState.ONLINE, schema.getIndexState(index));
+        for (String propertyKey : index.getPropertyKeys()) osmIdIndexed |= propertyKey.equals("osm_id");
+      }
+      assertTrue(osmIdIndexed);
+
+      // lookups by osm_id use the index again
+      String plan = tx.execute("EXPLAIN MATCH (n:INTERSECTION {osm_id: 65354557}) RETURN n").getExecutionPlanDescription().toString();
+      assertTrue(plan.contains("NodeIndexSeek"), plan);
+    }
+
+  }
+
+  // loadways run on its own - way coordinates come from the graph (no node pass in this run), and have to be resolved
+  //  without indexes when its resume defers them
+  @Test
+  public void testResumeLoadWaysDeferred(@TempDir Path resumeDirectory) throws Exception {
+
+    String graphDbPath = resumeDirectory.toFile().getAbsolutePath();
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+
+    GraphDbLoader nodeLoader = new GraphDbLoader(graphDbPath);
+    new OsmSource(osmFilePath).loadNodesIntoDb(nodeLoader);
+    nodeLoader.flush();
+    nodeLoader.shutdown();
+
+    // interrupted loadways (simulated crash after a few checkpoints)
+    GraphDbLoader crashingLoader = new GraphDbLoader(graphDbPath) {
+      private long remainingRelationships = 400;
+      @Override
+      public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+        if (--this.remainingRelationships < 0) throw new IllegalStateException("simulated crash");
+        super.createRelationship(wayProps, wayStartOsmId, wayEndOsmId);
+      }
+    };
+    crashingLoader.setCommitPolicy(new AdaptiveCommitPolicy(20000, 20000, 60000));
+    crashingLoader.rebuildNodeIdCache();
+    crashingLoader.enableCheckpoints("loadways", osmFilePath);
+    assertThrows(IllegalStateException.class, () -> new OsmSource(osmFilePath).loadWaysIntoGraph(crashingLoader));
+    crashingLoader.shutdown();
+
+    // resume with deferred indexes
+    GraphDbLoader resumeLoader = new GraphDbLoader(graphDbPath);
+    try {
+      LoadCheckpoint checkpoint = resumeLoader.readCheckpoint();
+      assertNotNull(checkpoint);
+      assertEquals(LoadCheckpoint.PHASE_WAYS, checkpoint.getPhase());
+      assertTrue(checkpoint.getOrdinal() > 0);
+      LoadMetrics.get().reset();
+      resumeLoader.deferIndexes();
+      assertTrue(new OsmSource(osmFilePath).resumeLoadIntoGraph(resumeLoader, osmFilePath));
+      resumeLoader.createDeferredIndexes(1);
+      assertNull(resumeLoader.readCheckpoint());
+      assertTrue(LoadMetrics.get().timer("graph.coordinate_lookup").getCount() > 0);
+      assertEquals(0, LoadMetrics.get().counter("failures.coordinate_lookups").get());
+      assertEquals(0, LoadMetrics.get().counter("graph.intersection_index_seeks").get());
+      assertEquals(676, count(resumeLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+      assertEquals(4, count(resumeLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+    } finally {
+      resumeLoader.shutdown();
+    }
+
+  }
+
+  // default load interrupted in its node pass - the resumed node pass leaves its last batch uncommitted, and those
+  //  nodes must still be in the node id cache the way pass resolves endpoints through
+  @Test
+  public void testResumeNodesDeferred(@TempDir Path resumeDirectory) throws Exception {
+
+    String graphDbPath = resumeDirectory.toFile().getAbsolutePath();
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+
+    // interrupted load (simulated crash after a few checkpoints)
+    GraphDbLoader crashingLoader = new GraphDbLoader(graphDbPath) {
+      private long remainingNodes = 3000;
+      @Override
+      public void createNode(OsmNode osmNode, Map<String, Object> nodeProps) {
+        if (--this.remainingNodes < 0) throw new IllegalStateException("simulated crash");
+        super.createNode(osmNode, nodeProps);
+      }
+    };
+    crashingLoader.setCommitPolicy(new AdaptiveCommitPolicy(20000, 20000, 60000));
+    crashingLoader.enableCheckpoints("default", osmFilePath);
+    assertThrows(IllegalStateException.class, () -> new OsmSource(osmFilePath).loadNodesIntoDb(crashingLoader));
+    crashingLoader.shutdown();
+
+    // resume with deferred indexes
+    GraphDbLoader resumeLoader = new GraphDbLoader(graphDbPath);
+    try {
+      LoadCheckpoint checkpoint = resumeLoader.readCheckpoint();
+      assertNotNull(checkpoint);
+      assertEquals(LoadCheckpoint.PHASE_NODES, checkpoint.getPhase());
+      assertTrue(checkpoint.getOrdinal() > 0);
+      LoadMetrics.get().reset();
+      resumeLoader.deferIndexes();
+      assertTrue(new OsmSource(osmFilePath).resumeLoadIntoGraph(resumeLoader, osmFilePath));
+      resumeLoader.createDeferredIndexes(1);
+      assertNull(resumeLoader.readCheckpoint());
+      assertEquals(0, LoadMetrics.get().counter("failures.relationships").get());
+      assertEquals(5368, count(resumeLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertEquals(676, count(resumeLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+      assertEquals(4, count(resumeLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+    } finally {
+      resumeLoader.shutdown();
+    }
+
+  }
+
+}
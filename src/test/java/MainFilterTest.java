@@ -0,0 +1,112 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.LoadFilter;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// sf-potrero.osm loaded through area and tag filters - out-of-area / rejected elements never reach the graph, and
+//  ways crossing the area boundary follow the boundary policy
+public class MainFilterTest {
+
+  // part of the extract's bounds (-122.4039,37.7510 - -122.3947,37.7556)
+  private static final double MIN_LON = -122.4000, MIN_LAT = 37.7520, MAX_LON = -122.3970, MAX_LAT = 37.7540;
+
+  @TempDir
+  Path directory;
+
+  private GraphDbLoader load(LoadFilter loadFilter) throws Exception {
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    source.setLoadFilter(loadFilter);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+    source.closeNodeShapeStore();
+    return graphDbLoader;
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute(query);
+      return (Long) result.next().get("total");
+    }
+  }
+
+  private static final String NODES_OUTSIDE = "MATCH (n:INTERSECTION) WHERE NOT (n.geom.x >= " + MIN_LON + " AND n.geom.x <= " + MAX_LON
+      + " AND n.geom.y >= " + MIN_LAT + " AND n.geom.y <= " + MAX_LAT + ") RETURN COUNT(n) AS total";
+
+  @Test
+  public void testBoundingBoxKeepsCrossingWays() throws Exception {
+
+    LoadFilter loadFilter = new LoadFilter();
+    loadFilter.setBoundingBox(MIN_LON + "," + MIN_LAT + "," + MAX_LON + "," + MAX_LAT);
+    GraphDbLoader graphDbLoader = this.load(loadFilter);
+
+    try {
+      // nodes inside the box, plus the nodes outside it that belong to ways crossing the boundary
+      assertEquals(474, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertEquals(33, count(graphDbLoader, NODES_OUTSIDE));
+      // every node outside the box is a way node
+      assertEquals(0, count(graphDbLoader, NODES_OUTSIDE.replace("RETURN", "AND NOT (n)-[:CONNECTS]-() RETURN")));
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testBoundingBoxClipsCrossingWays() throws Exception {
+
+    LoadFilter loadFilter = new LoadFilter();
+    loadFilter.setBoundingBox(MIN_LON + "," + MIN_LAT + "," + MAX_LON + "," + MAX_LAT);
+    loadFilter.setClipAtBoundary(true);
+    GraphDbLoader graphDbLoader = this.load(loadFilter);
+
+    try {
+      assertEquals(441, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertEquals(0, count(graphDbLoader, NODES_OUTSIDE));
+      assertTrue(count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total") > 0);
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testPolygonAndTagFilters() throws Exception {
+
+    // same box as polygon (Osmosis format, ring left open)
+    Path polygonFile = directory.resolve("area.poly");
+    Files.write(polygonFile, List.of("area", "1",
+        "  " + MIN_LON + " " + MIN_LAT, "  " + MAX_LON + " " + MIN_LAT, "  " + MAX_LON + " " + MAX_LAT, "  " + MIN_LON + " " + MAX_LAT,
+        "END", "END"), StandardCharsets.UTF_8);
+
+    LoadFilter loadFilter = new LoadFilter();
+    loadFilter.setPolygon(polygonFile);
+    loadFilter.setClipAtBoundary(true);
+    loadFilter.setIncludeTags("highway=residential|service");
+    loadFilter.setExcludeTags("service");
+    GraphDbLoader graphDbLoader = this.load(loadFilter);
+
+    try {
+      assertEquals(441, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertTrue(count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total") > 0);
+      assertEquals(0, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() WHERE NOT r.highway IN ['residential', 'service'] OR r.service IS NOT NULL RETURN COUNT(r) AS total"));
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// --highway-nodes-only - nodes no highway way references (buildings, landuse, POIs ..) are skipped in the node pass;
+//  relationships are the same as a full load. Both readers skip the node / way records a pass doesn't consume
+public class MainHighwayNodesTest {
+
+  @TempDir
+  Path directory;
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute(query);
+      return (Long) result.next().get("total");
+    }
+  }
+
+  private void assertHighwayNodesOnly(String osmResource) throws Exception {
+
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource(osmResource).getFile());
+    source.setReferencedNodesOnly(true);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+
+    try {
+      source.loadNodesIntoDb(graphDbLoader);
+      source.loadWaysIntoGraph(graphDbLoader);
+      graphDbLoader.flush();
+      source.closeNodeShapeStore();
+
+      assertEquals(325, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertEquals(676, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+      assertEquals(0, count(graphDbLoader, "MATCH (n:INTERSECTION) WHERE NOT (n)-[:CONNECTS]-() RETURN COUNT(n) AS total"));
+      assertEquals(4, count(graphDbLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testXml() throws Exception {
+    this.assertHighwayNodesOnly("xml/sf-potrero.osm");
+  }
+
+  @Test
+  public void testPbf() throws Exception {
+    this.assertHighwayNodesOnly("pbf/sf-potrero.osm.pbf");
+  }
+
+}
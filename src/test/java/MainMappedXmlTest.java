@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.MappedXmlOsmReader;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.XmlOsmReader;
+
+// memory mapped, chunk-parallel scanning of OSM XML - elements must come out exactly as read by the StAX reader, in
+//  file order, wherever the chunk boundaries fall
+public class MainMappedXmlTest {
+
+  @TempDir
+  Path directory;
+
+  private static List<String> readElements(IOsmReader reader, long skipWays) throws Exception {
+    List<String> elements = new ArrayList<String>();
+    reader.read(new IOsmElementHandler() {
+
+      @Override
+      public void onNode(OsmNode node) {
+        elements.add("node " + node.getId() + " " + node.getLat() + " " + node.getLon() + " " + node.getAttributes() + " " + node.getTags());
+      }
+
+      @Override
+      public void onWay(OsmWay way) {
+        elements.add("way " + way.getId() + " " + Arrays.toString(way.getNodeRefs()) + " " + way.getAttributes() + " " + way.getTags());
+      }
+
+    }, skipWays);
+    return elements;
+  }
+
+  @Test
+  public void testChunksMatchStreamingReader() throws Exception {
+
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+    List<String> expected = readElements(new XmlOsmReader(osmFilePath), 0);
+    assertEquals(6039, expected.size());
+
+    // chunk sizes from tiny (hundreds of chunks, elements spanning several) to the whole file in one
+    for (int chunkSize : new int[] { 1024, 3000, 64 * 1024, MappedXmlOsmReader.DEFAULT_CHUNK_SIZE }) {
+      for (int threads : new int[] { 1, 4 }) {
+        assertEquals(expected, readElements(new MappedXmlOsmReader(osmFilePath, threads, chunkSize), 0), "chunk size " + chunkSize + ", " + threads + " threads");
+      }
+    }
+
+    // resumed reads skip ways on dispatch
+    assertEquals(readElements(new XmlOsmReader(osmFilePath), 30), readElements(new MappedXmlOsmReader(osmFilePath, 4, 1024), 30));
+
+  }
+
+  @Test
+  public void testEntitiesWhitespaceAndMarkup() throws Exception {
+
+    // entity and character references, CRLF line ends, UTF-8, '>' inside values, comments, relations and numbers that
+    //  aren't plain decimals
+    String osmXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n"
+        + "<!-- <node id=\"9\"/> in a comment -->\r\n"
+        + "<osm version=\"0.6\">\r\n"
+        + " <bounds minlat=\"1\" minlon=\"2\" maxlat=\"3\" maxlon=\"4\"/>\r\n"
+        + " <node id=\"1\" lat=\"37.5\" lon=\"-122.25\" user=\"Jos\u00e9 &amp; &#x263A; &lt;x&gt;\" version=\"2\"/>\r\n"
+        + " <node id='22' lat=\"1e-3\" lon=\"12345678901234567.5\">\r\n"
+        + "  <tag k=\"name\" v=\"a>b &quot;q&quot; \u6771\"/>\r\n"
+        + "  <tag k=\"note\" v=\"line1&#10;line2\tx\"/>\r\n"
+        + " </node>\n"
+        + " <way id=\"5\">\n  <nd ref=\"1\"/><nd ref=\"22\"/>\n  <tag k=\"highway\" v=\"residential\"/>\n  <tag k=\"x&amp;y\" v=\"v&apos;\"/>\n </way>\n"
+        + " <relation id=\"7\"><member type=\"node\" ref=\"1\" role=\"\"/><tag k=\"type\" v=\"route\"/></relation>\n"
+        + " <way id=\"6\"/>\n"
+        + " <node id=\"-3\" lat=\"-0.0\" lon=\"+5\" visible=\"true\"></node>\n"
+        + "</osm>\n";
+    Path osmFile = Files.write(directory.resolve("markup.osm"), osmXml.getBytes(StandardCharsets.UTF_8));
+
+    List<String> elements = readElements(new MappedXmlOsmReader(osmFile.toString()), 0);
+    assertEquals(readElements(new XmlOsmReader(osmFile.toString()), 0), elements);
+    assertEquals(5, elements.size());
+    assertTrue(elements.get(0).contains("user=Jos\u00e9 & \u263a <x>"));
+    assertTrue(elements.get(1).contains("name=a>b \"q\" \u6771"));
+
+    // documents other than <osm> (e.g. osmChange) yield no elements
+    Path changeFile = Files.write(directory.resolve("change.osm"), "<osmChange><create><node id=\"1\" lat=\"1\" lon=\"1\"/></create></osmChange>".getBytes(StandardCharsets.UTF_8));
+    assertEquals(0, readElements(new MappedXmlOsmReader(changeFile.toString()), 0).size());
+
+  }
+
+  @Test
+  public void testRootElementAfterLongProlog() throws Exception {
+
+    // a comment larger than the boundary window before the root - the root is still found
+    String body = "<osm version=\"0.6\">\n <node id=\"1\" lat=\"37.5\" lon=\"-122.25\"/>\n</osm>\n";
+    String prolog = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<!-- " + "x".repeat(100 * 1024) + " -->\n";
+    Path osmFile = Files.write(directory.resolve("prolog.osm"), (prolog + body).getBytes(StandardCharsets.UTF_8));
+    assertEquals(readElements(new XmlOsmReader(osmFile.toString()), 0), readElements(new MappedXmlOsmReader(osmFile.toString()), 0));
+    assertEquals(1, readElements(new MappedXmlOsmReader(osmFile.toString()), 0).size());
+
+    // same for a root name cut by the end of the first head read
+    Path edgeFile = Files.write(directory.resolve("edge.osm"), ("<!--" + "x".repeat(16 * 1024 - 9) + "--><osm>" + body.substring(body.indexOf('\n'))).getBytes(StandardCharsets.UTF_8));
+    assertEquals(1, readElements(new MappedXmlOsmReader(edgeFile.toString()), 0).size());
+
+    // no root element at all - an error, not an empty extract
+    Path prologOnlyFile = Files.write(directory.resolve("prolog-only.osm"), prolog.getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> readElements(new MappedXmlOsmReader(prologOnlyFile.toString()), 0));
+    Path emptyFile = Files.write(directory.resolve("empty.osm"), new byte[0]);
+    assertThrows(IOException.class, () -> readElements(new MappedXmlOsmReader(emptyFile.toString()), 0));
+
+  }
+
+}
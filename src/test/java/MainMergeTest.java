@@ -0,0 +1,118 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// several input files merged into one load - elements contained in more than one file are loaded once, newest first
+public class MainMergeTest {
+
+  @TempDir
+  Path directory;
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+      return (Long) tx.execute(query).next().get("total");
+    }
+  }
+
+  private static GraphDbLoader load(String osmFilePaths, Path graphDbPath) throws Exception {
+    OsmSource source = new OsmSource(osmFilePaths);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath.toFile().getAbsolutePath());
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+    source.closeNodeShapeStore();
+    return graphDbLoader;
+  }
+
+  @Test
+  public void testIdenticalExtractsLoadOnce() throws Exception {
+
+    // same extract as XML and PBF - every element is a duplicate
+    ClassLoader classLoader = getClass().getClassLoader();
+    String osmFilePaths = classLoader.getResource("xml/sf-potrero.osm").getFile() + "," + classLoader.getResource("pbf/sf-potrero.osm.pbf").getFile();
+
+    GraphDbLoader graphDbLoader = load(osmFilePaths, directory.resolve("graph.db"));
+    try {
+      assertEquals(5368, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      assertEquals(676, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+      assertEquals(4, count(graphDbLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testNewestCopyWins() throws Exception {
+
+    // overlapping extract - a newer version of a node and a way, an older copy of a node and a clipped copy of a way
+    String overlapXml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<osm version=\"0.6\">\n"
+        + " <node id=\"65354557\" lat=\"37.7512\" lon=\"-122.3965\" version=\"2\"/>\n"
+        + " <node id=\"6916235511\" lat=\"1\" lon=\"1\" version=\"1\"/>\n"
+        + " <way id=\"8919874\" version=\"1\"><nd ref=\"65348498\"/><nd ref=\"311189921\"/><tag k=\"highway\" v=\"residential\"/></way>\n"
+        + " <way id=\"8920510\" version=\"2\">"
+        + "<nd ref=\"65354557\"/><nd ref=\"6916235511\"/><nd ref=\"5443322881\"/><nd ref=\"8574199722\"/><nd ref=\"65288952\"/>"
+        + "<tag k=\"highway\" v=\"residential\"/><tag k=\"name\" v=\"Connecticut Street (renamed)\"/></way>\n"
+        + "</osm>\n";
+    Path overlapFile = Files.write(directory.resolve("overlap.osm"), overlapXml.getBytes(StandardCharsets.UTF_8));
+
+    String osmFilePaths = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile() + "," + overlapFile;
+    GraphDbLoader graphDbLoader = load(osmFilePaths, directory.resolve("graph.db"));
+    try ( Transaction tx = graphDbLoader.getTransaction() ) {
+
+      assertEquals(5368, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+      // the clipped way is ignored - the complete copy has more node refs
+      assertEquals(676, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+
+      // newer node version
+      Node movedNode = tx.findNode(() -> "INTERSECTION", "osm_id", 65354557);
+      List<Double> coords = ((Point) movedNode.getProperty("geom")).getCoordinate().getCoordinate();
+      assertEquals(-122.3965, coords.get(0));
+      assertEquals(37.7512, coords.get(1));
+
+      // same version - the copy from the first file
+      Node unchangedNode = tx.findNode(() -> "INTERSECTION", "osm_id", 6916235511L);
+      assertEquals(-122.3964262, ((Point) unchangedNode.getProperty("geom")).getCoordinate().getCoordinate().get(0));
+
+      // newer way version
+      Map<String, Object> row = tx.execute("MATCH ()-[r]->() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN r").next();
+      Relationship relationship = (Relationship) row.get("r");
+      assertEquals("Connecticut Street (renamed)", relationship.getProperty("name"));
+      assertEquals(false, relationship.hasProperty("tiger:cfcc"));
+
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+  @Test
+  public void testUnsortedSourceFails() throws Exception {
+    Path unsortedFile = Files.write(directory.resolve("unsorted.osm"), ("<osm version=\"0.6\">\n"
+        + " <node id=\"2\" lat=\"1\" lon=\"1\"/>\n <node id=\"1\" lat=\"1\" lon=\"1\"/>\n</osm>\n").getBytes(StandardCharsets.UTF_8));
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile() + "," + unsortedFile);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+    try {
+      assertThrows(IllegalStateException.class, () -> source.loadNodesIntoDb(graphDbLoader));
+    } finally {
+      graphDbLoader.shutdown();
+    }
+  }
+
+}
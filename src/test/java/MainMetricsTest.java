@@ -0,0 +1,63 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+
+// load metrics of a sf-potrero.osm load - element counters match the graph, stage timers and the JSON summary
+//  are populated
+public class MainMetricsTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testLoadMetrics() throws Exception {
+
+    LoadMetrics metrics = LoadMetrics.get();
+    metrics.reset();
+
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph.db").toFile().getAbsolutePath());
+    try {
+      source.loadNodesIntoDb(graphDbLoader);
+      source.loadWaysIntoGraph(graphDbLoader);
+      graphDbLoader.flush();
+    } finally {
+      source.closeNodeShapeStore();
+      graphDbLoader.shutdown();
+    }
+
+    assertEquals(5368, metrics.counter("nodes.written").get());
+    assertEquals(84, metrics.counter("ways.written").get());
+    assertEquals(676, metrics.counter("segments.written").get());
+    assertEquals(0, metrics.counter("failures.nodes").get());
+    assertEquals(0, metrics.counter("failures.relationships").get());
+
+    // every written element passed through transform and write, and at least the final flush committed
+    assertEquals(5368, metrics.timer("nodes.transform").getCount());
+    assertEquals(5368, metrics.timer("nodes.write").getCount());
+    assertEquals(84, metrics.timer("ways.write").getCount());
+    assertTrue(metrics.timer("graph.commit").getCount() >= 1);
+    assertTrue(metrics.timer("graph.commit").getPercentileNanos(0.5) <= metrics.timer("graph.commit").getMaxNanos());
+
+    Path summaryPath = directory.resolve("metrics.json");
+    metrics.writeSummary(summaryPath, Map.of("action", "default"));
+    JSONObject summary = new JSONObject(new String(Files.readAllBytes(summaryPath), StandardCharsets.UTF_8));
+    assertEquals("default", summary.getJSONObject("run").getString("action"));
+    assertEquals(676, summary.getJSONObject("counters").getLong("segments.written"));
+    assertEquals(84, summary.getJSONObject("timers").getJSONObject("ways.write").getLong("count"));
+
+  }
+
+}
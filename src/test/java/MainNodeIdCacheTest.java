@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.metrics.LoadMetrics;
+import me.callsen.taylor.osm2graph_neo4j.util.LongLongMap;
+
+// osm_id -> node id cache - the primitive map behind it (growth, spill to a memory mapped file) and a loadnodes +
+//  loadways run, where the cache is rebuilt from the graph instead of filled by the node pass
+public class MainNodeIdCacheTest {
+
+  @TempDir
+  Path directory;
+
+  @Test
+  public void testMapGrowthAndSpill() throws Exception {
+
+    // 2MB on the heap - the initial table (64K slots, 1MB) grows once in place, then moves to a mapped file
+    Path spillDirectory = Files.createDirectories(directory.resolve("spill"));
+    try (LongLongMap map = new LongLongMap(2L << 20, spillDirectory)) {
+
+      for (long key = 0; key < 50_000; ++key) map.put(key * 7919, key);
+      assertFalse(map.isSpilled());
+
+      for (long key = 50_000; key < 300_000; ++key) map.put(key * 7919, key);
+      assertTrue(map.isSpilled());
+
+      // every entry survives the moves, updates don't add entries
+      assertEquals(300_000, map.size());
+      for (long key = 0; key < 300_000; ++key) assertEquals(key, map.get(key * 7919, -1));
+      map.put(7919, 42);
+      assertEquals(300_000, map.size());
+      assertEquals(42, map.get(7919, -1));
+
+      // negative ids (e.g. new elements in an osmChange) and misses
+      map.put(-5, 5);
+      assertEquals(5, map.get(-5, -1));
+      assertEquals(-1, map.get(1, -1));
+      assertEquals(-1, map.get(Long.MAX_VALUE, -1));
+      assertThrows(IllegalArgumentException.class, () -> map.put(Long.MIN_VALUE, 1));
+
+      // back to an empty heap table
+      map.clear();
+      assertFalse(map.isSpilled());
+      assertEquals(0, map.size());
+      assertEquals(-1, map.get(7919, -1));
+
+    }
+
+  }
+
+  @Test
+  public void testSeparateNodeAndWayRuns() throws Exception {
+
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+    String graphDbPath = directory.resolve("graph.db").toFile().getAbsolutePath();
+
+    // loadnodes
+    OsmSource nodeSource = new OsmSource(osmFilePath);
+    GraphDbLoader nodeGraphDbLoader = new GraphDbLoader(graphDbPath);
+    try {
+      nodeSource.loadNodesIntoDb(nodeGraphDbLoader);
+      nodeGraphDbLoader.flush();
+      nodeSource.closeNodeShapeStore();
+    } finally {
+      nodeGraphDbLoader.shutdown();
+    }
+
+    // loadways - another process: endpoints and coordinates resolved through the rebuilt cache
+    LoadMetrics.get().reset();
+    OsmSource waySource = new OsmSource(osmFilePath);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath);
+    try {
+      graphDbLoader.rebuildNodeIdCache();
+      waySource.loadWaysIntoGraph(graphDbLoader);
+      graphDbLoader.flush();
+
+      assertEquals(0, LoadMetrics.get().counter("graph.intersection_index_seeks").get());
+      try (Transaction tx = graphDbLoader.getTransaction()) {
+        Result result = tx.execute("MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total");
+        assertEquals(676L, result.next().get("total"));
+        result = tx.execute("MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total");
+        assertEquals(4L, result.next().get("total"));
+        result = tx.execute("MATCH ()-[r]->() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN r.way AS way");
+        assertEquals("LINESTRING(-122.3964163 37.7511897,-122.3964262 37.7513044)", result.next().get("way"));
+      }
+    } finally {
+      graphDbLoader.shutdown();
+    }
+
+  }
+
+}
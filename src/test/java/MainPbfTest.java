@@ -0,0 +1,155 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.IOsmElementHandler;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.impl.PbfOsmReader;
+
+// same extract as MainTest (sf-potrero.osm converted to PBF with dense nodes) - graph must match the XML load
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainPbfTest {
+  
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  private static OsmSource source;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    source = new OsmSource(classLoader.getResource("pbf/sf-potrero.osm.pbf").getFile());
+    assertNotNull(source);
+    graphDbLoader = new GraphDbLoader(directory.toFile().getAbsolutePath());
+    assertNotNull(graphDbLoader);
+
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  @Test
+  public void testNodeCount() throws Exception {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH (n) RETURN COUNT(DISTINCT(n)) AS total");
+    while ( result.hasNext() ) {
+      Map<String, Object> row = result.next();
+      long count = (Long) row.get("total");
+      assertEquals(5368, count);
+    }
+    tx.close();
+  }
+
+  @Test
+  public void testNodeProperties() throws Exception {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH (n) WHERE n.osm_id=65281752 RETURN n");
+    while ( result.hasNext() ) {
+      Map<String, Object> row = result.next();
+      Node node = (Node)row.get("n");
+      
+      // osm_id
+      assertEquals(65281752, node.getProperty("osm_id"));
+      // geom as Point
+      Point nodeGeom = (Point) node.getProperty("geom");
+      List<Double> coords = nodeGeom.getCoordinate().getCoordinate();
+      assertEquals(-122.4033474, coords.get(0));
+      assertEquals(37.7514659, coords.get(1));
+      // geom_wkt
+      assertEquals("POINT(-122.4033474 37.7514659)", node.getProperty("geom_wkt"));
+      // properties and tags (from dense node keys_vals)
+      assertEquals(1, node.getProperty("version"));
+      assertEquals("motorway_junction", node.getProperty("highway"));
+      assertEquals("yes", node.getProperty("noref"));
+    }
+    tx.close();
+  }
+
+  @Test
+  public void testRelationshipCount() throws Exception {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total");
+    while ( result.hasNext() ) {
+      Map<String, Object> row = result.next();
+      long count = (Long) row.get("total");
+      assertEquals(676, count);
+    }
+    tx.close();
+  }
+
+  @Test
+  public void testRelationshipProperties() throws Exception {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute("MATCH ()-[r]-() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 return DISTINCT(r)");
+    while ( result.hasNext() ) {
+      Map<String, Object> row = result.next();
+      Relationship rel = (Relationship)row.get("r");
+      
+      // osm_id
+      assertEquals(8920510, rel.getProperty("osm_id"));
+      // geom as Point
+      Point[] wayGeom = (Point[]) rel.getProperty("geom");
+      List<Double> coords = wayGeom[0].getCoordinate().getCoordinate();
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
+      // way wkt
+      assertEquals("LINESTRING(-122.3964163 37.7511897,-122.3964262 37.7513044)", rel.getProperty("way"));
+      // properties
+      assertEquals("residential", rel.getProperty("highway"));
+      assertEquals("Connecticut Street", rel.getProperty("name"));
+    }
+    tx.close();
+  }
+
+  // failures while decoding on the worker pool, or in the handler, reach the caller as thrown - not wrapped
+  @Test
+  public void testReadFailures() throws Exception {
+
+    // broken zlib stream header ("78 da" at offset 125) of the first data block
+    byte[] pbf = Files.readAllBytes(Path.of(getClass().getClassLoader().getResource("pbf/sf-potrero.osm.pbf").toURI()));
+    Arrays.fill(pbf, 125, 127, (byte) 0);
+    Path corruptFile = Files.write(directory.resolve("corrupt.osm.pbf"), pbf);
+    IOException exception = assertThrows(IOException.class, () -> new PbfOsmReader(corruptFile.toString(), 4).read(new IOsmElementHandler() { }));
+    assertEquals("corrupt PBF blob - unknown compression method", exception.getMessage());
+
+    IllegalStateException handlerException = assertThrows(IllegalStateException.class, () -> new PbfOsmReader(getClass().getClassLoader().getResource("pbf/sf-potrero.osm.pbf").getFile(), 4)
+        .read(new IOsmElementHandler() {
+          @Override
+          public void onWay(OsmWay way) {
+            throw new IllegalStateException("handler failure");
+          }
+        }));
+    assertEquals("handler failure", handlerException.getMessage());
+
+  }
+
+}
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// --transform-threads - the load pipeline with transforms inline on the reader thread (0) and on a worker pool
+//  must write the same graph
+public class MainPipelineTest {
+
+  @TempDir
+  Path directory;
+
+  private GraphDbLoader load(int transformThreads) throws Exception {
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    source.setTransformThreads(transformThreads);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve("graph-" + transformThreads + ".db").toFile().getAbsolutePath());
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+    source.closeNodeShapeStore();
+    return graphDbLoader;
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute(query);
+      return (Long) result.next().get("total");
+    }
+  }
+
+  // every relationship by endpoints, way and geometry - in a stable order
+  private static List<String> listRelationships(GraphDbLoader graphDbLoader) {
+    List<String> relationships = new ArrayList<String>();
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute("MATCH (a)-[r:CONNECTS]->(b) RETURN a.osm_id + '-' + b.osm_id + ' ' + r.osm_id + ' ' + r.way + ' ' + r.length AS rel ORDER BY rel");
+      while (result.hasNext()) relationships.add((String) result.next().get("rel"));
+    }
+    return relationships;
+  }
+
+  private static Map<String, Object> getSampleRelationship(GraphDbLoader graphDbLoader) {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute("MATCH ()-[r]->() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 RETURN r");
+      return ((Relationship) result.next().get("r")).getAllProperties();
+    }
+  }
+
+  @Test
+  public void testInlineMatchesWorkers() throws Exception {
+
+    GraphDbLoader inlineGraphDbLoader = this.load(0);
+    GraphDbLoader workerGraphDbLoader = this.load(3);
+
+    try {
+
+      for (GraphDbLoader graphDbLoader : List.of(inlineGraphDbLoader, workerGraphDbLoader)) {
+        assertEquals(5368, count(graphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+        assertEquals(676, count(graphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+        assertEquals(4, count(graphDbLoader, "MATCH (n)-[r]-() WHERE n.osm_id=65354557 RETURN COUNT(r) AS total"));
+      }
+
+      assertEquals(listRelationships(inlineGraphDbLoader), listRelationships(workerGraphDbLoader));
+
+      // sample relationship - same properties and values, geom points included
+      Map<String, Object> inlineProps = getSampleRelationship(inlineGraphDbLoader);
+      Map<String, Object> workerProps = getSampleRelationship(workerGraphDbLoader);
+      assertEquals(inlineProps.keySet(), workerProps.keySet());
+      for (String key : inlineProps.keySet()) {
+        if (inlineProps.get(key) instanceof Object[]) assertArrayEquals((Object[]) inlineProps.get(key), (Object[]) workerProps.get(key), key);
+        else assertEquals(inlineProps.get(key), workerProps.get(key), key);
+      }
+      assertEquals(8920510, inlineProps.get("osm_id"));
+      assertEquals("residential", inlineProps.get("highway"));
+      assertEquals("LINESTRING(-122.3964163 37.7511897,-122.3964262 37.7513044)", inlineProps.get("way"));
+
+    } finally {
+      inlineGraphDbLoader.shutdown();
+      workerGraphDbLoader.shutdown();
+    }
+
+  }
+
+}
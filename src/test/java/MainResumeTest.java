@@ -0,0 +1,223 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+import me.callsen.taylor.osm2graph_neo4j.data.AdaptiveCommitPolicy;
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.LoadCheckpoint;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmNode;
+
+// sf-potrero.osm load interrupted partway (simulated crash - uncommitted work is lost) and continued from its
+//  checkpoint - the resumed graph must match a complete load, without duplicates
+public class MainResumeTest {
+
+  @TempDir
+  Path directory;
+
+  // fails after a number of writes, like a JVM dying mid-load
+  private static class CrashingGraphDbLoader extends GraphDbLoader {
+
+    private long remainingNodes;
+    private long remainingRelationships;
+
+    CrashingGraphDbLoader(String graphDbPath, long remainingNodes, long remainingRelationships) throws Exception {
+      super(graphDbPath);
+      this.remainingNodes = remainingNodes;
+      this.remainingRelationships = remainingRelationships;
+      // small batches - several checkpoints before the crash
+      this.setCommitPolicy(new AdaptiveCommitPolicy(20000, 20000, 60000));
+    }
+
+    @Override
+    public void createNode(OsmNode osmNode, Map<String, Object> nodeProps) {
+      if (--this.remainingNodes < 0) throw new IllegalStateException("simulated crash");
+      super.createNode(osmNode, nodeProps);
+    }
+
+    @Override
+    public void createRelationship(Map<String, Object> wayProps, long wayStartOsmId, long wayEndOsmId) {
+      if (--this.remainingRelationships < 0) throw new IllegalStateException("simulated crash");
+      super.createRelationship(wayProps, wayStartOsmId, wayEndOsmId);
+    }
+
+  }
+
+  private GraphDbLoader interruptAndResume(long crashAfterNodes, long crashAfterRelationships, String expectedPhase) throws Exception {
+    return this.interruptAndResume(crashAfterNodes, crashAfterRelationships, expectedPhase, 1);
+  }
+
+  private GraphDbLoader interruptAndResume(long crashAfterNodes, long crashAfterRelationships, String expectedPhase, int relationshipWriters) throws Exception {
+
+    String graphDbPath = directory.toFile().getAbsolutePath();
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+
+    // interrupted load
+    OsmSource source = new OsmSource(osmFilePath);
+    CrashingGraphDbLoader crashingLoader = new CrashingGraphDbLoader(graphDbPath, crashAfterNodes, crashAfterRelationships);
+    crashingLoader.setRelationshipWriterThreads(relationshipWriters);
+    crashingLoader.enableCheckpoints("default", osmFilePath);
+    assertThrows(IllegalStateException.class, () -> {
+      source.loadNodesIntoDb(crashingLoader);
+      source.loadWaysIntoGraph(crashingLoader);
+    });
+    source.closeNodeShapeStore();
+    crashingLoader.shutdown();
+
+    // resumed load
+    GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath);
+    graphDbLoader.setRelationshipWriterThreads(relationshipWriters);
+    LoadCheckpoint checkpoint = graphDbLoader.readCheckpoint();
+    assertNotNull(checkpoint);
+    assertEquals(expectedPhase, checkpoint.getPhase());
+    assertTrue(checkpoint.getOrdinal() > 0);
+
+    OsmSource resumeSource = new OsmSource(osmFilePath);
+    assertTrue(resumeSource.resumeLoadIntoGraph(graphDbLoader, osmFilePath));
+    resumeSource.closeNodeShapeStore();
+    assertNull(graphDbLoader.readCheckpoint());
+    return graphDbLoader;
+
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String cypher) {
+    Transaction tx = graphDbLoader.getTransaction();
+    Result result = tx.execute(cypher);
+    long count = (Long) result.next().get("total");
+    tx.close();
+    return count;
+  }
+
+  private static void assertCompleteGraph(GraphDbLoader graphDbLoader) {
+    assertEquals(5368, count(graphDbLoader, "MATCH (n) RETURN COUNT(DISTINCT(n)) AS total"));
+    assertEquals(5368, count(graphDbLoader, "MATCH (n) RETURN COUNT(DISTINCT(n.osm_id)) AS total"));
+    assertEquals(676, count(graphDbLoader, "MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total"));
+    assertEquals(4, count(graphDbLoader, "MATCH (a)-[r]-(b) WHERE a.osm_id=65354557 RETURN COUNT(DISTINCT(r)) AS total"));
+  }
+
+  @Test
+  public void testResumeNodes() throws Exception {
+    GraphDbLoader graphDbLoader = this.interruptAndResume(3000, Long.MAX_VALUE, LoadCheckpoint.PHASE_NODES);
+    assertCompleteGraph(graphDbLoader);
+    graphDbLoader.shutdown();
+  }
+
+  @Test
+  public void testResumeWays() throws Exception {
+    GraphDbLoader graphDbLoader = this.interruptAndResume(Long.MAX_VALUE, 400, LoadCheckpoint.PHASE_WAYS);
+    assertCompleteGraph(graphDbLoader);
+    graphDbLoader.shutdown();
+  }
+
+  // batches of concurrent writers commit out of order - ways committed beyond a gap are skipped as committed ranges
+  @Test
+  public void testResumeConcurrentWays() throws Exception {
+    GraphDbLoader graphDbLoader = this.interruptAndResume(Long.MAX_VALUE, 400, LoadCheckpoint.PHASE_WAYS, 4);
+    assertCompleteGraph(graphDbLoader);
+    graphDbLoader.shutdown();
+  }
+
+  // a batch of a concurrent writer that can't be written fails the load - its ways are written by the resume
+  @Test
+  public void testResumeFailedBatch() throws Exception {
+
+    String graphDbPath = directory.toFile().getAbsolutePath();
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+
+    OsmSource source = new OsmSource(osmFilePath);
+    GraphDbLoader failingLoader = new GraphDbLoader(graphDbPath) {
+      private final AtomicBoolean failed = new AtomicBoolean(false);
+      // endpoint lookups of the writer threads (cacheResult false) - the first one of a given intersection fails
+      @Override
+      public Node findIntersectionNode(Transaction tx, long osmId, boolean cacheResult) {
+        if (!cacheResult && osmId == 65354557 && this.failed.compareAndSet(false, true)) {
+          throw new IllegalStateException("simulated write failure");
+        }
+        return super.findIntersectionNode(tx, osmId, cacheResult);
+      }
+    };
+    failingLoader.setCommitPolicy(new AdaptiveCommitPolicy(20000, 20000, 60000));
+    failingLoader.setRelationshipWriterThreads(4);
+    failingLoader.enableCheckpoints("default", osmFilePath);
+    source.loadNodesIntoDb(failingLoader);
+    assertThrows(IllegalStateException.class, () -> {
+      source.loadWaysIntoGraph(failingLoader);
+      failingLoader.flush();
+    });
+    assertTrue(count(failingLoader, "MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total") < 676);
+    assertNotNull(failingLoader.readCheckpoint());
+    source.closeNodeShapeStore();
+    failingLoader.shutdown();
+
+    GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath);
+    OsmSource resumeSource = new OsmSource(osmFilePath);
+    assertTrue(resumeSource.resumeLoadIntoGraph(graphDbLoader, osmFilePath));
+    resumeSource.closeNodeShapeStore();
+    assertNull(graphDbLoader.readCheckpoint());
+    assertCompleteGraph(graphDbLoader);
+    graphDbLoader.shutdown();
+
+  }
+
+  // a failed commit of the shared transaction loses its checkpoint along with the data - the load stops there, and the
+  //  resume continues from the previous checkpoint
+  @Test
+  public void testResumeFailedCommit() throws Exception {
+
+    String graphDbPath = directory.toFile().getAbsolutePath();
+    String osmFilePath = getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile();
+
+    OsmSource source = new OsmSource(osmFilePath);
+    GraphDbLoader failingLoader = new GraphDbLoader(graphDbPath) {
+      private int commits = 0;
+      // the third commit fails
+      @Override
+      public Transaction getTransaction() {
+        Transaction tx = super.getTransaction();
+        return (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(), new Class<?>[] { Transaction.class }, (proxy, method, args) -> {
+          if (method.getName().equals("commit") && ++this.commits == 3) {
+            // rolled back, like a commit Neo4j rejects
+            tx.close();
+            throw new IllegalStateException("simulated commit failure");
+          }
+          try {
+            return method.invoke(tx, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+      }
+    };
+    failingLoader.setCommitPolicy(new AdaptiveCommitPolicy(20000, 20000, 60000));
+    failingLoader.enableCheckpoints("default", osmFilePath);
+    assertThrows(IllegalStateException.class, () -> source.loadNodesIntoDb(failingLoader));
+    LoadCheckpoint checkpoint = failingLoader.readCheckpoint();
+    assertEquals(LoadCheckpoint.PHASE_NODES, checkpoint.getPhase());
+    assertEquals(checkpoint.getOrdinal(), count(failingLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+    source.closeNodeShapeStore();
+    failingLoader.shutdown();
+
+    GraphDbLoader graphDbLoader = new GraphDbLoader(graphDbPath);
+    OsmSource resumeSource = new OsmSource(osmFilePath);
+    assertTrue(resumeSource.resumeLoadIntoGraph(graphDbLoader, osmFilePath));
+    resumeSource.closeNodeShapeStore();
+    assertCompleteGraph(graphDbLoader);
+    graphDbLoader.shutdown();
+
+  }
+
+}
@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+import me.callsen.taylor.osm2graph_neo4j.data.PropertySchema;
+import me.callsen.taylor.osm2graph_neo4j.data.osm.OsmWay;
+
+@TestInstance(Lifecycle.PER_CLASS)
+// same extract as MainTest loaded with the compact property schema and without metadata - no redundant WKT/JSON
+//  copies, typed road tags
+public class MainSchemaTest {
+
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader graphDbLoader;
+
+  @BeforeAll
+  public void initResources() throws Exception {
+
+    ClassLoader classLoader = getClass().getClassLoader();
+    OsmSource source = new OsmSource(classLoader.getResource("xml/sf-potrero.osm").getFile());
+    source.setPropertySchema(new PropertySchema(true, false));
+    graphDbLoader = new GraphDbLoader(directory.toFile().getAbsolutePath());
+    assertNotNull(graphDbLoader);
+
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+    source.closeNodeShapeStore();
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    graphDbLoader.shutdown();
+  }
+
+  @Test
+  public void testCounts() throws Exception {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      assertEquals(5368l, tx.execute("MATCH (n) RETURN COUNT(DISTINCT(n)) AS total").next().get("total"));
+      assertEquals(676l, tx.execute("MATCH ()-[r]-() RETURN COUNT(DISTINCT(r)) AS total").next().get("total"));
+    }
+  }
+
+  @Test
+  public void testNodeProperties() throws Exception {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute("MATCH (n) WHERE n.osm_id=65354557 RETURN n");
+      assertTrue(result.hasNext());
+      Node node = (Node) result.next().get("n");
+
+      // coordinates only in the geom point, at full precision
+      List<Double> coords = ((Point) node.getProperty("geom")).getCoordinate().getCoordinate();
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
+      assertFalse(node.hasProperty("lat"));
+      assertFalse(node.hasProperty("lon"));
+      assertFalse(node.hasProperty("geom_wkt"));
+
+      // no metadata
+      assertFalse(node.hasProperty("version"));
+      assertFalse(node.hasProperty("timestamp"));
+      assertFalse(node.hasProperty("changeset"));
+    }
+  }
+
+  @Test
+  public void testRelationshipProperties() throws Exception {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute("MATCH ()-[r]-() WHERE r.start_osm_id=65354557 AND r.end_osm_id=6916235511 return DISTINCT(r)");
+      assertTrue(result.hasNext());
+      Relationship rel = (Relationship) result.next().get("r");
+
+      assertEquals(8920510, rel.getProperty("osm_id"));
+      assertArrayEquals(new long[] { 65354557l, 6916235511l }, (long[]) rel.getProperty("refOsmNodes"));
+      assertEquals(2, ((Point[]) rel.getProperty("geom")).length);
+      assertFalse(rel.hasProperty("way"));
+      assertEquals("residential", rel.getProperty("highway"));
+    }
+  }
+
+  @Test
+  public void testNumericTags() throws Exception {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      // US 101 - maxspeed=50 mph, lanes=4
+      Map<String, Object> row = tx.execute("MATCH ()-[r]-() WHERE r.osm_id=58841187 RETURN r.maxspeed, r.lanes LIMIT 1").next();
+      assertEquals(80.4672, (Double) row.get("r.maxspeed"), 1e-9);
+      assertEquals(4, row.get("r.lanes"));
+    }
+
+    PropertySchema compactSchema = new PropertySchema(true, true);
+    Map<String, Object> props = compactSchema.assembleOsmItemProps(new OsmWay(1, new long[] { 1, 2 }, Map.of("id", "1"),
+        Map.of("maxspeed", "30", "width", "10 ft", "lanes", "2;3")));
+    assertEquals(30.0, props.get("maxspeed"));
+    assertEquals(3.048, (Double) props.get("width"), 1e-9);
+    // not a single number - stored as is
+    assertEquals("2;3", props.get("lanes"));
+    assertEquals(1, props.get("osm_id"));
+
+    // only plain decimals are converted - Java literal suffixes, hex floats and special values stay strings
+    for (String maxspeed : new String[] { "50f", "50d", "0x1p5", "NaN", "Infinity", "signals" }) {
+      props = compactSchema.assembleOsmItemProps(new OsmWay(1, new long[] { 1, 2 }, Map.of("id", "1"), Map.of("maxspeed", maxspeed)));
+      assertEquals(maxspeed, props.get("maxspeed"));
+    }
+    for (String lanes : new String[] { "-1", "+2", "99999999999" }) {
+      props = compactSchema.assembleOsmItemProps(new OsmWay(1, new long[] { 1, 2 }, Map.of("id", "1"), Map.of("lanes", lanes)));
+      assertEquals(lanes, props.get("lanes"));
+    }
+    props = compactSchema.assembleOsmItemProps(new OsmWay(1, new long[] { 1, 2 }, Map.of("id", "1"), Map.of("maxspeed", "1" + "0".repeat(400) + " mph")));
+    assertEquals("1" + "0".repeat(400) + " mph", props.get("maxspeed"));
+    props = compactSchema.assembleOsmItemProps(new OsmWay(1, new long[] { 1, 2 }, Map.of("id", "1"), Map.of("maxspeed", "12.5 knots", "width", "2.5")));
+    assertEquals(23.15, (Double) props.get("maxspeed"), 1e-9);
+    assertEquals(2.5, props.get("width"));
+  }
+
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.TestInstance.Lifecycle;
+import org.junit.jupiter.api.io.TempDir;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.spatial.Point;
+
+import me.callsen.taylor.osm2graph_neo4j.data.GraphDbLoader;
+import me.callsen.taylor.osm2graph_neo4j.data.OsmSource;
+
+// --simplify - only way endpoints and shared nodes become graph nodes; shape points in between are collapsed into
+//  one relationship per direction, compared against the full topology of the same extract
+@TestInstance(Lifecycle.PER_CLASS)
+public class MainSimplifyTest {
+
+  // US 101 between two ramps - 17 way nodes, none shared with another highway in between
+  private static final long WAY_OSM_ID = 27183379;
+  private static final long START_OSM_ID = 65284012;
+  private static final long END_OSM_ID = 65322266;
+
+  @TempDir
+  private static Path directory;
+
+  private static GraphDbLoader simplifiedGraphDbLoader;
+  private static GraphDbLoader fullGraphDbLoader;
+
+  private GraphDbLoader load(String graphDbName, boolean simplifyTopology) throws Exception {
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    source.setSimplifyTopology(simplifyTopology);
+    GraphDbLoader graphDbLoader = new GraphDbLoader(directory.resolve(graphDbName).toFile().getAbsolutePath());
+    source.loadNodesIntoDb(graphDbLoader);
+    source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
+    source.closeNodeShapeStore();
+    return graphDbLoader;
+  }
+
+  @BeforeAll
+  public void initResources() throws Exception {
+    simplifiedGraphDbLoader = this.load("simplified.db", true);
+    fullGraphDbLoader = this.load("full.db", false);
+  }
+
+  @AfterAll
+  public void shutdownResources() {
+    simplifiedGraphDbLoader.shutdown();
+    fullGraphDbLoader.shutdown();
+  }
+
+  private static long count(GraphDbLoader graphDbLoader, String query) {
+    try (Transaction tx = graphDbLoader.getTransaction()) {
+      Result result = tx.execute(query);
+      return (Long) result.next().get("total");
+    }
+  }
+
+  @Test
+  public void testCounts() throws Exception {
+    assertEquals(106, count(simplifiedGraphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+    assertEquals(238, count(simplifiedGraphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+    // same extract without simplification
+    assertEquals(5368, count(fullGraphDbLoader, "MATCH (n:INTERSECTION) RETURN COUNT(n) AS total"));
+    assertEquals(676, count(fullGraphDbLoader, "MATCH ()-[r:CONNECTS]->() RETURN COUNT(r) AS total"));
+  }
+
+  @Test
+  public void testCollapsedSegment() throws Exception {
+
+    double collapsedLength;
+    try (Transaction tx = simplifiedGraphDbLoader.getTransaction()) {
+
+      Result result = tx.execute("MATCH ()-[r:CONNECTS]->() WHERE r.start_osm_id=" + START_OSM_ID + " AND r.end_osm_id=" + END_OSM_ID + " RETURN r");
+      Relationship rel = (Relationship) result.next().get("r");
+      assertTrue(!result.hasNext());
+      assertEquals((int) WAY_OSM_ID, rel.getProperty("osm_id"));
+
+      // every shape point of the way between the two graph nodes
+      Point[] wayGeom = (Point[]) rel.getProperty("geom");
+      assertEquals(17, wayGeom.length);
+      assertEquals(-122.4030799, wayGeom[0].getCoordinate().getCoordinate().get(0));
+      assertEquals(37.7533449, wayGeom[16].getCoordinate().getCoordinate().get(1));
+      String refOsmNodes = (String) rel.getProperty("refOsmNodes");
+      assertEquals(17, refOsmNodes.split("\"ref\"").length - 1);
+      assertTrue(refOsmNodes.startsWith("[{\"ref\":" + START_OSM_ID + "}"));
+      assertTrue(refOsmNodes.endsWith("{\"ref\":" + END_OSM_ID + "}]"));
+
+      // shape points are not graph nodes
+      assertEquals(0, count(simplifiedGraphDbLoader, "MATCH (n:INTERSECTION) WHERE n.osm_id=7433586744 RETURN COUNT(n) AS total"));
+
+      collapsedLength = (Double) rel.getProperty("length");
+
+    }
+
+    // length of the collapsed segment - sum of the 16 segments it replaces (both directions exist in the full graph)
+    try (Transaction tx = fullGraphDbLoader.getTransaction()) {
+      Result result = tx.execute("MATCH (a:INTERSECTION)-[r:CONNECTS]->(b:INTERSECTION) WHERE r.osm_id=" + WAY_OSM_ID
+          + " AND a.osm_id IN $refs AND b.osm_id IN $refs RETURN COUNT(r) AS total, SUM(r.length) AS length",
+          Map.of("refs", new long[] { 65284012L, 7433586744L, 65371874L, 65371876L, 7433586747L, 728946955L, 7433586751L, 65288975L,
+              7433586734L, 728948454L, 7433586738L, 728948842L, 7429328373L, 728950429L, 7429328377L, 65281651L, 65322266L }));
+      Map<String, Object> row = result.next();
+      assertEquals(32L, row.get("total"));
+      assertEquals((Double) row.get("length") / 2, collapsedLength, 1e-6);
+    }
+
+  }
+
+  @Test
+  public void testWaysRequireNodePass() throws Exception {
+
+    // shape point coordinates only exist in the coordinate store of a node pass in the same run
+    OsmSource source = new OsmSource(getClass().getClassLoader().getResource("xml/sf-potrero.osm").getFile());
+    source.setSimplifyTopology(true);
+    IllegalStateException exception = assertThrows(IllegalStateException.class, () -> source.loadWaysIntoGraph(simplifiedGraphDbLoader));
+    assertEquals("simplified topology requires nodes to be loaded in the same run", exception.getMessage());
+
+  }
+
+}
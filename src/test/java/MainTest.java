@@ -41,6 +41,7 @@ public class MainTest {
 
     source.loadNodesIntoDb(graphDbLoader);
     source.loadWaysIntoGraph(graphDbLoader);
+    graphDbLoader.flush();
   }
 
   @AfterAll
@@ -91,7 +92,7 @@ public class MainTest {
     while ( result.hasNext() ) {
       Map<String, Object> row = result.next();
       long count = (Long) row.get("total");
-      assertEquals(670, count);
+      assertEquals(676, count);
     }
     tx.close();
   }
@@ -125,10 +126,10 @@ public class MainTest {
       // geom as Point
       Point[] wayGeom = (Point[]) rel.getProperty("geom");
       List<Double> coords = wayGeom[0].getCoordinate().getCoordinate();
-      assertEquals(-122.396416, coords.get(0));
-      assertEquals(37.75119, coords.get(1));
+      assertEquals(-122.3964163, coords.get(0));
+      assertEquals(37.7511897, coords.get(1));
       // way wky
-      assertEquals("LINESTRING(-122.396416 37.75119,-122.39642 37.751305)", rel.getProperty("way"));
+      assertEquals("LINESTRING(-122.3964163 37.7511897,-122.3964262 37.7513044)", rel.getProperty("way"));
       // properties
       assertEquals("residential", rel.getProperty("highway"));
     }